@@ -0,0 +1,70 @@
+package com.java;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ClipboardManager} over a throwaway SQLite file, wired so that it never touches the JavaFX
+ * toolkit: callbacks run directly on the database thread instead of through {@code Platform.runLater}.
+ */
+final class BenchmarkDatabase {
+
+    private static final String[] WORDS = {
+            "request", "handler", "session", "timeout", "config", "import", "return", "public", "static",
+            "value", "error", "warning", "deploy", "server", "client", "cache", "index", "query", "token", "stream"
+    };
+
+    private final Path directory;
+    private final ClipboardManager manager;
+    private int saved;
+
+    BenchmarkDatabase(long historyBudgetBytes) throws IOException, InterruptedException, ExecutionException {
+        directory = Files.createTempDirectory("ditto-bench");
+        manager = new ClipboardManager(historyBudgetBytes, directory.resolve("clipboard.db").toString(), Runnable::run);
+        // Queued behind initialisation, so the schema exists and ids are assigned once this returns
+        manager.reloadHistory().get();
+    }
+
+    ClipboardManager manager() {
+        return manager;
+    }
+
+    /**
+     * Saves {@code count} distinct synthetic items of roughly {@code size} characters through the regular
+     * capture path and waits until all of them are committed.
+     */
+    void populate(int count, int size, Random random) throws InterruptedException {
+        CountDownLatch committed = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            String content = syntheticItem(random, saved++, size);
+            manager.saveToDatabase(content, ContentHash.of(content), (item, replaced) -> committed.countDown());
+        }
+        committed.await();
+    }
+
+    void close() throws IOException {
+        manager.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /** Log-like text built from a small vocabulary, made unique by its sequence number. */
+    static String syntheticItem(Random random, int sequence, int size) {
+        StringBuilder text = new StringBuilder(size + 32);
+        text.append('#').append(sequence);
+        while (text.length() < size) {
+            text.append(text.length() % 80 < 8 ? '\n' : ' ').append(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextInt(4) == 0) {
+                text.append('=').append(random.nextInt(100_000));
+            }
+        }
+        return text.toString();
+    }
+}
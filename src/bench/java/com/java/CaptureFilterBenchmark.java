@@ -0,0 +1,74 @@
+package com.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Cost of running capture rules over clipboard text that matches none of them, the common case, per rule
+ * count and payload size. {@link #perRule} is what one scan per rule would cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CaptureFilterBenchmark {
+
+    @Param({"6", "64"})
+    public int ruleCount;
+
+    @Param({"256", "4096", "262144"})
+    public int payloadSize;
+
+    private String content;
+    private CaptureFilter filter;
+    private Pattern[] patterns;
+
+    @Setup
+    public void setUp() {
+        content = BenchmarkDatabase.syntheticItem(new Random(42), 0, payloadSize);
+        // The default rules, then half literals and half regexes shaped like token rules
+        List<CaptureFilter.Rule> rules = new ArrayList<>(SettingsManager.getDefaultCaptureRules());
+        for (int i = rules.size(); i < ruleCount; i++) {
+            rules.add(i % 2 == 0
+                    ? new CaptureFilter.Rule("literal-" + i, CaptureFilter.Action.REDACT, false, "internal-secret-" + i)
+                    : new CaptureFilter.Rule("regex-" + i, CaptureFilter.Action.REDACT, true, "\\btok" + i + "_[a-f0-9]{32}\\b"));
+        }
+        filter = new CaptureFilter(rules, 0);
+        patterns = rules.stream()
+                .map(rule -> Pattern.compile(rule.isRegex() ? rule.getPattern() : Pattern.quote(rule.getPattern())))
+                .toArray(Pattern[]::new);
+    }
+
+    @Benchmark
+    public String filter() {
+        return filter.apply(content);
+    }
+
+    @Benchmark
+    public int perRule() {
+        int matches = 0;
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(content).find()) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,221 @@
+package com.java;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Replays a copy workload against a headless {@link ClipboardManager} through a {@link SyntheticClipboardSource}
+ * and reports throughput, end-to-end capture latency (copy to item stored and shown) and dropped or duplicated
+ * captures. Each payload starts with its sequence number, so captures can be matched back to copies.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.java.CaptureLoadGenerator --rate 50 --duration 20 --sizes 200:80,4000:15,200000:5
+ * </pre>
+ */
+public class CaptureLoadGenerator {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: CaptureLoadGenerator [options]",
+            "  --rate N          copies per second (default 20)",
+            "  --duration S      seconds to generate for (default 30)",
+            "  --count N         stop after N copies instead",
+            "  --sizes SPEC      payload size mix as size:weight,... (default 200:80,4000:15,200000:5)",
+            "  --poll-ms MIN:MAX poller interval bounds (default 150:2000)",
+            "  --script FILE     replay lines of \"offsetMs size\" instead of --rate and --sizes",
+            "  --db PATH         database file to use (default: a temporary one, deleted afterwards)",
+            "  --seed N          random seed (default 42)");
+
+    private final Map<Integer, Long> sentNanos = new ConcurrentHashMap<>();
+    private final Set<Integer> captured = ConcurrentHashMap.newKeySet();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong lastCaptureNanos = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public static void main(String[] args) throws Exception {
+        double rate = 20;
+        double duration = 30;
+        int count = Integer.MAX_VALUE;
+        String sizes = "200:80,4000:15,200000:5";
+        long minPoll = ClipboardPoller.MIN_INTERVAL_MS;
+        long maxPoll = ClipboardPoller.MAX_INTERVAL_MS;
+        Path script = null;
+        Path db = null;
+        long seed = 42;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--rate": rate = Double.parseDouble(args[++i]); break;
+                    case "--duration": duration = Double.parseDouble(args[++i]); break;
+                    case "--count": count = Integer.parseInt(args[++i]); break;
+                    case "--sizes": sizes = args[++i]; break;
+                    case "--poll-ms": {
+                        String[] bounds = args[++i].split(":");
+                        minPoll = Long.parseLong(bounds[0]);
+                        maxPoll = bounds.length > 1 ? Long.parseLong(bounds[1]) : Math.max(minPoll, maxPoll);
+                        break;
+                    }
+                    case "--script": script = Paths.get(args[++i]); break;
+                    case "--db": db = Paths.get(args[++i]); break;
+                    case "--seed": seed = Long.parseLong(args[++i]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : e.toString());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        List<long[]> workload;
+        if (script != null) {
+            workload = readScript(script);
+        } else {
+            workload = generate(rate, duration, count, parseSizes(sizes), new Random(seed));
+        }
+        new CaptureLoadGenerator().run(workload, minPoll, maxPoll, db, new Random(seed));
+        System.exit(0);
+    }
+
+    // Each entry is {offset from start in nanoseconds, payload size}
+    private static List<long[]> generate(double rate, double duration, int count, long[][] sizes, Random random) {
+        long totalWeight = 0;
+        for (long[] size : sizes) {
+            totalWeight += size[1];
+        }
+        long intervalNanos = (long) (1_000_000_000L / rate);
+        long endNanos = (long) (duration * 1_000_000_000L);
+        List<long[]> workload = new ArrayList<>();
+        for (long offset = 0; workload.size() < count && (count != Integer.MAX_VALUE || offset < endNanos); offset += intervalNanos) {
+            long pick = (long) (random.nextDouble() * totalWeight);
+            int i = 0;
+            while (pick >= sizes[i][1]) {
+                pick -= sizes[i++][1];
+            }
+            workload.add(new long[]{offset, sizes[i][0]});
+        }
+        return workload;
+    }
+
+    private static long[][] parseSizes(String spec) {
+        String[] parts = spec.split(",");
+        long[][] sizes = new long[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            String[] sizeAndWeight = parts[i].trim().split(":");
+            sizes[i] = new long[]{Long.parseLong(sizeAndWeight[0]), sizeAndWeight.length > 1 ? Long.parseLong(sizeAndWeight[1]) : 1};
+        }
+        return sizes;
+    }
+
+    private static List<long[]> readScript(Path script) throws IOException {
+        List<long[]> workload = new ArrayList<>();
+        for (String line : Files.readAllLines(script)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            workload.add(new long[]{TimeUnit.MILLISECONDS.toNanos(Long.parseLong(fields[0])), Long.parseLong(fields[1])});
+        }
+        return workload;
+    }
+
+    private void run(List<long[]> workload, long minPoll, long maxPoll, Path db, Random random) throws Exception {
+        Path directory = db == null ? Files.createTempDirectory("ditto-load") : null;
+        Path dbPath = db != null ? db : directory.resolve("clipboard.db");
+
+        // A single thread stands in for the JavaFX Application Thread
+        ExecutorService uiThread = Executors.newSingleThreadExecutor();
+        SyntheticClipboardSource source = new SyntheticClipboardSource();
+        ClipboardManager manager = new ClipboardManager(PagedHistoryList.DEFAULT_BUDGET_BYTES, dbPath.toString(), uiThread, source);
+        manager.reloadHistory().get();
+        manager.setCaptureListener(this::onCapture);
+        manager.startPolling(minPoll, maxPoll);
+
+        // Payloads are built up front so generating them does not skew the pacing
+        List<String> payloads = new ArrayList<>(workload.size());
+        for (int i = 0; i < workload.size(); i++) {
+            payloads.add(BenchmarkDatabase.syntheticItem(random, i, (int) workload.get(i)[1]));
+        }
+        System.out.printf("Replaying %d copies against %s%n", workload.size(), dbPath);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < workload.size(); i++) {
+            long due = start + workload.get(i)[0];
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+            sentNanos.put(i, System.nanoTime());
+            source.writeText(payloads.get(i));
+        }
+        double sendSeconds = (System.nanoTime() - start) / 1e9;
+
+        // Drain: wait until the writes are committed and no capture has arrived for a couple of poll intervals
+        long quietNanos = TimeUnit.MILLISECONDS.toNanos(2 * maxPoll + 500);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        lastCaptureNanos.compareAndSet(0, System.nanoTime());
+        while (System.nanoTime() < deadline
+                && (manager.getMetrics().getPendingWrites() > 0 || System.nanoTime() - lastCaptureNanos.get() < quietNanos)) {
+            Thread.sleep(50);
+        }
+        double totalSeconds = (System.nanoTime() - start) / 1e9;
+
+        int sent = workload.size();
+        int unique = captured.size();
+        long superseded = source.getOverwrittenUnread();
+        System.out.printf("Sent:      %d copies in %.1f s (%.1f/s)%n", sent, sendSeconds, sent / Math.max(sendSeconds, 1e-9));
+        System.out.printf("Captured:  %d (%.1f/s over %.1f s), %d duplicated%n", unique, unique / totalSeconds, totalSeconds, duplicates.get());
+        System.out.printf("Dropped:   %d (%d replaced before a poll could see them, %d lost)%n",
+                sent - unique, superseded, sent - unique - superseded);
+        System.out.println("Latency:   " + latency.snapshot());
+        System.out.println("Polling:   " + manager.getPollStats());
+        System.out.println();
+        System.out.print(manager.getMetrics().report());
+
+        manager.shutdown();
+        uiThread.shutdown();
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private void onCapture(ClipboardItem item) {
+        long now = System.nanoTime();
+        lastCaptureNanos.set(now);
+        String preview = item.getPreview();
+        int end = 1;
+        while (end < preview.length() && Character.isDigit(preview.charAt(end))) {
+            end++;
+        }
+        if (!preview.startsWith("#") || end == 1) {
+            return;
+        }
+        int sequence = Integer.parseInt(preview.substring(1, end));
+        Long sent = sentNanos.get(sequence);
+        if (sent == null) {
+            return;
+        }
+        if (!captured.add(sequence)) {
+            duplicates.incrementAndGet();
+            return;
+        }
+        latency.record(now - sent);
+    }
+}
@@ -0,0 +1,70 @@
+package com.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The text work of binding one history cell, without the scene graph: what the cell used to do on every
+ * bind ({@link #decodeAndFormat}) against reading a prepared {@link ItemDisplay} ({@link #prepared}), and
+ * what preparing one costs on the reader thread ({@link #prepare}). Run with {@code -prof gc} for the
+ * allocation per bind; {@link ScrollBenchmark} measures the whole frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CellBindBenchmark {
+
+    @Param({"80", "1000", "200000"})
+    public int payloadSize;
+
+    private ClipboardItem item;
+
+    @Setup
+    public void setUp() {
+        String content = BenchmarkDatabase.syntheticItem(new Random(42), 0, payloadSize);
+        item = content.length() > ClipboardItem.PREVIEW_CHARS
+                ? new ClipboardItem(1, ClipboardItem.previewOf(content), ClipboardItem.lineCountOf(content),
+                        content.length(), ContentHash.of(content), LocalDateTime.now().minusHours(3))
+                : new ClipboardItem(1, content, LocalDateTime.now().minusHours(3));
+        item.getDisplay();
+    }
+
+    @Benchmark
+    public void decodeAndFormat(Blackhole blackhole) {
+        String time = item.getTimestamp().format(DateTimeFormatter.ofPattern("MMM dd, HH:mm:ss"));
+        blackhole.consume(item.isTruncated() ? item.getPreview() + "\u2026" : item.getPreview());
+        blackhole.consume(item.isTruncated()
+                ? time + "  \u00b7  " + item.getLineCount() + " lines, " + String.format("%.1f K chars", item.getLength() / 1024.0)
+                : time);
+    }
+
+    @Benchmark
+    public void prepared(Blackhole blackhole) {
+        ItemDisplay display = item.getDisplay();
+        blackhole.consume(display.getPreview());
+        blackhole.consume(display.getDetails());
+    }
+
+    @Benchmark
+    public ItemDisplay prepare() {
+        return ItemDisplay.of(item);
+    }
+}
@@ -0,0 +1,65 @@
+package com.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of deciding whether clipboard text is new, per payload size. Every poll reads a fresh String from
+ * the clipboard, so its {@code hashCode} is never cached; {@link #copy} is the baseline to subtract.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DedupBenchmark {
+
+    @Param({"64", "4096", "262144", "4194304"})
+    public int payloadSize;
+
+    private char[] chars;
+    private String previous;
+
+    @Setup
+    public void setUp() {
+        previous = BenchmarkDatabase.syntheticItem(new Random(42), 0, payloadSize);
+        chars = previous.toCharArray();
+    }
+
+    @Benchmark
+    public String copy() {
+        return new String(chars);
+    }
+
+    /** The poller's check: length first, then {@code String.hashCode} of the freshly read text. */
+    @Benchmark
+    public boolean pollerCheck() {
+        String content = new String(chars);
+        return content.length() != previous.length() || content.hashCode() != previous.hashCode();
+    }
+
+    /** The manager's check against the last copied and newest items, by 64-bit content hash. */
+    @Benchmark
+    public long contentHash() {
+        return ContentHash.of(new String(chars));
+    }
+
+    /** Full comparison, which the hashes exist to avoid. */
+    @Benchmark
+    public boolean equalsPrevious() {
+        return new String(chars).equals(previous);
+    }
+}
@@ -0,0 +1,52 @@
+package com.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to (re)load the history list at startup for databases of different depths: all ids plus the
+ * first page of items.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LoadHistoryBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int depth;
+
+    private BenchmarkDatabase database;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase(PagedHistoryList.DEFAULT_BUDGET_BYTES);
+        database.populate(depth, 200, new Random(42));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public int loadHistory() throws Exception {
+        database.manager().reloadHistory().get();
+        return database.manager().getHistory().size();
+    }
+}
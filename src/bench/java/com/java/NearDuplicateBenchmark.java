@@ -0,0 +1,50 @@
+package com.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SimHash every text capture now takes on the database thread, next to the content hash it already
+ * took. Texts past {@link SimHash#MAX_CHARS} only pay for their start. The band lookup that follows is part
+ * of {@link SaveBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NearDuplicateBenchmark {
+
+    @Param({"64", "4096", "65536", "4194304"})
+    public int payloadSize;
+
+    private String content;
+
+    @Setup
+    public void setUp() {
+        content = BenchmarkDatabase.syntheticItem(new Random(42), 0, payloadSize);
+    }
+
+    @Benchmark
+    public long simHash() {
+        return SimHash.of(content);
+    }
+
+    @Benchmark
+    public long contentHash() {
+        return ContentHash.of(content);
+    }
+}
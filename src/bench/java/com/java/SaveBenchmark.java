@@ -0,0 +1,57 @@
+package com.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert throughput of {@code saveToDatabase} into a temporary SQLite file, measured until every insert
+ * of the burst is committed, so batching, compression and index maintenance are all included.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SaveBenchmark {
+
+    private static final int BURST = 1000;
+
+    @Param({"100", "10000", "200000"})
+    public int payloadSize;
+
+    private BenchmarkDatabase database;
+    private final Random random = new Random(42);
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase(1000);
+        database.manager().setLargePayloadThreshold(64 * 1024);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void saveToDatabase() throws InterruptedException {
+        database.populate(BURST, payloadSize, random);
+    }
+}
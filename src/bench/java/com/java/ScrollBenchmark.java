@@ -0,0 +1,177 @@
+package com.java;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.Scene;
+import javafx.scene.control.ListView;
+import javafx.stage.Stage;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Scrolls a history list of synthetic items through its real cells, a few rows per frame, and reports
+ * frame intervals, CSS and layout time per pulse, and how much the JavaFX Application Thread allocates.
+ * Needs a display. {@code --unprepared} leaves each item's {@link ItemDisplay} to be built by the cell as
+ * it is bound, as if the reader thread had not prepared it.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.java.ScrollBenchmark --items 100000 --rows-per-frame 12 --duration 10
+ * </pre>
+ */
+public class ScrollBenchmark {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: ScrollBenchmark [options]",
+            "  --items N           history items to scroll through (default 100000)",
+            "  --rows-per-frame N  rows scrolled each frame (default 12)",
+            "  --duration S        seconds to scroll for, after a 2 s warm-up (default 10)",
+            "  --large-percent N   share of items over the preview size (default 5)",
+            "  --unprepared        let cells prepare each item's display while scrolling",
+            "  --seed N            random seed (default 42)");
+
+    private static int itemCount = 100_000;
+    private static int rowsPerFrame = 12;
+    private static double duration = 10;
+    private static int largePercent = 5;
+    private static boolean unprepared;
+    private static long seed = 42;
+
+    public static void main(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--items": itemCount = Integer.parseInt(args[++i]); break;
+                    case "--rows-per-frame": rowsPerFrame = Integer.parseInt(args[++i]); break;
+                    case "--duration": duration = Double.parseDouble(args[++i]); break;
+                    case "--large-percent": largePercent = Integer.parseInt(args[++i]); break;
+                    case "--unprepared": unprepared = true; break;
+                    case "--seed": seed = Long.parseLong(args[++i]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : e.toString());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        // Launched from a class that is not the Application, so it runs from the shaded jar's class path
+        Application.launch(App.class);
+    }
+
+    public static class App extends Application {
+
+        private static final long WARM_UP_NANOS = 2_000_000_000L;
+
+        private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private long[] frames = new long[4096];
+        private long[] layouts = new long[4096];
+        private int frameCount;
+        private int layoutCount;
+        private long layoutStart;
+
+        @Override
+        public void start(Stage stage) {
+            ObservableList<ClipboardItem> items = FXCollections.observableArrayList(createItems());
+            ListView<ClipboardItem> listView = new ListView<>(items);
+            // Cells only use the manager for clicks and menu actions, which the benchmark never triggers
+            ClipboardHistoryCell.install(listView, null);
+
+            Scene scene = new Scene(listView, 600, 800);
+            scene.getStylesheets().add(getClass().getResource("/styles.css").toExternalForm());
+            scene.addPreLayoutPulseListener(() -> layoutStart = System.nanoTime());
+            scene.addPostLayoutPulseListener(() -> {
+                if (layoutStart != 0 && frameCount > 0) {
+                    layouts = record(layouts, layoutCount++, System.nanoTime() - layoutStart);
+                }
+            });
+            stage.setScene(scene);
+            stage.setTitle("Scroll benchmark");
+            stage.show();
+
+            new AnimationTimer() {
+                private long started;
+                private long measuring;
+                private long allocatedAtStart;
+                private long last;
+                private int row;
+
+                @Override
+                public void handle(long now) {
+                    if (started == 0) {
+                        started = now;
+                    } else if (measuring == 0 && now - started >= WARM_UP_NANOS) {
+                        measuring = now;
+                        allocatedAtStart = threads.getCurrentThreadAllocatedBytes();
+                    } else if (measuring != 0) {
+                        frames = record(frames, frameCount++, now - last);
+                        if (now - measuring >= duration * 1e9) {
+                            stop();
+                            report((now - measuring) / 1e9, threads.getCurrentThreadAllocatedBytes() - allocatedAtStart);
+                            Platform.exit();
+                            return;
+                        }
+                    }
+                    last = now;
+                    row = (row + rowsPerFrame) % items.size();
+                    listView.scrollTo(row);
+                }
+            }.start();
+        }
+
+        private List<ClipboardItem> createItems() {
+            Random random = new Random(seed);
+            long now = TimeRange.toMillis(LocalDateTime.now());
+            List<ClipboardItem> items = new ArrayList<>(itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                int size = random.nextInt(100) < largePercent ? 4000 + random.nextInt(200_000) : 20 + random.nextInt(400);
+                String content = BenchmarkDatabase.syntheticItem(random, i, size);
+                // Spread over the last 30 days, newest first, so every age label shows up
+                long timestamp = now - (long) i * 30 * 24 * 3600 * 1000 / itemCount;
+                ClipboardItem item = content.length() > ClipboardItem.PREVIEW_CHARS
+                        ? new ClipboardItem(itemCount - i, ClipboardItem.previewOf(content), ClipboardItem.lineCountOf(content),
+                                content.length(), ContentHash.of(content), timestamp)
+                        : new ClipboardItem(itemCount - i, content, timestamp);
+                if (!unprepared) {
+                    item.getDisplay();
+                }
+                items.add(item);
+            }
+            return items;
+        }
+
+        private void report(double seconds, long allocated) {
+            System.out.printf("Scrolled %d frames in %.1f s (%.1f fps), %d rows per frame, %s displays%n",
+                    frameCount, seconds, frameCount / seconds, rowsPerFrame, unprepared ? "unprepared" : "prepared");
+            System.out.println("Frame interval:  " + percentiles(frames, frameCount));
+            System.out.println("CSS + layout:    " + percentiles(layouts, layoutCount));
+            System.out.printf("Allocated:       %.1f MB/s on the FX thread, %.1f KB per frame%n",
+                    allocated / seconds / (1024 * 1024), allocated / 1024.0 / Math.max(frameCount, 1));
+        }
+
+        private static long[] record(long[] values, int index, long value) {
+            if (index == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[index] = value;
+            return values;
+        }
+
+        private static String percentiles(long[] values, int count) {
+            if (count == 0) {
+                return "no samples";
+            }
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return String.format("p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    sorted[count / 2] / 1e6, sorted[(int) (count * 0.9)] / 1e6, sorted[(int) (count * 0.99)] / 1e6, sorted[count - 1] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The search box over synthetic histories: the full search behind it now (trigram index, then FTS5),
+ * the trigram index on its own, and the original in-memory {@code FilteredList} predicate
+ * ({@code toLowerCase().contains}) as the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    private static final int RESULT_LIMIT = 200;
+    private static final int ITEM_SIZE = 120;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int historySize;
+
+    @Param({"timeout", "handler=4"})
+    public String query;
+
+    private BenchmarkDatabase database;
+    private List<ClipboardItem> history;
+    private TrigramIndex index;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase(PagedHistoryList.DEFAULT_BUDGET_BYTES);
+        database.populate(historySize, ITEM_SIZE, new Random(42));
+
+        // Same texts again, held in memory the way the list used to hold the whole history
+        Random random = new Random(42);
+        history = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            history.add(new ClipboardItem(i, BenchmarkDatabase.syntheticItem(random, i, ITEM_SIZE), LocalDateTime.now()));
+        }
+        index = new TrigramIndex();
+        for (ClipboardItem item : history) {
+            index.add(item.getId(), item.getContent());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public int fullTextSearch() throws Exception {
+        return database.manager().search(query, RESULT_LIMIT, () -> false).get().size();
+    }
+
+    @Benchmark
+    public int trigramSearch() {
+        return index.search(query, RESULT_LIMIT).length;
+    }
+
+    @Benchmark
+    public int predicateScan() {
+        String lowerCaseFilter = query.toLowerCase();
+        int matches = 0;
+        for (ClipboardItem item : history) {
+            if (item.getContent().toLowerCase().contains(lowerCaseFilter)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,181 @@
+package com.java;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds every occurrence of a fixed set of literal strings in one left-to-right pass over the text,
+ * however many strings there are. Transitions on ASCII characters are precomputed into a table, so the
+ * common case costs one array read per character; other characters follow failure links. Can ignore ASCII
+ * case, as {@code (?i)} does in a regex. Immutable and safe to share between threads once built.
+ */
+public final class AhoCorasick {
+
+    /** Receives a match; returning false stops the scan. */
+    public interface Sink {
+        boolean match(int pattern, int start, int end);
+    }
+
+    private static final int ASCII = 128;
+    private static final int[] NO_MATCHES = new int[0];
+
+    private final int[] lengths;
+    // Full transition table over ASCII, ASCII entries per state; sparse goto edges for everything else
+    private final int[] ascii;
+    private final List<Map<Character, Integer>> other;
+    private final int[] fail;
+    // Patterns ending at each state, including those reached through failure links
+    private final int[][] matches;
+
+    public AhoCorasick(List<String> patterns) {
+        this(patterns, false);
+    }
+
+    public AhoCorasick(List<String> patterns, boolean ignoreCase) {
+        lengths = new int[patterns.size()];
+        List<int[]> asciiEdges = new ArrayList<>();
+        List<Map<Character, Integer>> otherEdges = new ArrayList<>();
+        List<int[]> ends = new ArrayList<>();
+        asciiEdges.add(newRow());
+        otherEdges.add(new HashMap<>());
+        ends.add(NO_MATCHES);
+
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("Empty pattern");
+            }
+            lengths[p] = pattern.length();
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (ignoreCase && c >= 'A' && c <= 'Z') {
+                    c = (char) (c + ('a' - 'A'));
+                }
+                int next = c < ASCII ? asciiEdges.get(state)[c] : otherEdges.get(state).getOrDefault(c, -1);
+                if (next < 0) {
+                    next = asciiEdges.size();
+                    asciiEdges.add(newRow());
+                    otherEdges.add(new HashMap<>());
+                    ends.add(NO_MATCHES);
+                    if (c < ASCII) {
+                        asciiEdges.get(state)[c] = next;
+                    } else {
+                        otherEdges.get(state).put(c, next);
+                    }
+                }
+                state = next;
+            }
+            ends.set(state, append(ends.get(state), p));
+        }
+
+        int states = asciiEdges.size();
+        int[][] table = asciiEdges.toArray(new int[0][]);
+        other = otherEdges;
+        fail = new int[states];
+        matches = ends.toArray(new int[0][]);
+
+        // Breadth first, so a state's failure target is finished before the state itself
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ASCII; c++) {
+            if (table[0][c] < 0) {
+                table[0][c] = 0;
+            } else {
+                queue.add(table[0][c]);
+            }
+        }
+        queue.addAll(other.get(0).values());
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            matches[state] = merge(matches[state], matches[fail[state]]);
+            for (int c = 0; c < ASCII; c++) {
+                int next = table[state][c];
+                if (next < 0) {
+                    table[state][c] = table[fail[state]][c];
+                } else {
+                    fail[next] = table[fail[state]][c];
+                    queue.add(next);
+                }
+            }
+            for (Map.Entry<Character, Integer> edge : other.get(state).entrySet()) {
+                int next = edge.getValue();
+                fail[next] = step(table, fail[state], edge.getKey());
+                queue.add(next);
+            }
+        }
+        ascii = new int[states * ASCII];
+        for (int state = 0; state < states; state++) {
+            System.arraycopy(table[state], 0, ascii, state * ASCII, ASCII);
+            if (ignoreCase) {
+                System.arraycopy(table[state], 'a', ascii, state * ASCII + 'A', 26);
+            }
+        }
+    }
+
+    public int size() {
+        return lengths.length;
+    }
+
+    /**
+     * Reports each occurrence as it ends, so overlapping and nested matches are all reported.
+     */
+    public void scan(String text, Sink sink) {
+        int[] ascii = this.ascii;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            state = c < ASCII ? ascii[state * ASCII + c] : step(null, state, c);
+            int[] found = matches[state];
+            if (found.length == 0) {
+                continue;
+            }
+            for (int pattern : found) {
+                if (!sink.match(pattern, i + 1 - lengths[pattern], i + 1)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Takes the table while it is still being built, null once it is flattened
+    private int step(int[][] table, int state, char c) {
+        if (c < ASCII) {
+            return table != null ? table[state][c] : ascii[state * ASCII + c];
+        }
+        while (true) {
+            Integer next = other.get(state).get(c);
+            if (next != null) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[ASCII];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    private static int[] merge(int[] own, int[] inherited) {
+        if (inherited.length == 0) {
+            return own;
+        }
+        int[] result = Arrays.copyOf(own, own.length + inherited.length);
+        System.arraycopy(inherited, 0, result, own.length, inherited.length);
+        return result;
+    }
+}
@@ -0,0 +1,267 @@
+package com.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A blocking client for {@link ApiServer}, one request at a time per instance, and the {@code ditto --client}
+ * command line built on it. Not thread-safe; open one per thread.
+ */
+public class ApiClient implements Closeable {
+
+    /** Where the daemon and the application listen, next to {@code clipboard.db}; {@code DITTO_SOCKET} overrides it. */
+    public static final String DEFAULT_SOCKET = "clipboard.db-socket";
+
+    private static final String USAGE = String.join("\n",
+            "Usage: ditto --client [--socket PATH] COMMAND",
+            "  recent [N]              newest N items (default 20), as id, time and first line",
+            "  search QUERY [N]        best N matches (default 20)",
+            "  get ID                  full text of an item",
+            "  push [--copy] [TEXT]    add TEXT, or standard input, to the history; --copy also puts it on the clipboard");
+
+    private final SocketChannel channel;
+    private ByteBuffer header = ByteBuffer.allocate(ApiProtocol.HEADER_SIZE);
+    private int nextRequestId;
+
+    private ApiClient(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    public static ApiClient connect(Path socketPath) throws IOException {
+        return new ApiClient(SocketChannel.open(UnixDomainSocketAddress.of(socketPath)));
+    }
+
+    public static Path defaultSocket() {
+        String configured = System.getenv("DITTO_SOCKET");
+        return Paths.get(configured != null && !configured.isEmpty() ? configured : DEFAULT_SOCKET);
+    }
+
+    /** One history entry as the server sends it; {@code text} is the preview, or the full text from {@link #get}. */
+    public static final class Item {
+        private final int id;
+        private final long created;
+        private final int length;
+        private final int lineCount;
+        private final String text;
+
+        Item(int id, long created, int length, int lineCount, String text) {
+            this.id = id;
+            this.created = created;
+            this.length = length;
+            this.lineCount = lineCount;
+            this.text = text;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /** Capture time in epoch milliseconds. */
+        public long getCreated() {
+            return created;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    public List<Item> recent(int limit) throws IOException {
+        ByteBuffer request = ApiProtocol.begin(ApiProtocol.RECENT, ++nextRequestId, 4).putInt(limit);
+        return readItems(call(request));
+    }
+
+    public List<Item> search(String query, int limit) throws IOException {
+        byte[] text = ApiProtocol.utf8(query);
+        ByteBuffer request = ApiProtocol.begin(ApiProtocol.SEARCH, ++nextRequestId, 4 + 4 + text.length).putInt(limit);
+        return readItems(call(ApiProtocol.putString(request, text)));
+    }
+
+    /** Returns the item with its full text, or null if there is none with this id. */
+    public Item get(int id) throws IOException {
+        ByteBuffer response = call(ApiProtocol.begin(ApiProtocol.GET, ++nextRequestId, 4).putInt(id));
+        if (status(response) == ApiProtocol.NOT_FOUND) {
+            return null;
+        }
+        int itemId = response.getInt();
+        long created = response.getLong();
+        String content = ApiProtocol.getString(response);
+        return new Item(itemId, created, content.length(), ClipboardItem.lineCountOf(content), content);
+    }
+
+    /** Adds text to the history and returns its item id, or -1 if a capture rule dropped it. */
+    public int push(String content, boolean copy) throws IOException {
+        byte[] text = ApiProtocol.utf8(content);
+        ByteBuffer request = ApiProtocol.begin(ApiProtocol.PUSH, ++nextRequestId, 1 + 4 + text.length).put(copy ? ApiProtocol.PUSH_COPY : 0);
+        ByteBuffer response = call(ApiProtocol.putString(request, text));
+        return status(response) == ApiProtocol.IGNORED ? -1 : response.getInt();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Sends a request and returns the response body positioned after the header, status at index 0
+    private ByteBuffer call(ByteBuffer request) throws IOException {
+        ApiProtocol.finish(request);
+        while (request.hasRemaining()) {
+            channel.write(request);
+        }
+        header.clear();
+        readFully(header);
+        header.flip();
+        int length = header.getInt();
+        byte status = header.get();
+        int requestId = header.getInt();
+        if (length < ApiProtocol.HEADER_SIZE - 4 || length > ApiProtocol.MAX_FRAME_SIZE || requestId != nextRequestId) {
+            throw new IOException("Unexpected response from server");
+        }
+        ByteBuffer body = ByteBuffer.allocate(1 + length - (ApiProtocol.HEADER_SIZE - 4)).put(status);
+        readFully(body);
+        body.flip().position(1);
+        if (status == ApiProtocol.ERROR) {
+            throw new IOException(ApiProtocol.getString(body));
+        }
+        return body;
+    }
+
+    private static byte status(ByteBuffer response) {
+        return response.get(0);
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+        }
+    }
+
+    private static List<Item> readItems(ByteBuffer response) {
+        int count = response.getInt();
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = response.getInt();
+            long created = response.getLong();
+            int length = response.getInt();
+            int lineCount = response.getInt();
+            items.add(new Item(id, created, length, lineCount, ApiProtocol.getString(response)));
+        }
+        return items;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs one command line against a running Ditto and returns the process exit code: 0 on success, 1 if the
+     * item was not found, the text was dropped or Ditto is not running, 2 on bad usage.
+     */
+    static int run(String[] args) {
+        Path socket = defaultSocket();
+        int first = 0;
+        if (args.length >= 2 && args[0].equals("--socket")) {
+            socket = Paths.get(args[1]);
+            first = 2;
+        }
+        if (args.length == first) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        String command = args[first];
+        List<String> rest = List.of(args).subList(first + 1, args.length);
+        PrintStream out = new PrintStream(System.out, false, StandardCharsets.UTF_8);
+        try (ApiClient client = connect(socket)) {
+            switch (command) {
+                case "recent":
+                    print(out, client.recent(rest.isEmpty() ? 20 : Integer.parseInt(rest.get(0))));
+                    return 0;
+                case "search":
+                    if (rest.isEmpty()) {
+                        break;
+                    }
+                    print(out, client.search(rest.get(0), rest.size() > 1 ? Integer.parseInt(rest.get(1)) : 20));
+                    return 0;
+                case "get": {
+                    if (rest.size() != 1) {
+                        break;
+                    }
+                    Item item = client.get(Integer.parseInt(rest.get(0)));
+                    if (item == null) {
+                        System.err.println("No item " + rest.get(0));
+                        return 1;
+                    }
+                    out.print(item.getText());
+                    out.flush();
+                    return 0;
+                }
+                case "push": {
+                    boolean copy = !rest.isEmpty() && rest.get(0).equals("--copy");
+                    List<String> text = rest.subList(copy ? 1 : 0, rest.size());
+                    int id = client.push(text.isEmpty() ? readStandardInput() : String.join(" ", text), copy);
+                    if (id < 0) {
+                        System.err.println("Dropped by a capture rule");
+                        return 1;
+                    }
+                    out.println(id);
+                    out.flush();
+                    return 0;
+                }
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Not a number: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Ditto is not reachable on " + socket + ": " + e.getMessage());
+            return 1;
+        }
+        System.err.println(USAGE);
+        return 2;
+    }
+
+    private static void print(PrintStream out, List<Item> items) {
+        for (Item item : items) {
+            String text = item.getText();
+            int end = text.indexOf('\n');
+            String firstLine = end < 0 ? text : text.substring(0, end);
+            if (firstLine.length() > 120) {
+                firstLine = firstLine.substring(0, 120);
+            }
+            boolean more = firstLine.length() < item.getLength();
+            out.append(String.valueOf(item.getId())).append('\t')
+                    .append(TimeRange.toLocalDateTime(item.getCreated()).withNano(0).toString()).append('\t')
+                    .append(firstLine.replace('\t', ' ')).append(more ? "\u2026" : "").append('\n');
+        }
+        out.flush();
+    }
+
+    private static String readStandardInput() throws IOException {
+        InputStream in = System.in;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        in.transferTo(buffer);
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,78 @@
+package com.java;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The framing shared by {@link ApiServer} and {@link ApiClient}. Every message is one frame: a 4-byte
+ * big-endian length of the rest, a 1-byte opcode or status, a 4-byte request id chosen by the client and
+ * the body. Responses carry the id of their request, so a client may send several requests on one
+ * connection without waiting; they may be answered out of order. Strings are a 4-byte length followed
+ * by UTF-8 bytes.
+ *
+ * <pre>
+ * RECENT  limit:int                      -> OK items
+ * SEARCH  limit:int query:string         -> OK items
+ * GET     id:int                         -> OK id:int created:long content:string | NOT_FOUND
+ * PUSH    flags:byte content:string      -> OK id:int | IGNORED       (flags: 1 = also copy to the clipboard)
+ *
+ * items = count:int, then per item id:int created:long length:int lines:int preview:string
+ * ERROR   message:string, for any request
+ * </pre>
+ *
+ * {@code created} is the capture time in epoch milliseconds.
+ */
+public final class ApiProtocol {
+
+    public static final byte RECENT = 1;
+    public static final byte SEARCH = 2;
+    public static final byte GET = 3;
+    public static final byte PUSH = 4;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    /** A capture rule dropped the pushed text. */
+    public static final byte IGNORED = 2;
+    public static final byte ERROR = 3;
+
+    public static final byte PUSH_COPY = 1;
+
+    /** Length, opcode or status, request id. */
+    static final int HEADER_SIZE = 4 + 1 + 4;
+    /** Frames are refused past this, whatever they carry. */
+    static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    static final int MAX_LIMIT = 10_000;
+
+    private ApiProtocol() {
+    }
+
+    /** Starts a frame; the length is filled in by {@link #finish}. */
+    static ByteBuffer begin(byte code, int requestId, int bodySize) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        frame.putInt(0).put(code).putInt(requestId);
+        return frame;
+    }
+
+    static ByteBuffer finish(ByteBuffer frame) {
+        frame.putInt(0, frame.position() - 4);
+        return frame.flip();
+    }
+
+    static ByteBuffer putString(ByteBuffer frame, byte[] utf8) {
+        return frame.putInt(utf8.length).put(utf8);
+    }
+
+    static String getString(ByteBuffer body) {
+        int length = body.getInt();
+        if (length < 0 || length > body.remaining()) {
+            throw new IllegalArgumentException("String of " + length + " bytes overruns the frame");
+        }
+        String value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+
+    static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,335 @@
+package com.java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** Serves the history over a Unix domain socket in {@link ApiProtocol} frames; the socket is owner-only. */
+public class ApiServer implements Closeable {
+
+    // A client that sends faster than it reads stops being read from past this many unanswered requests
+    private static final int MAX_IN_FLIGHT = 64;
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final ClipboardManager engine;
+    private final Path socketPath;
+    private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private volatile boolean running;
+
+    public ApiServer(ClipboardManager engine, Path socketPath) {
+        this.engine = engine;
+        this.socketPath = socketPath;
+    }
+
+    /** Returns true if a live server accepts connections on the socket, not just a stale file. */
+    public static boolean isServing(Path socketPath) {
+        if (!Files.exists(socketPath)) {
+            return false;
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socketPath)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Binds the socket and starts serving. Fails if another instance serves it already. */
+    public void start() throws IOException {
+        if (isServing(socketPath)) {
+            throw new IOException("Another instance is serving " + socketPath);
+        }
+        Files.deleteIfExists(socketPath);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        try {
+            Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; the socket keeps the directory's permissions
+        }
+        server.configureBlocking(false);
+        selector = Selector.open();
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        thread = new Thread(this::serve, "api-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Path getSocketPath() {
+        return socketPath;
+    }
+
+    /** Stops serving, drops every connection and removes the socket file. */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            Files.deleteIfExists(socketPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        try {
+            while (running) {
+                selector.select();
+                for (Connection connection; (connection = pending.poll()) != null; ) {
+                    connection.updateInterest();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // A broken or misbehaving client only loses its own connection
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private CompletableFuture<ByteBuffer> handle(byte code, int requestId, ByteBuffer body) {
+        switch (code) {
+            case ApiProtocol.RECENT: {
+                int limit = limit(body.getInt());
+                return engine.findRecent(limit).thenApply(items -> items(requestId, items));
+            }
+            case ApiProtocol.SEARCH: {
+                int limit = limit(body.getInt());
+                String query = ApiProtocol.getString(body);
+                return engine.search(query, limit, TimeRange.ALL, () -> false).thenApply(items -> items(requestId, items));
+            }
+            case ApiProtocol.GET: {
+                return engine.findItem(body.getInt()).thenApply(item -> {
+                    if (item == null) {
+                        return ApiProtocol.finish(ApiProtocol.begin(ApiProtocol.NOT_FOUND, requestId, 0));
+                    }
+                    byte[] content = ApiProtocol.utf8(item.getContent());
+                    ByteBuffer frame = ApiProtocol.begin(ApiProtocol.OK, requestId, 4 + 8 + 4 + content.length);
+                    frame.putInt(item.getId()).putLong(item.getTimestampMillis());
+                    return ApiProtocol.finish(ApiProtocol.putString(frame, content));
+                });
+            }
+            case ApiProtocol.PUSH: {
+                boolean copy = (body.get() & ApiProtocol.PUSH_COPY) != 0;
+                String content = ApiProtocol.getString(body);
+                return engine.push(content, copy).thenApply(item -> item == null
+                        ? ApiProtocol.finish(ApiProtocol.begin(ApiProtocol.IGNORED, requestId, 0))
+                        : ApiProtocol.finish(ApiProtocol.begin(ApiProtocol.OK, requestId, 4).putInt(item.getId())));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown request " + code);
+        }
+    }
+
+    private static int limit(int requested) {
+        return Math.max(1, Math.min(requested, ApiProtocol.MAX_LIMIT));
+    }
+
+    private static ByteBuffer items(int requestId, List<ClipboardItem> items) {
+        int size = 4;
+        for (ClipboardItem item : items) {
+            size += 4 + 8 + 4 + 4 + 4 + item.getPreviewBytes().length;
+        }
+        ByteBuffer frame = ApiProtocol.begin(ApiProtocol.OK, requestId, size).putInt(items.size());
+        for (ClipboardItem item : items) {
+            frame.putInt(item.getId()).putLong(item.getTimestampMillis()).putInt(item.getLength()).putInt(item.getLineCount());
+            ApiProtocol.putString(frame, item.getPreviewBytes());
+        }
+        return ApiProtocol.finish(frame);
+    }
+
+    private static ByteBuffer error(int requestId, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        byte[] message = ApiProtocol.utf8(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+        return ApiProtocol.finish(ApiProtocol.putString(ApiProtocol.begin(ApiProtocol.ERROR, requestId, 4 + message.length), message));
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        // Only touched on the selector thread
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // Guarded by this
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private int inFlight;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < ApiProtocol.HEADER_SIZE - 4 || length > ApiProtocol.MAX_FRAME_SIZE) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                in.getInt();
+                byte code = in.get();
+                int requestId = in.getInt();
+                byte[] body = new byte[length - (ApiProtocol.HEADER_SIZE - 4)];
+                in.get(body);
+                dispatch(code, requestId, ByteBuffer.wrap(body));
+            }
+            in.compact();
+            // Make room for a frame larger than the buffer, and give the room back once it has been read
+            if (in.position() >= 4 && 4 + in.getInt(0) > in.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(4 + in.getInt(0));
+                in.flip();
+                in = larger.put(in);
+            } else if (in.position() == 0 && in.capacity() > READ_BUFFER_SIZE) {
+                in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            }
+        }
+
+        private void dispatch(byte code, int requestId, ByteBuffer body) {
+            CompletableFuture<ByteBuffer> response;
+            try {
+                response = handle(code, requestId, body);
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            synchronized (this) {
+                inFlight++;
+            }
+            updateInterest();
+            response.whenComplete((frame, error) -> send(error != null ? error(requestId, error) : frame));
+        }
+
+        // Writes straight from the completing thread while the socket has room; the selector finishes the rest
+        private void send(ByteBuffer frame) {
+            boolean wake;
+            synchronized (this) {
+                wake = inFlight-- >= MAX_IN_FLIGHT;
+                if (out.isEmpty()) {
+                    try {
+                        channel.write(frame);
+                    } catch (IOException e) {
+                        frame.position(frame.limit());
+                        closeQuietly();
+                    }
+                }
+                if (frame.hasRemaining()) {
+                    out.add(frame);
+                    wake = true;
+                }
+            }
+            // Only when the selector has to resume reading or finish the write
+            if (wake) {
+                pending.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void write() throws IOException {
+            synchronized (this) {
+                while (!out.isEmpty()) {
+                    ByteBuffer frame = out.peek();
+                    channel.write(frame);
+                    if (frame.hasRemaining()) {
+                        return;
+                    }
+                    out.poll();
+                }
+            }
+            updateInterest();
+        }
+
+        void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops;
+            synchronized (this) {
+                ops = (inFlight < MAX_IN_FLIGHT ? SelectionKey.OP_READ : 0) | (out.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+            }
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        void close() {
+            key.cancel();
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+}
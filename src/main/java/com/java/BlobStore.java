@@ -0,0 +1,245 @@
+package com.java;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed files for the binary side of rich items, image PNGs and HTML markup, in a directory next
+ * to the database ({@code clipboard.db-blobs}), so SQLite only holds a row's SHA-256 in
+ * {@code blobs.attachment}. Files are named by that digest under a two-character fan-out directory, written
+ * once to a temporary name and moved into place, and never changed afterwards; storing the same bytes again
+ * writes nothing. Reads map the file read-only instead of copying it onto the heap.
+ *
+ * <p>Files no row refers to any more are deleted by {@link #deleteUnreferenced} as rows go, and by
+ * {@link #sweep} at startup for anything left over, e.g. by a crash. Neither touches a file stored in the
+ * last {@link #GRACE_MINUTES}, which may belong to a capture that has not been committed yet; such files
+ * are retried on the next call. Safe to use from any thread.
+ */
+public class BlobStore {
+
+    static final long GRACE_MINUTES = 2;
+
+    private final Path directory;
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    // Unreferenced files that were still in their grace period; only touched on the database thread
+    private final Set<String> deferred = new HashSet<>();
+
+    public BlobStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stores the bytes unless a file with the same digest exists, and returns the digest as 64 hex digits.
+     * The file is complete on disk before this returns.
+     */
+    public String put(byte[] data) throws IOException {
+        String digest = digest(data);
+        Path file = pathOf(digest);
+        if (Files.exists(file)) {
+            // Restarts the grace period, in case the rows using it are being deleted right now
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return digest;
+        }
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(digest + ".tmp" + Thread.currentThread().getId());
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        totalBytes.addAndGet(data.length);
+        files.incrementAndGet();
+        return digest;
+    }
+
+    public String putText(String text) throws IOException {
+        return put(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean contains(String digest) {
+        return isDigest(digest) && Files.exists(pathOf(digest));
+    }
+
+    /**
+     * Maps the file read-only. The mapping stays valid after the file is deleted, until it is garbage collected.
+     */
+    public MappedByteBuffer map(String digest) throws IOException {
+        if (!isDigest(digest)) {
+            throw new NoSuchFileException(String.valueOf(digest));
+        }
+        try (FileChannel channel = FileChannel.open(pathOf(digest), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    public String readText(String digest) throws IOException {
+        return StandardCharsets.UTF_8.decode(map(digest)).toString();
+    }
+
+    /** Bytes in the directory, as of the last {@link #sweep} plus what was stored and deleted since. */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public long getFileCount() {
+        return files.get();
+    }
+
+    /**
+     * Deletes the files of these digests, and of those deferred before, that no {@code blobs} row refers to
+     * any more, and returns the bytes freed. Runs on the database thread, after the rows were committed.
+     */
+    long deleteUnreferenced(Connection connection, Collection<String> digests) throws SQLException {
+        long freed = 0;
+        Set<String> candidates = new HashSet<>(digests);
+        candidates.addAll(deferred);
+        deferred.clear();
+        if (candidates.isEmpty()) {
+            return freed;
+        }
+        try (PreparedStatement referenced = connection.prepareStatement("SELECT 1 FROM blobs WHERE attachment = ? LIMIT 1")) {
+            for (String digest : candidates) {
+                if (!isDigest(digest)) {
+                    continue;
+                }
+                referenced.setString(1, digest);
+                try (ResultSet rs = referenced.executeQuery()) {
+                    if (!rs.next()) {
+                        freed += delete(digest);
+                    }
+                }
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Deletes every file past the grace period that no {@code blobs} row refers to, and recounts the
+     * directory. Runs on the database thread.
+     */
+    long sweep(Connection connection) throws SQLException {
+        Set<String> referenced = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT DISTINCT attachment FROM blobs WHERE attachment IS NOT NULL")) {
+            while (rs.next()) {
+                referenced.add(rs.getString(1));
+            }
+        }
+        long freed = 0;
+        long bytes = 0;
+        long count = 0;
+        if (!Files.isDirectory(directory)) {
+            totalBytes.set(0);
+            files.set(0);
+            return freed;
+        }
+        try (DirectoryStream<Path> fanOut = Files.newDirectoryStream(directory)) {
+            for (Path subdirectory : fanOut) {
+                if (!Files.isDirectory(subdirectory)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(subdirectory)) {
+                    for (Path file : entries) {
+                        String name = file.getFileName().toString();
+                        long size = Files.size(file);
+                        if (referenced.contains(name) || !isPastGrace(file)) {
+                            bytes += size;
+                            count++;
+                        } else {
+                            freed += size;
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        totalBytes.set(bytes);
+        files.set(count);
+        return freed;
+    }
+
+    private long delete(String digest) {
+        Path file = pathOf(digest);
+        try {
+            if (!isPastGrace(file)) {
+                deferred.add(digest);
+                return 0;
+            }
+            long size = Files.size(file);
+            if (Files.deleteIfExists(file)) {
+                totalBytes.addAndGet(-size);
+                files.decrementAndGet();
+                return size;
+            }
+        } catch (NoSuchFileException e) {
+            // Already gone
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    private static boolean isPastGrace(Path file) throws IOException {
+        long age = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis();
+        return age > TimeUnit.MINUTES.toMillis(GRACE_MINUTES);
+    }
+
+    private Path pathOf(String digest) {
+        return directory.resolve(digest.substring(0, 2)).resolve(digest);
+    }
+
+    // Digests come from the database and the import file, so they are checked before becoming a path
+    private static boolean isDigest(String digest) {
+        if (digest == null || digest.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < digest.length(); i++) {
+            if (Character.digit(digest.charAt(i), 16) < 0 || Character.isUpperCase(digest.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String digest(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
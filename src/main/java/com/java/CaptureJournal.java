@@ -0,0 +1,239 @@
+package com.java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped log of history writes that have not reached SQLite yet. Appending is a copy
+ * into the mapped file, so a capture never waits on the database; the data survives a crash or
+ * {@code System.exit} because the mapping is backed by the page cache. Each record carries a sequence
+ * number, and once SQLite has committed everything up to the last one the log is truncated.
+ *
+ * <p>Record layout: {@code length, crc32, seq, kind, id, hash, epochSecond, nanos, contentLength, content},
+ * followed for rich content by {@code contentKind, attachmentLength, attachment}; records without them are
+ * text. A zero length or a checksum mismatch marks the end, so a torn final record is simply ignored.
+ */
+public class CaptureJournal {
+
+    static final byte INSERT = 1;
+    static final byte UPDATE = 2;
+    static final byte DELETE = 3;
+    static final byte CLEAR = 4;
+
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int FIXED_SIZE = 8 + 1 + 4 + 8 + 8 + 4 + 4;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long lastSeq;
+    private int lastPosition;
+    private final List<Record> recovered = new ArrayList<>();
+
+    public CaptureJournal(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_SIZE, channel.size()));
+        readExisting();
+    }
+
+    /**
+     * Returns the records found in the file when it was opened, oldest first.
+     */
+    synchronized List<Record> getRecovered() {
+        return new ArrayList<>(recovered);
+    }
+
+    /**
+     * Makes sure new records are numbered after {@code seq}, the last one known to be committed.
+     */
+    synchronized void advanceSeq(long seq) {
+        lastSeq = Math.max(lastSeq, seq);
+    }
+
+    /**
+     * Appends a record and returns its sequence number. {@code content} and {@code timestamp} may be null.
+     */
+    synchronized long append(byte kind, int id, long hash, LocalDateTime timestamp, String content) throws IOException {
+        return append(kind, id, hash, timestamp, content, RichContent.Kind.TEXT.getCode(), null);
+    }
+
+    /**
+     * Appends a record of rich content; {@code attachment} may be null.
+     */
+    synchronized long append(byte kind, int id, long hash, LocalDateTime timestamp, String content, int contentKind, String attachment) throws IOException {
+        byte[] bytes = content != null ? content.getBytes(StandardCharsets.UTF_8) : null;
+        byte[] attachmentBytes = attachment != null ? attachment.getBytes(StandardCharsets.US_ASCII) : null;
+        boolean rich = contentKind != RichContent.Kind.TEXT.getCode();
+        int bodySize = FIXED_SIZE + (bytes != null ? bytes.length : 0)
+                + (rich ? 1 + 4 + (attachmentBytes != null ? attachmentBytes.length : 0) : 0);
+        int position = buffer.position();
+        // Room for the record plus the zero length that terminates the log
+        ensureCapacity(position + HEADER_SIZE + bodySize + 4);
+
+        long seq = ++lastSeq;
+        lastPosition = position;
+        buffer.position(position + HEADER_SIZE);
+        buffer.putLong(seq);
+        buffer.put(kind);
+        buffer.putInt(id);
+        buffer.putLong(hash);
+        buffer.putLong(timestamp != null ? timestamp.toEpochSecond(ZoneOffset.UTC) : 0);
+        buffer.putInt(timestamp != null ? timestamp.getNano() : -1);
+        buffer.putInt(bytes != null ? bytes.length : -1);
+        if (bytes != null) {
+            buffer.put(bytes);
+        }
+        if (rich) {
+            buffer.put((byte) contentKind);
+            buffer.putInt(attachmentBytes != null ? attachmentBytes.length : -1);
+            if (attachmentBytes != null) {
+                buffer.put(attachmentBytes);
+            }
+        }
+        int end = buffer.position();
+        buffer.putInt(end, 0);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(position + HEADER_SIZE).limit(end));
+        buffer.putInt(position + 4, (int) crc.getValue());
+        // The length goes in last, so a record only becomes visible once it is complete
+        buffer.putInt(position, bodySize);
+        return seq;
+    }
+
+    /**
+     * Returns where the last appended record starts, for {@link #read(int)}.
+     */
+    synchronized int lastPosition() {
+        return lastPosition;
+    }
+
+    /**
+     * Reads back a record that is not committed yet, and so not truncated away.
+     */
+    synchronized Record read(int position) {
+        return readRecord(buffer.duplicate(), position);
+    }
+
+    /**
+     * Empties the log if every record in it has been committed, i.e. {@code committedSeq} is the last one appended.
+     */
+    synchronized boolean truncateIfCommitted(long committedSeq) {
+        if (committedSeq < lastSeq || buffer.position() == 0) {
+            return false;
+        }
+        buffer.putInt(0, 0);
+        buffer.position(0);
+        recovered.clear();
+        return true;
+    }
+
+    synchronized void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        long size = buffer.capacity();
+        while (size < required) {
+            size *= 2;
+        }
+        int position = buffer.position();
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.position(position);
+    }
+
+    private void readExisting() {
+        int position = 0;
+        while (position + HEADER_SIZE + FIXED_SIZE <= buffer.capacity()) {
+            int bodySize = buffer.getInt(position);
+            if (bodySize < FIXED_SIZE || position + HEADER_SIZE + bodySize > buffer.capacity()) {
+                break;
+            }
+            int bodyStart = position + HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().position(bodyStart).limit(bodyStart + bodySize));
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+
+            Record record = readRecord(buffer, position);
+            recovered.add(record);
+            lastSeq = Math.max(lastSeq, record.seq);
+            position = bodyStart + bodySize;
+        }
+        buffer.position(position);
+    }
+
+    private static Record readRecord(ByteBuffer source, int position) {
+        int bodySize = source.getInt(position);
+        int bodyStart = position + HEADER_SIZE;
+        source.position(bodyStart);
+        long seq = source.getLong();
+        byte kind = source.get();
+        int id = source.getInt();
+        long hash = source.getLong();
+        long epochSecond = source.getLong();
+        int nanos = source.getInt();
+        int contentLength = source.getInt();
+        String content = null;
+        if (contentLength >= 0) {
+            byte[] bytes = new byte[contentLength];
+            source.get(bytes);
+            content = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int contentKind = RichContent.Kind.TEXT.getCode();
+        String attachment = null;
+        if (source.position() < bodyStart + bodySize) {
+            contentKind = source.get();
+            int attachmentLength = source.getInt();
+            if (attachmentLength >= 0) {
+                byte[] bytes = new byte[attachmentLength];
+                source.get(bytes);
+                attachment = new String(bytes, StandardCharsets.US_ASCII);
+            }
+        }
+        LocalDateTime timestamp = nanos >= 0 ? LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC) : null;
+        return new Record(seq, kind, id, hash, timestamp, content, contentKind, attachment);
+    }
+
+    static final class Record {
+        final long seq;
+        final byte kind;
+        final int id;
+        final long hash;
+        final LocalDateTime timestamp;
+        final String content;
+        final int contentKind;
+        final String attachment;
+
+        Record(long seq, byte kind, int id, long hash, LocalDateTime timestamp, String content, int contentKind, String attachment) {
+            this.seq = seq;
+            this.kind = kind;
+            this.id = id;
+            this.hash = hash;
+            this.timestamp = timestamp;
+            this.content = content;
+            this.contentKind = contentKind;
+            this.attachment = attachment;
+        }
+    }
+}
@@ -1,62 +1,122 @@
 package com.java;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.scene.control.*;
-import javafx.scene.input.Clipboard;
-import javafx.scene.input.ClipboardContent;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Shows one item's {@link ItemDisplay}. Binding a cell while scrolling only sets two prepared strings, and
+ * every cell of a list shares one context menu; see {@link #install}. Image items also show a thumbnail from
+ * the {@link ThumbnailCache}, which is filled in once it is decoded if it was not cached yet. A row that
+ * stands for near duplicates links to its earlier versions, which are read when it is expanded and can be
+ * copied from there.
+ */
 public class ClipboardHistoryCell extends ListCell<ClipboardItem> {
 
     private final ClipboardManager clipboardManager;
     private final VBox graphic = new VBox(4); // Spacing between lines
     private final Text contentText = new Text();
     private final Text timestampText = new Text();
+    private final ImageView thumbnail = new ImageView();
+    private final Hyperlink versionsLink = new Hyperlink();
+    private final VBox versionList = new VBox(2);
+    // Shared by the list's cells: the earlier versions of each expanded row, empty while they are read
+    private final Map<Integer, List<ClipboardItem>> expanded;
+    private ItemDisplay shown;
 
-    public ClipboardHistoryCell(ClipboardManager manager) {
+    public ClipboardHistoryCell(ClipboardManager manager, ContextMenu contextMenu, Map<Integer, List<ClipboardItem>> expanded) {
         this.clipboardManager = manager;
+        this.expanded = expanded;
 
         // Apply CSS
         contentText.getStyleClass().add("cell-content");
         timestampText.getStyleClass().add("cell-timestamp");
+        versionsLink.getStyleClass().add("cell-versions");
+        versionList.getStyleClass().add("cell-version-list");
+
+        thumbnail.setPreserveRatio(true);
+        thumbnail.setVisible(false);
+        thumbnail.setManaged(false);
+        showVersions(null);
+        graphic.getChildren().addAll(thumbnail, contentText, timestampText, versionsLink, versionList);
+        setContextMenu(contextMenu);
 
-        graphic.getChildren().addAll(contentText, timestampText);
+        // Expanding is not a click on the row, which would copy it
+        versionsLink.addEventHandler(MouseEvent.MOUSE_CLICKED, MouseEvent::consume);
+        versionsLink.setOnAction(event -> toggleVersions());
+
+        // --- Mouse Click to Copy ---
+        setOnMouseClicked(event -> {
+            ClipboardItem item = getItem();
+            if (!isEmpty() && item != null) {
+                // Counted as a use, which changes the details line
+                clipboardManager.copyItem(item).thenRun(() -> {
+                    if (item == getItem()) {
+                        updateItem(item, false);
+                    }
+                });
+            }
+        });
+    }
 
-        // --- Context Menu for Edit/Delete ---
+    /**
+     * Sets the list's cell factory. The cells share one Edit/Delete context menu, which acts on the cell it
+     * was opened on, and their relative times ("Just now", "Today, ...") are relabelled once a minute.
+     */
+    public static void install(ListView<ClipboardItem> listView, ClipboardManager manager) {
+        List<ClipboardHistoryCell> cells = new ArrayList<>();
         ContextMenu contextMenu = new ContextMenu();
         MenuItem editItem = new MenuItem("Edit");
         MenuItem deleteItem = new MenuItem("Delete");
-        
-        editItem.setOnAction(event -> showEditDialog());
+        ClipboardHistoryCell[] target = new ClipboardHistoryCell[1];
+
+        // The control that opens a context menu is its owner node; only text can be edited
+        contextMenu.setOnShowing(event -> {
+            target[0] = (ClipboardHistoryCell) contextMenu.getOwnerNode();
+            ClipboardItem item = target[0].getItem();
+            editItem.setDisable(item == null || item.getKind() != RichContent.Kind.TEXT);
+        });
+        editItem.setOnAction(event -> target[0].showEditDialog());
         deleteItem.setOnAction(event -> {
-            if (getItem() != null) {
-                clipboardManager.deleteItem(getItem());
+            if (target[0].getItem() != null) {
+                manager.deleteItem(target[0].getItem());
             }
         });
-        
         contextMenu.getItems().addAll(editItem, deleteItem);
-        setContextMenu(contextMenu);
 
-        // --- Mouse Click to Copy ---
-        setOnMouseClicked(event -> {
-            if (!isEmpty() && getItem() != null) {
-                String itemContent = getItem().getContent();
-                clipboardManager.setLastCopied(itemContent);
-                
-                Clipboard clipboard = Clipboard.getSystemClipboard();
-                ClipboardContent content = new ClipboardContent();
-                content.putString(itemContent);
-                clipboard.setContent(content);
-            }
+        Map<Integer, List<ClipboardItem>> expanded = new HashMap<>();
+        listView.setCellFactory(list -> {
+            ClipboardHistoryCell cell = new ClipboardHistoryCell(manager, contextMenu, expanded);
+            cells.add(cell);
+            return cell;
         });
+
+        Timeline relabel = new Timeline(new KeyFrame(Duration.minutes(1), event -> cells.forEach(ClipboardHistoryCell::relabel)));
+        relabel.setCycleCount(Animation.INDEFINITE);
+        relabel.play();
     }
 
     private void showEditDialog() {
         ClipboardItem currentItem = getItem();
-        if (currentItem == null) return;
+        if (currentItem == null || currentItem.getKind() != RichContent.Kind.TEXT) return;
+
+        clipboardManager.loadContent(currentItem).thenAccept(fullContent -> showEditDialog(currentItem, fullContent));
+    }
 
-        TextInputDialog dialog = new TextInputDialog(currentItem.getContent());
+    private void showEditDialog(ClipboardItem currentItem, String fullContent) {
+        TextInputDialog dialog = new TextInputDialog(fullContent);
         dialog.setTitle("Edit Clipboard Item");
         dialog.setHeaderText("Editing item from " + currentItem.getFormattedTime());
         dialog.setContentText("Content:");
@@ -65,19 +125,105 @@ public class ClipboardHistoryCell extends ListCell<ClipboardItem> {
         result.ifPresent(newContent -> {
             currentItem.setContent(newContent);
             clipboardManager.updateItem(currentItem);
-            updateItem(currentItem, false); // Force the cell to refresh
+            if (currentItem == getItem()) {
+                updateItem(currentItem, false); // Force the cell to refresh
+            }
         });
     }
 
+    private void relabel() {
+        ClipboardItem item = getItem();
+        if (item != null && !isEmpty() && item.getDisplay() != shown) {
+            updateItem(item, false);
+        }
+    }
+
     @Override
     protected void updateItem(ClipboardItem item, boolean empty) {
         super.updateItem(item, empty);
         if (empty || item == null) {
+            shown = null;
+            showThumbnail(null);
+            showVersions(null);
             setGraphic(null);
         } else {
-            contentText.setText(item.getContent());
-            timestampText.setText(item.getFormattedTime());
+            // Prepared when the item was read: a clamped preview, so a large item lays out like a short one
+            shown = item.getDisplay();
+            contentText.setText(shown.getPreview());
+            timestampText.setText(shown.getDetails());
+            showThumbnail(item);
+            showVersions(item);
             setGraphic(graphic);
         }
     }
+
+    private void toggleVersions() {
+        ClipboardItem item = getItem();
+        if (item == null) {
+            return;
+        }
+        if (expanded.remove(item.getId()) == null) {
+            expanded.put(item.getId(), List.of());
+            clipboardManager.findSimilar(item).thenAccept(versions -> {
+                if (expanded.containsKey(item.getId())) {
+                    expanded.put(item.getId(), versions);
+                    if (item == getItem()) {
+                        updateItem(item, false);
+                    }
+                }
+            });
+        }
+        updateItem(item, false);
+    }
+
+    private void showVersions(ClipboardItem item) {
+        String versions = item != null ? item.getDisplay().getVersions() : null;
+        versionsLink.setVisible(versions != null);
+        versionsLink.setManaged(versions != null);
+        List<ClipboardItem> members = versions != null ? expanded.get(item.getId()) : null;
+        versionList.getChildren().clear();
+        versionList.setVisible(members != null);
+        versionList.setManaged(members != null);
+        if (versions == null) {
+            return;
+        }
+        versionsLink.setText((members != null ? "\u25be " : "\u25b8 ") + versions);
+        if (members == null) {
+            return;
+        }
+        for (ClipboardItem member : members) {
+            ItemDisplay display = member.getDisplay();
+            Text preview = new Text(display.getPreview());
+            preview.getStyleClass().add("cell-version-content");
+            Text time = new Text(display.getDetails());
+            time.getStyleClass().add("cell-timestamp");
+            VBox row = new VBox(2, preview, time);
+            row.getStyleClass().add("cell-version");
+            row.setOnMouseClicked(event -> {
+                event.consume();
+                clipboardManager.copyItem(member);
+            });
+            versionList.getChildren().add(row);
+        }
+    }
+
+    private void showThumbnail(ClipboardItem item) {
+        boolean image = item != null && item.getKind() == RichContent.Kind.IMAGE && item.getAttachment() != null;
+        thumbnail.setVisible(image);
+        thumbnail.setManaged(image);
+        if (!image) {
+            thumbnail.setImage(null);
+            return;
+        }
+        ThumbnailCache thumbnails = clipboardManager.getThumbnails();
+        thumbnail.setImage(thumbnails.getCached(item.getAttachment()));
+        if (thumbnail.getImage() == null) {
+            // The cell may show another item by the time it is decoded
+            thumbnails.request(item.getAttachment(), decoded -> {
+                if (item == getItem()) {
+                    thumbnail.setImage(decoded);
+                }
+            });
+        }
+    }
 }
@@ -1,41 +1,268 @@
 package com.java;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
+/**
+ * One history entry. Text is held as UTF-8 bytes and the timestamp as a long, so an item costs roughly its
+ * encoded size plus a small fixed header. The only {@code String}s kept are the few clamped lines of its
+ * {@link ItemDisplay}; anything else is decoded on demand.
+ *
+ * <p>A rich item, see {@link RichContent}, holds the text form of its content like any other item, plus its
+ * kind and the digest of its image or markup in the {@link BlobStore}.
+ *
+ * <p>Items of a group of {@link NearDuplicates} know their group: the head knows how many older versions it
+ * stands for, and each older version the id of its head.
+ */
 public class ClipboardItem {
-    private int id;
-    private String content;
-    private LocalDateTime timestamp;
+    public static final int PREVIEW_CHARS = 1000;
+
+    // Object header, fields and the two array headers
+    private static final int FIXED_SIZE = 96 + 2 * 16;
+    // A 64-digit hex digest as a Latin-1 String
+    private static final int ATTACHMENT_SIZE = 24 + 16 + 64;
+
+    private final int id;
+    // Null for a large item whose content has not been loaded; the same array as preview when it fits
+    private byte[] content;
+    private byte[] preview;
+    private int lineCount;
+    private int length;
+    private long contentHash;
+    // Epoch milliseconds
+    private final long timestamp;
+    // How often it was copied back out of the history, when last, and its Frecency key
+    private int useCount;
+    private long lastUsed;
+    private double frecency;
+    private RichContent.Kind kind = RichContent.Kind.TEXT;
+    private String attachment;
+    // The head of its group if it is an older near duplicate, otherwise 0; and for a head, its group's size less one
+    private int similarTo;
+    private int similarCount;
+    private volatile ItemDisplay display;
 
     public ClipboardItem(int id, String content, LocalDateTime timestamp) {
+        this(id, content, TimeRange.toMillis(timestamp));
+    }
+
+    public ClipboardItem(int id, String content, long timestamp) {
         this.id = id;
-        this.content = content;
         this.timestamp = timestamp;
+        this.frecency = Frecency.ofTime(timestamp);
+        setContent(content);
+    }
+
+    /**
+     * Creates an item whose full content stays in the database; only the stored preview is held.
+     */
+    public ClipboardItem(int id, String preview, int lineCount, int length, long contentHash, LocalDateTime timestamp) {
+        this(id, preview, lineCount, length, contentHash, TimeRange.toMillis(timestamp));
+    }
+
+    public ClipboardItem(int id, String preview, int lineCount, int length, long contentHash, long timestamp) {
+        this.id = id;
+        this.preview = preview.getBytes(StandardCharsets.UTF_8);
+        this.lineCount = lineCount;
+        this.length = length;
+        this.contentHash = contentHash;
+        this.timestamp = timestamp;
+        this.frecency = Frecency.ofTime(timestamp);
     }
 
     public int getId() {
         return id;
     }
 
+    /**
+     * Returns the full content, or null for a large item whose content has not been loaded;
+     * use {@link ClipboardManager#loadContent} to fetch it.
+     */
     public String getContent() {
-        return content;
+        return content != null ? new String(content, StandardCharsets.UTF_8) : null;
+    }
+
+    public boolean isContentLoaded() {
+        return content != null;
     }
 
+    /**
+     * Sets the text of a text item and hashes it as text.
+     */
     public void setContent(String content) {
-        this.content = content;
+        if (kind != RichContent.Kind.TEXT) {
+            throw new IllegalStateException("Only text items can be edited");
+        }
+        this.content = content.getBytes(StandardCharsets.UTF_8);
+        this.contentHash = ContentHash.of(content);
+        this.preview = content.length() <= PREVIEW_CHARS ? this.content : previewOf(content).getBytes(StandardCharsets.UTF_8);
+        this.lineCount = lineCountOf(content);
+        this.length = content.length();
+        this.display = null;
+    }
+
+    /**
+     * Drops the full content of a large item, keeping only its preview.
+     */
+    public void releaseContent() {
+        this.content = null;
+    }
+
+    public String getPreview() {
+        return new String(preview, StandardCharsets.UTF_8);
+    }
+
+    // The stored UTF-8 bytes, for writing out without decoding; callers must not modify them
+    byte[] getPreviewBytes() {
+        return preview;
+    }
+
+    public boolean isTruncated() {
+        return length > PREVIEW_CHARS;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public RichContent.Kind getKind() {
+        return kind;
+    }
+
+    /** The {@link BlobStore} digest of an image or of HTML markup, otherwise null. */
+    public String getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * Marks the item as rich content. The hash is that of the whole {@link RichContent}, not of its text.
+     */
+    void setRich(RichContent.Kind kind, String attachment, long contentHash) {
+        this.kind = kind;
+        this.attachment = attachment;
+        this.contentHash = contentHash;
+        this.display = null;
+    }
+
+    /** The newest of its near duplicates, which the history list shows in its place, or 0 if it is shown itself. */
+    public int getSimilarTo() {
+        return similarTo;
+    }
+
+    /** How many older near duplicates it stands for in the history list. */
+    public int getSimilarCount() {
+        return similarCount;
+    }
+
+    void setSimilar(int similarTo, int similarCount) {
+        this.similarTo = similarTo;
+        this.similarCount = similarCount;
+        this.display = null;
+    }
+
+    /**
+     * Heap footprint of this item in bytes: the encoded text plus a fixed overhead.
+     */
+    public long estimateSize() {
+        long size = FIXED_SIZE + preview.length;
+        if (content != null && content != preview) {
+            size += 16 + content.length;
+        }
+        if (attachment != null) {
+            size += ATTACHMENT_SIZE;
+        }
+        ItemDisplay prepared = display;
+        if (prepared != null) {
+            size += prepared.estimateSize();
+        }
+        return size;
     }
 
     public LocalDateTime getTimestamp() {
+        return TimeRange.toLocalDateTime(timestamp);
+    }
+
+    /**
+     * Returns the timestamp in epoch milliseconds.
+     */
+    public long getTimestampMillis() {
         return timestamp;
     }
 
+    public int getUseCount() {
+        return useCount;
+    }
+
+    /** When it was last copied back out of the history, in epoch milliseconds; 0 if never. */
+    public long getLastUsedMillis() {
+        return lastUsed;
+    }
+
+    /** Its {@link Frecency} key, covering its capture and every use. */
+    public double getFrecency() {
+        return frecency;
+    }
+
+    void setUsage(int useCount, long lastUsed, double frecency) {
+        this.useCount = useCount;
+        this.lastUsed = lastUsed;
+        this.frecency = frecency;
+        this.display = null;
+    }
+
+    /** Counts one use at the given time in epoch milliseconds. */
+    void recordUse(long millis) {
+        setUsage(useCount + 1, Math.max(lastUsed, millis), Frecency.add(frecency, Frecency.ofTime(millis)));
+    }
+
     public String getFormattedTime() {
-        return timestamp.format(DateTimeFormatter.ofPattern("MMM dd, HH:mm:ss"));
+        return getDisplay().getFormattedTime();
+    }
+
+    /**
+     * Returns what a cell shows for this item, preparing it if it is missing or its relative time is stale.
+     * Items read from the database come with it prepared on the reader thread.
+     */
+    public ItemDisplay getDisplay() {
+        ItemDisplay prepared = display;
+        if (prepared == null || !prepared.isCurrent()) {
+            prepared = ItemDisplay.of(this);
+            display = prepared;
+        }
+        return prepared;
+    }
+
+    public static String previewOf(String content) {
+        if (content.length() <= PREVIEW_CHARS) {
+            return content;
+        }
+        int end = PREVIEW_CHARS;
+        if (Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return content.substring(0, end);
+    }
+
+    public static int lineCountOf(String content) {
+        int lines = 1;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
     }
 
     @Override
     public String toString() {
-        return content;
+        return getPreview();
     }
 }
@@ -1,178 +1,1763 @@
 package com.java;
 
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.scene.input.Clipboard;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.ToIntFunction;
 
 public class ClipboardManager {
 
-    private int maxHistorySize;
-    private final ObservableList<ClipboardItem> clipboardHistory;
+    private static final String ITEM_COLUMNS = "c.id, c.created_ms, c.timestamp, c.use_count, c.last_used_ms, c.frecency, "
+            + "b.hash, b.preview, b.line_count, b.length, b.format, b.kind, b.attachment, CASE WHEN b.external THEN NULL ELSE b.content END AS content, "
+            + "c.similar_to, (SELECT COUNT(*) FROM clipboard s WHERE s.similar_to = c.id) AS similar_count";
+    private static final int MIGRATION_BATCH_SIZE = 200;
+    private static final int INDEX_BATCH_SIZE = 2000;
+    private static final int TIMESTAMP_BATCH_SIZE = 5000;
+    private static final int READER_COUNT = 3;
+    // Epoch milliseconds from local ISO text; rows whose text will not parse get the current time
+    private static final String CREATED_MS_FROM_TEXT = "COALESCE(CAST(ROUND((julianday(timestamp, 'utc') - 2440587.5) * 86400000) AS INTEGER), "
+            + "CAST(strftime('%s', 'now') AS INTEGER) * 1000)";
+    // Bumped by migrations that rewrite values rather than add columns
+    private static final int SCHEMA_VERSION = 1;
+    // The Frecency key of a capture time column, for rows that were never used
+    private static final String HALF_LIVES = " / " + (double) Frecency.HALF_LIFE_MS;
+
+    /** How the history list is ordered. */
+    public enum Order {
+        /** Newest capture first. */
+        RECENT,
+        /** Most used first, weighing recent uses more; see {@link Frecency}. */
+        FRECENCY
+    }
+
+    private final PagedHistoryList clipboardHistory;
+    private final ObservableList<ClipboardItem> searchResults = FXCollections.observableArrayList();
+    private final Set<PreparedStatement> activeSearches = new HashSet<>();
+    private ClipboardPoller poller;
     private Connection connection;
-    private String lastCopied = null;
+    private long lastCopiedHash;
+    private boolean hasLastCopied = false;
+    private volatile int largePayloadThreshold = Integer.MAX_VALUE;
+    private int migratedBlobs;
+    private final TrigramIndex searchIndex = new TrigramIndex();
+    private volatile boolean searchIndexReady;
+    // Only changed on the database thread; read on the UI thread to decide whether new captures are shown
+    private volatile TimeRange historyRange = TimeRange.ALL;
+    private volatile Order historyOrder = Order.RECENT;
+    private int backfilledTimestamps;
+    private boolean groupingNearDuplicates;
+    private int groupedNearDuplicates;
     
-    private final ExecutorService dbExecutor = Executors.newSingleThreadExecutor();
+    private final ThreadPoolExecutor dbExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    private final Metrics metrics = new Metrics();
+    private final ContentCodec codec = new ContentCodec();
+    private final WriteBehindQueue writeQueue;
+    // Writes go through the single connection on dbExecutor; every other query runs on these
+    private final ReaderPool readers;
+    private final CompletableFuture<Void> databaseOpened = new CompletableFuture<>();
+    private final String databasePath;
+    private final Executor uiExecutor;
+    private final ClipboardSource clipboardSource;
+    private final Path snapshotPath;
+    private final CompletableFuture<Void> historyLoaded = new CompletableFuture<>();
+    private volatile Consumer<ClipboardItem> captureListener;
+    private final AtomicInteger lastId = new AtomicInteger();
+    private final CaptureFilter captureFilter = new CaptureFilter(List.of(), 0);
+    private final HistoryRetention retention;
+    private final UsageTracker usage = new UsageTracker(dbExecutor, metrics);
+    private final NearDuplicates nearDuplicates = new NearDuplicates();
+    // Images and HTML markup live in files next to the database; only their digests are stored in it
+    private final BlobStore blobStore;
+    private final ThumbnailCache thumbnails;
+    // Hashes, encodes and decodes rich content, which is too slow for the UI thread and unrelated to the database
+    private final ExecutorService richExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rich-content");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param historyBudgetBytes how much heap the materialised history items may take; see {@link PagedHistoryList}
+     */
+    public ClipboardManager(long historyBudgetBytes) {
+        this(historyBudgetBytes, "clipboard.db", Platform::runLater, new SystemClipboardSource());
+    }
+
+    ClipboardManager(long historyBudgetBytes, String databasePath, Executor uiExecutor) {
+        this(historyBudgetBytes, databasePath, uiExecutor, new SystemClipboardSource());
+    }
 
-    public ClipboardManager(ObservableList<ClipboardItem> clipboardHistory, int maxHistorySize) {
-        this.clipboardHistory = clipboardHistory;
-        this.maxHistorySize = maxHistorySize;
+    /**
+     * @param databasePath the SQLite file to open
+     * @param uiExecutor runs every callback and list update; {@code Platform::runLater} in the application
+     * @param clipboardSource the clipboard to capture from and copy items back to; it is only touched on {@code uiExecutor}
+     */
+    ClipboardManager(long historyBudgetBytes, String databasePath, Executor uiExecutor, ClipboardSource clipboardSource) {
+        this.databasePath = databasePath;
+        this.clipboardSource = clipboardSource;
+        this.uiExecutor = metrics.instrument(uiExecutor);
+        this.blobStore = new BlobStore(Paths.get(databasePath + "-blobs"));
+        this.thumbnails = new ThumbnailCache(blobStore, this.uiExecutor, metrics);
+        this.writeQueue = new WriteBehindQueue(dbExecutor, codec, this.uiExecutor, metrics, openJournal(databasePath), blobStore, nearDuplicates);
+        this.retention = new HistoryRetention(dbExecutor, new HistoryRetention.Policy(0, 0, 0), this::onRetentionRemoved, metrics, blobStore,
+                nearDuplicates);
+        this.readers = new ReaderPool(databasePath, codec, READER_COUNT);
+        this.clipboardHistory = new PagedHistoryList(this::loadPage, this::loadItems, this::loadIds, historyBudgetBytes);
+        metrics.setDatabaseQueueDepth(() -> dbExecutor.getQueue().size() + readers.getQueueDepth());
+        metrics.setPendingWrites(writeQueue::getPendingWrites);
+        metrics.setHistoryMemory(clipboardHistory::getWindowItemCount, clipboardHistory::getWindowBytes);
+        this.snapshotPath = Paths.get(databasePath + "-snapshot");
+        showSnapshot();
         initializeDatabase();
+        usage.start();
+    }
+
+    // Shows the newest items from the last run while the database opens; loadHistory replaces them
+    private void showSnapshot() {
+        List<ClipboardItem> snapshot = HistorySnapshot.read(snapshotPath);
+        if (snapshot.isEmpty()) {
+            return;
+        }
+        int[] ids = new int[snapshot.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = snapshot.get(ids.length - 1 - i).getId();
+        }
+        clipboardHistory.reset(ids, snapshot);
+        StartupTimings.mark("snapshot shown");
+    }
+
+    // Without a journal captures still work, they just only live in memory until committed
+    private static CaptureJournal openJournal(String databasePath) {
+        try {
+            return new CaptureJournal(Paths.get(databasePath + "-captures"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** The executor that owns the history and search result lists, and runs every callback. */
+    Executor getUiExecutor() {
+        return uiExecutor;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public PagedHistoryList getHistory() {
+        return clipboardHistory;
+    }
+
+    /** Thumbnails of image items, for the history cells. */
+    public ThumbnailCache getThumbnails() {
+        return thumbnails;
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    /**
+     * Completes once the history list holds the database's contents rather than the launch snapshot.
+     */
+    public CompletableFuture<Void> getHistoryLoaded() {
+        return historyLoaded;
+    }
+
+    /**
+     * Sets how many bytes of history items are kept materialised in memory; the rest stay in the database.
+     */
+    public void setHistoryBudget(long bytes) {
+        clipboardHistory.setBudgetBytes(bytes);
     }
 
     private void initializeDatabase() {
         dbExecutor.submit(() -> {
             try {
-                connection = DriverManager.getConnection("jdbc:sqlite:clipboard.db");
+                connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
                 Statement statement = connection.createStatement();
+                codec.register(connection);
+                writeQueue.open(connection);
+                retention.open(connection);
+                usage.open(connection);
+                nearDuplicates.open(connection);
+
+                // Only takes effect on a new, empty database; older ones are switched over by compactDatabase
+                statement.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                // WAL lets each batched commit append to the log; NORMAL only fsyncs at checkpoints
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
                 
-                statement.executeUpdate("CREATE TABLE IF NOT EXISTS clipboard (id INTEGER PRIMARY KEY AUTOINCREMENT, content TEXT NOT NULL, timestamp TEXT NOT NULL)");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS blobs (id INTEGER PRIMARY KEY AUTOINCREMENT, hash INTEGER NOT NULL, content TEXT NOT NULL, "
+                        + "preview TEXT, line_count INTEGER, length INTEGER, external INTEGER NOT NULL DEFAULT 0, format INTEGER NOT NULL DEFAULT 0, "
+                        + "kind INTEGER NOT NULL DEFAULT 0, attachment TEXT, simhash INTEGER)");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS blobs_hash ON blobs(hash)");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS payloads (blob_id INTEGER PRIMARY KEY, content TEXT NOT NULL)");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS clipboard (id INTEGER PRIMARY KEY AUTOINCREMENT, blob_id INTEGER NOT NULL, timestamp TEXT NOT NULL, created_ms INTEGER, "
+                        + "use_count INTEGER NOT NULL DEFAULT 0, last_used_ms INTEGER, frecency REAL, similar_to INTEGER)");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS journal_state (id INTEGER PRIMARY KEY CHECK (id = 0), applied_seq INTEGER NOT NULL)");
                 
                 try {
                     statement.executeQuery("SELECT timestamp FROM clipboard LIMIT 1");
                 } catch (SQLException e) {
                     System.out.println("Migrating database: Adding timestamp column...");
                     statement.executeUpdate("ALTER TABLE clipboard ADD COLUMN timestamp TEXT");
-                    String now = LocalDateTime.now().toString();
-                    statement.executeUpdate("UPDATE clipboard SET timestamp = '" + now + "' WHERE timestamp IS NULL");
+                    try (PreparedStatement update = connection.prepareStatement("UPDATE clipboard SET timestamp = ? WHERE timestamp IS NULL")) {
+                        update.setString(1, LocalDateTime.now().toString());
+                        update.executeUpdate();
+                    }
                 }
-                
+
+                if (hasColumn(statement, "clipboard", "content")) {
+                    migrateToBlobs(statement);
+                }
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS clipboard_blob ON clipboard(blob_id)");
+
+                // Adding the column is instant; existing rows are converted from their text timestamps in the background
+                if (!hasColumn(statement, "clipboard", "created_ms")) {
+                    System.out.println("Migrating database: Adding indexed capture time column...");
+                    statement.executeUpdate("ALTER TABLE clipboard ADD COLUMN created_ms INTEGER");
+                }
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS clipboard_created ON clipboard(created_ms)");
+
+                // Rows from older versions were never used, so their key is that of their capture time
+                if (!hasColumn(statement, "clipboard", "frecency")) {
+                    System.out.println("Migrating database: Adding usage columns...");
+                    statement.executeUpdate("ALTER TABLE clipboard ADD COLUMN use_count INTEGER NOT NULL DEFAULT 0");
+                    statement.executeUpdate("ALTER TABLE clipboard ADD COLUMN last_used_ms INTEGER");
+                    statement.executeUpdate("ALTER TABLE clipboard ADD COLUMN frecency REAL");
+                    statement.executeUpdate("UPDATE clipboard SET frecency = created_ms" + HALF_LIVES + " WHERE created_ms IS NOT NULL");
+                }
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS clipboard_frecency ON clipboard(frecency)");
+
+                int version;
+                try (ResultSet rs = statement.executeQuery("PRAGMA user_version")) {
+                    version = rs.next() ? rs.getInt(1) : 0;
+                }
+                if (version < 1) {
+                    migrateToEpochMillis();
+                }
+                statement.executeUpdate("PRAGMA user_version = " + SCHEMA_VERSION);
+
+                // Older versions of a near duplicate point at the newest; the history list only reads the rest
+                if (!hasColumn(statement, "clipboard", "similar_to")) {
+                    statement.executeUpdate("ALTER TABLE clipboard ADD COLUMN similar_to INTEGER");
+                }
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS clipboard_similar ON clipboard(similar_to) WHERE similar_to IS NOT NULL");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS clipboard_heads ON clipboard(id) WHERE similar_to IS NULL");
+
+                if (!hasColumn(statement, "blobs", "length")) {
+                    System.out.println("Migrating database: Adding preview columns...");
+                    statement.executeUpdate("ALTER TABLE blobs ADD COLUMN preview TEXT");
+                    statement.executeUpdate("ALTER TABLE blobs ADD COLUMN line_count INTEGER");
+                    statement.executeUpdate("ALTER TABLE blobs ADD COLUMN length INTEGER");
+                    statement.executeUpdate("ALTER TABLE blobs ADD COLUMN external INTEGER NOT NULL DEFAULT 0");
+                }
+                if (!hasColumn(statement, "blobs", "format")) {
+                    // Existing rows become FORMAT_LEGACY and are re-encoded in the background
+                    System.out.println("Migrating database: Adding storage format column...");
+                    statement.executeUpdate("ALTER TABLE blobs ADD COLUMN format INTEGER NOT NULL DEFAULT 0");
+                }
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS blobs_legacy ON blobs(id) WHERE format = 0");
+                if (!hasColumn(statement, "blobs", "kind")) {
+                    System.out.println("Migrating database: Adding rich content columns...");
+                    statement.executeUpdate("ALTER TABLE blobs ADD COLUMN kind INTEGER NOT NULL DEFAULT 0");
+                    statement.executeUpdate("ALTER TABLE blobs ADD COLUMN attachment TEXT");
+                }
+                // Looked up when a file may have lost its last row
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS blobs_attachment ON blobs(attachment) WHERE attachment IS NOT NULL");
+                // Existing blobs are fingerprinted, and their rows grouped, in the background
+                if (!hasColumn(statement, "blobs", "simhash")) {
+                    System.out.println("Migrating database: Adding near-duplicate fingerprints...");
+                    statement.executeUpdate("ALTER TABLE blobs ADD COLUMN simhash INTEGER");
+                }
+                for (int band = 0; band < SimHash.BANDS; band++) {
+                    statement.executeUpdate("CREATE INDEX IF NOT EXISTS blobs_simhash" + band + " ON blobs(" + SimHash.bandSql("simhash", band)
+                            + ", simhash) WHERE simhash <> 0");
+                }
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS blobs_unfingerprinted ON blobs(id) WHERE simhash IS NULL");
+
+                initializeSearchIndex(statement);
+                writeQueue.recover();
+                StartupTimings.mark("database open");
+
+                // Ids are handed out up front so queued writes can be coalesced by id before they commit
+                ResultSet rs = statement.executeQuery("SELECT MAX(IFNULL((SELECT seq FROM sqlite_sequence WHERE name = 'clipboard'), 0), IFNULL((SELECT MAX(id) FROM clipboard), 0))");
+                lastId.set(rs.next() ? rs.getInt(1) : 0);
+                rs.close();
+
+                // Readers open their connections from here on, once the schema is final and the file is in WAL mode
+                databaseOpened.complete(null);
                 loadHistory();
+                dbExecutor.submit(this::migrateStorageStep);
+                dbExecutor.submit(this::backfillTimestampsStep);
+                dbExecutor.submit(this::sweepBlobStore);
+                dbExecutor.submit(this::groupNearDuplicates);
+                int indexUpTo = lastId.get();
+                dbExecutor.submit(() -> buildSearchIndexStep(0, indexUpTo));
             } catch (SQLException e) {
                 e.printStackTrace();
+                metrics.recordError("open", e);
+                databaseOpened.completeExceptionally(e);
             }
         });
     }
 
-    public void startPolling() {
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(() -> Platform.runLater(this::pollClipboard), 0, 1000, TimeUnit.MILLISECONDS);
+    private boolean hasColumn(Statement statement, String table, String column) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equals(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
-    
-    public void setLastCopied(String content) {
-        this.lastCopied = content;
+
+    // Moves inline content into the content-addressed blobs table; rows with the same text share a blob
+    private void migrateToBlobs(Statement statement) throws SQLException {
+        System.out.println("Migrating database: Moving content into deduplicated blobs...");
+        connection.setAutoCommit(false);
+        try {
+            statement.executeUpdate("DROP TRIGGER IF EXISTS clipboard_ai");
+            statement.executeUpdate("DROP TRIGGER IF EXISTS clipboard_ad");
+            statement.executeUpdate("DROP TRIGGER IF EXISTS clipboard_au");
+            statement.executeUpdate("DROP TABLE IF EXISTS clipboard_fts");
+            statement.executeUpdate("CREATE TABLE clipboard_new (id INTEGER PRIMARY KEY AUTOINCREMENT, blob_id INTEGER NOT NULL, timestamp TEXT NOT NULL)");
+
+            try (PreparedStatement insertRow = connection.prepareStatement("INSERT INTO clipboard_new (id, blob_id, timestamp) VALUES (?, ?, ?)");
+                 Statement scan = connection.createStatement();
+                 ResultSet rs = scan.executeQuery("SELECT id, content, timestamp FROM clipboard ORDER BY id DESC")) {
+                while (rs.next()) {
+                    String content = rs.getString("content");
+                    long hash = ContentHash.of(content);
+                    long blobId = writeQueue.findBlob(content, hash);
+                    insertRow.setInt(1, rs.getInt("id"));
+                    insertRow.setLong(2, blobId >= 0 ? blobId : writeQueue.insertBlob(content, hash));
+                    insertRow.setString(3, rs.getString("timestamp"));
+                    insertRow.executeUpdate();
+                }
+            }
+
+            statement.executeUpdate("DROP TABLE clipboard");
+            statement.executeUpdate("ALTER TABLE clipboard_new RENAME TO clipboard");
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
     }
 
-    private void pollClipboard() {
+    // Older versions stored local wall-clock time as if it were UTC
+    private void migrateToEpochMillis() throws SQLException {
+        List<long[]> rows = new ArrayList<>();
+        try (Statement scan = connection.createStatement();
+             ResultSet rs = scan.executeQuery("SELECT id, created_ms, last_used_ms FROM clipboard WHERE created_ms IS NOT NULL OR last_used_ms IS NOT NULL")) {
+            while (rs.next()) {
+                rows.add(new long[] {rs.getLong(1), rs.getLong(2), rs.getLong(3)});
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        System.out.println("Migrating database: Converting capture times to epoch milliseconds...");
+        connection.setAutoCommit(false);
+        try (PreparedStatement update = connection.prepareStatement("UPDATE clipboard SET created_ms = ?, last_used_ms = ?, frecency = frecency + ? WHERE id = ?")) {
+            for (long[] row : rows) {
+                long created = row[1] != 0 ? fromWallClock(row[1]) : 0;
+                long lastUsed = row[2] != 0 ? fromWallClock(row[2]) : 0;
+                if (created != 0) {
+                    update.setLong(1, created);
+                } else {
+                    update.setNull(1, Types.INTEGER);
+                }
+                if (lastUsed != 0) {
+                    update.setLong(2, lastUsed);
+                } else {
+                    update.setNull(2, Types.INTEGER);
+                }
+                // Every use moved by about the same offset, and so does the logarithm of their sum
+                update.setDouble(3, Frecency.ofTime(created - row[1]));
+                update.setLong(4, row[0]);
+                update.addBatch();
+            }
+            update.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static long fromWallClock(long millis) {
+        return TimeRange.toMillis(LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC));
+    }
+
+    // Upgrades blobs from older versions to the current storage format, a batch per task
+    private void migrateStorageStep() {
+        DiagnosticEvents.Database event = metrics.beginDatabase("migrate");
         try {
-            Clipboard clipboard = Clipboard.getSystemClipboard();
-            
-            if (clipboard.hasString()) {
-                String content = clipboard.getString();
-                
-                if (content != null && !content.equals(lastCopied)) {
-                    if (clipboardHistory.isEmpty() || !content.equals(clipboardHistory.get(0).getContent())) {
-                        lastCopied = content;
-                        
-                        saveToDatabase(content, newItem -> {
-                            clipboardHistory.add(0, newItem);
-                            if (clipboardHistory.size() > maxHistorySize) {
-                                clipboardHistory.remove(maxHistorySize);
-                            }
-                        });
+            int threshold = largePayloadThreshold;
+            List<Long> ids = new ArrayList<>();
+            List<String> contents = new ArrayList<>();
+            List<Boolean> wasExternal = new ArrayList<>();
+            try (PreparedStatement select = connection.prepareStatement("SELECT b.id, b.external, COALESCE(p.content, b.content) FROM blobs b "
+                    + "LEFT JOIN payloads p ON p.blob_id = b.id WHERE b.format = ? LIMIT ?")) {
+                select.setInt(1, ContentCodec.FORMAT_LEGACY);
+                select.setInt(2, MIGRATION_BATCH_SIZE);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getLong(1));
+                        wasExternal.add(rs.getBoolean(2));
+                        contents.add(rs.getString(3));
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                if (migratedBlobs > 0) {
+                    metrics.recordMaintenance("payloads", migratedBlobs, "Migrated " + migratedBlobs + " stored payloads");
+                }
+                return;
+            }
+
+            connection.setAutoCommit(false);
+            try (PreparedStatement update = connection.prepareStatement("UPDATE blobs SET preview = ?, line_count = ?, length = ?, external = ?, format = ?, content = ? WHERE id = ?");
+                 PreparedStatement updatePayload = connection.prepareStatement("UPDATE payloads SET content = ? WHERE blob_id = ?");
+                 PreparedStatement unindex = connection.prepareStatement("INSERT INTO blobs_fts(blobs_fts, rowid, content) VALUES ('delete', ?, ?)");
+                 PreparedStatement insertPayload = connection.prepareStatement("INSERT INTO payloads (blob_id, content) VALUES (?, ?)")) {
+                for (int i = 0; i < ids.size(); i++) {
+                    long id = ids.get(i);
+                    String content = contents.get(i);
+                    // Payloads already out of line stay there; the text, and so the search index, is unchanged
+                    boolean external = wasExternal.get(i) || content.length() >= threshold;
+                    int format;
+                    if (wasExternal.get(i)) {
+                        format = codec.bind(updatePayload, 1, content);
+                        updatePayload.setLong(2, id);
+                        updatePayload.executeUpdate();
+                        update.setString(6, "");
+                    } else if (external) {
+                        // The payload trigger re-indexes the content once it lands in its new table
+                        unindex.setLong(1, id);
+                        unindex.setString(2, content);
+                        unindex.executeUpdate();
+                        format = codec.bind(insertPayload, 2, content);
+                        update.setString(6, "");
                     } else {
-                        lastCopied = content;
+                        format = codec.bind(update, 6, content);
+                    }
+                    update.setString(1, external || content.length() > ClipboardItem.PREVIEW_CHARS ? ClipboardItem.previewOf(content) : null);
+                    update.setInt(2, ClipboardItem.lineCountOf(content));
+                    update.setInt(3, content.length());
+                    update.setBoolean(4, external);
+                    update.setInt(5, format);
+                    update.setLong(7, id);
+                    update.executeUpdate();
+                    if (external && !wasExternal.get(i)) {
+                        insertPayload.setLong(1, id);
+                        insertPayload.executeUpdate();
                     }
                 }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            migratedBlobs += ids.size();
+            metrics.endDatabase(event, ids.size());
+            if (!dbExecutor.isShutdown()) {
+                dbExecutor.submit(this::migrateStorageStep);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            metrics.recordError("migrate", e);
+        }
+    }
+
+    // Backfills created_ms a batch per task; until then readItem parses the text timestamp
+    private void backfillTimestampsStep() {
+        DiagnosticEvents.Database event = metrics.beginDatabase("migrate timestamps");
+        try (PreparedStatement update = connection.prepareStatement("UPDATE clipboard SET created_ms = " + CREATED_MS_FROM_TEXT
+                + ", frecency = frecency_add(frecency, (" + CREATED_MS_FROM_TEXT + ")" + HALF_LIVES + ") WHERE id IN (SELECT id FROM clipboard WHERE created_ms IS NULL LIMIT ?)")) {
+            update.setInt(1, TIMESTAMP_BATCH_SIZE);
+            int rows = update.executeUpdate();
+            metrics.endDatabase(event, rows);
+            backfilledTimestamps += rows;
+            if (rows == TIMESTAMP_BATCH_SIZE && !dbExecutor.isShutdown()) {
+                dbExecutor.submit(this::backfillTimestampsStep);
+            } else if (backfilledTimestamps > 0) {
+                metrics.recordMaintenance("timestamps", backfilledTimestamps, "Migrated " + backfilledTimestamps + " timestamps to the indexed capture time column");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            metrics.recordError("migrate timestamps", e);
+        }
+    }
+
+    // Counts the blob store and deletes files a crash or an interrupted delete left behind
+    private void sweepBlobStore() {
+        DiagnosticEvents.Database event = metrics.beginDatabase("blob sweep");
+        try {
+            long freed = blobStore.sweep(connection);
+            metrics.endDatabase(event, (int) blobStore.getFileCount());
+            if (freed > 0) {
+                metrics.recordMaintenance("blob sweep", freed, String.format("Deleted %.1f KB of unreferenced rich content files", freed / 1024.0));
             }
-        } catch (Exception e) {
-            System.err.println("Failed to access clipboard: " + e.getMessage());
+        } catch (SQLException | UncheckedIOException e) {
+            e.printStackTrace();
+            metrics.recordError("blob sweep", e);
+        }
+    }
+
+    // Starts the background pass of NearDuplicates unless it is already running
+    private void groupNearDuplicates() {
+        if (!groupingNearDuplicates) {
+            groupingNearDuplicates = true;
+            groupNearDuplicatesStep();
         }
     }
 
-    private void loadHistory() {
+    // Fingerprints blobs that have none, a batch per task, grouping their rows with their near duplicates
+    private void groupNearDuplicatesStep() {
+        DiagnosticEvents.Database event = metrics.beginDatabase("group near duplicates");
         try {
-            Statement statement = connection.createStatement();
-            ResultSet rs = statement.executeQuery("SELECT id, content, timestamp FROM clipboard ORDER BY id DESC LIMIT " + maxHistorySize);
-            
-            List<ClipboardItem> loadedItems = new ArrayList<>();
-            while (rs.next()) {
-                String timestampStr = rs.getString("timestamp");
-                LocalDateTime timestamp = (timestampStr != null) ? LocalDateTime.parse(timestampStr) : LocalDateTime.now();
-                
-                loadedItems.add(new ClipboardItem(
-                    rs.getInt("id"),
-                    rs.getString("content"),
-                    timestamp
-                ));
-            }
-            
-            Platform.runLater(() -> {
-                clipboardHistory.addAll(loadedItems);
-                if (!clipboardHistory.isEmpty()) {
-                    lastCopied = clipboardHistory.get(0).getContent();
+            List<Integer> folded = new ArrayList<>();
+            int blobs = nearDuplicates.fingerprintStep(codec, folded);
+            metrics.endDatabase(event, blobs);
+            groupedNearDuplicates += folded.size();
+            if (blobs == NearDuplicates.FINGERPRINT_BATCH_SIZE && !dbExecutor.isShutdown()) {
+                dbExecutor.submit(this::groupNearDuplicatesStep);
+                return;
+            }
+            groupingNearDuplicates = false;
+            if (groupedNearDuplicates > 0) {
+                metrics.recordMaintenance("near duplicates", groupedNearDuplicates,
+                        "Grouped " + groupedNearDuplicates + " near-duplicate items under their newest version");
+                groupedNearDuplicates = 0;
+                loadHistory();
+            }
+        } catch (SQLException e) {
+            groupingNearDuplicates = false;
+            e.printStackTrace();
+            metrics.recordError("group near duplicates", e);
+        }
+    }
+
+    // Fills the trigram index a batch per task; items saved meanwhile have ids above upTo and index themselves
+    private void buildSearchIndexStep(int afterId, int upTo) {
+        DiagnosticEvents.Database event = metrics.beginDatabase("index");
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT c.id, b.preview, b.format, CASE WHEN b.external THEN NULL ELSE b.content END FROM clipboard c "
+                + "JOIN blobs b ON b.id = c.blob_id WHERE c.id > ? AND c.id <= ? ORDER BY c.id LIMIT ?")) {
+            pstmt.setInt(1, afterId);
+            pstmt.setInt(2, upTo);
+            pstmt.setInt(3, INDEX_BATCH_SIZE);
+            int lastIndexed = afterId;
+            int rows = 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    lastIndexed = rs.getInt(1);
+                    String text = rs.getString(2);
+                    if (text == null) {
+                        text = codec.decode(rs.getInt(3), rs.getObject(4));
+                    }
+                    if (text != null) {
+                        searchIndex.add(lastIndexed, text);
+                    }
+                    rows++;
                 }
-            });
-            
+            }
+            metrics.endDatabase(event, rows);
+            if (rows < INDEX_BATCH_SIZE) {
+                searchIndexReady = true;
+            } else if (!dbExecutor.isShutdown()) {
+                int next = lastIndexed;
+                dbExecutor.submit(() -> buildSearchIndexStep(next, upTo));
+            }
         } catch (SQLException e) {
             e.printStackTrace();
+            metrics.recordError("index", e);
         }
     }
 
-    private void saveToDatabase(String content, java.util.function.Consumer<ClipboardItem> callback) {
+    private void initializeSearchIndex(Statement statement) throws SQLException {
+        ResultSet rs = statement.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = 'blobs_fts'");
+        boolean exists = rs.next();
+        boolean current = exists && rs.getString(1).contains("blob_text");
+        rs.close();
+
+        if (exists && !current) {
+            System.out.println("Migrating database: Re-pointing search index at out-of-line payloads...");
+            statement.executeUpdate("DROP TABLE blobs_fts");
+        }
+
+        // Recreated on every start, since content_text() only exists on connections that registered it
+        for (String trigger : new String[] {"blobs_ai", "blobs_ad", "blobs_bd", "payloads_ai", "payloads_ad"}) {
+            statement.executeUpdate("DROP TRIGGER IF EXISTS " + trigger);
+        }
+        statement.executeUpdate("DROP VIEW IF EXISTS blob_text");
+        statement.executeUpdate("CREATE VIEW blob_text AS SELECT b.id AS id, content_text(b.format, COALESCE(p.content, b.content)) AS content "
+                + "FROM blobs b LEFT JOIN payloads p ON p.blob_id = b.id");
+
+        // External-content FTS5 over blob_text, kept in sync by insert and delete triggers
+        statement.executeUpdate("CREATE VIRTUAL TABLE IF NOT EXISTS blobs_fts USING fts5(content, content='blob_text', content_rowid='id', tokenize='unicode61 remove_diacritics 2')");
+        statement.executeUpdate("CREATE TRIGGER blobs_ai AFTER INSERT ON blobs WHEN new.external = 0 BEGIN "
+                + "INSERT INTO blobs_fts(rowid, content) VALUES (new.id, content_text(new.format, new.content)); END");
+        statement.executeUpdate("CREATE TRIGGER blobs_ad AFTER DELETE ON blobs WHEN old.external = 0 BEGIN "
+                + "INSERT INTO blobs_fts(blobs_fts, rowid, content) VALUES ('delete', old.id, content_text(old.format, old.content)); END");
+        statement.executeUpdate("CREATE TRIGGER blobs_bd BEFORE DELETE ON blobs WHEN old.external = 1 BEGIN "
+                + "DELETE FROM payloads WHERE blob_id = old.id; END");
+        statement.executeUpdate("CREATE TRIGGER payloads_ai AFTER INSERT ON payloads BEGIN "
+                + "INSERT INTO blobs_fts(rowid, content) VALUES (new.blob_id, content_text((SELECT format FROM blobs WHERE id = new.blob_id), new.content)); END");
+        statement.executeUpdate("CREATE TRIGGER payloads_ad AFTER DELETE ON payloads BEGIN "
+                + "INSERT INTO blobs_fts(blobs_fts, rowid, content) VALUES ('delete', old.blob_id, content_text((SELECT format FROM blobs WHERE id = old.blob_id), old.content)); END");
+
+        if (!current) {
+            // Can take a while on a large history, so it runs after the list has loaded
+            dbExecutor.submit(this::rebuildFullTextIndex);
+        }
+    }
+
+    private void rebuildFullTextIndex() {
+        System.out.println("Migrating database: Building full-text search index...");
+        DiagnosticEvents.Database event = metrics.beginDatabase("fts rebuild");
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO blobs_fts(blobs_fts) VALUES ('rebuild')");
+            metrics.endDatabase(event, 0);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            metrics.recordError("fts rebuild", e);
+        }
+    }
+
+    public void startPolling() {
+        startPolling(ClipboardPoller.MIN_INTERVAL_MS, ClipboardPoller.MAX_INTERVAL_MS);
+    }
+
+    void startPolling(long minIntervalMs, long maxIntervalMs) {
+        poller = new ClipboardPoller(clipboardSource, this::onClipboardChanged, uiExecutor, metrics, minIntervalMs, maxIntervalMs);
+        // Start once the database is open and history is loaded, so ids and dedup state are in place
+        historyLoaded.thenRun(() -> uiExecutor.execute(poller::start));
+    }
+
+    public void startRetention(HistoryRetention.Policy policy) {
+        retention.setPolicy(policy);
+        retention.start();
+    }
+
+    public void setRetentionPolicy(HistoryRetention.Policy policy) {
+        retention.setPolicy(policy);
+    }
+
+    public HistoryRetention.Report getLastRetentionReport() {
+        return retention.getLastReport();
+    }
+
+    /** Applies the retention policy now. The callback runs on the FX thread. */
+    public void runRetention(Consumer<HistoryRetention.Report> callback) {
+        retention.run(report -> uiExecutor.execute(() -> callback.accept(report)));
+    }
+
+    /** Applies the retention policy and returns freed space to the file system. The callback runs on the FX thread. */
+    public void compactDatabase(Consumer<HistoryRetention.Report> callback) {
+        retention.compact(report -> uiExecutor.execute(() -> callback.accept(report)));
+    }
+
+    private void onRetentionRemoved(List<Integer> ids, List<Integer> promoted) {
+        searchIndex.removeAll(ids);
+        Set<Integer> removed = new HashSet<>(ids);
+        uiExecutor.execute(() -> {
+            clipboardHistory.removeIds(removed);
+            searchResults.removeIf(item -> removed.contains(item.getId()));
+            showPromoted(promoted);
+        });
+    }
+
+    // Lists the older versions that became heads of their groups of near duplicates when their head went
+    private void showPromoted(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        TimeRange range = historyRange;
+        loadItems(ids.stream().mapToInt(Integer::intValue).toArray(), items -> {
+            for (ClipboardItem item : items) {
+                if (range == historyRange && range.contains(item.getTimestampMillis())) {
+                    clipboardHistory.add(item, clipboardHistory.isKeyed() ? item.getFrecency() : Double.NaN);
+                }
+            }
+        });
+    }
+
+    /** Stops capturing, commits every queued write and closes the database. Blocks until done. */
+    public void shutdown() {
+        if (poller != null) {
+            poller.stop();
+        }
+        retention.stop();
+        usage.stop();
+        thumbnails.stop();
+        richExecutor.shutdownNow();
         dbExecutor.submit(() -> {
+            usage.flushNow();
+            writeQueue.flushAndClose();
+            nearDuplicates.close();
+            if (connection != null) {
+                try {
+                    HistorySnapshot.write(snapshotPath, queryPage(connection, Integer.MAX_VALUE, HistorySnapshot.SIZE, TimeRange.ALL));
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
             try {
-                LocalDateTime timestamp = LocalDateTime.now();
-                PreparedStatement pstmt = connection.prepareStatement("INSERT INTO clipboard (content, timestamp) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
-                pstmt.setString(1, content);
-                pstmt.setString(2, timestamp.toString());
-                pstmt.executeUpdate();
-                
-                ResultSet generatedKeys = pstmt.getGeneratedKeys();
-                if (generatedKeys.next()) {
-                    int id = generatedKeys.getInt(1);
-                    ClipboardItem newItem = new ClipboardItem(id, content, timestamp);
-                    Platform.runLater(() -> callback.accept(newItem));
+                if (connection != null) {
+                    connection.close();
                 }
             } catch (SQLException e) {
                 e.printStackTrace();
             }
         });
+        dbExecutor.shutdown();
+        try {
+            if (!dbExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                System.err.println("Timed out flushing clipboard history to disk");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        readers.close();
+    }
+
+    public ClipboardPoller.Stats getPollStats() {
+        return poller != null ? poller.getStats() : null;
+    }
+
+    /** Compression ratios and encode/decode timings since startup. */
+    public ContentCodec.Stats getCompressionStats() {
+        return codec.getStats();
+    }
+
+    /** Sets the rules every capture passes; {@code maxChars} of 0 means no limit. */
+    public void setCaptureRules(List<CaptureFilter.Rule> rules, int maxChars) {
+        captureFilter.setRules(rules, maxChars);
+    }
+
+    public CaptureFilter.Stats getCaptureFilterStats() {
+        return captureFilter.getStats();
+    }
+    
+    public void setLastCopied(String content) {
+        this.lastCopiedHash = ContentHash.of(content);
+        this.hasLastCopied = true;
+    }
+
+    /** Puts an item's text back on the clipboard without capturing it again. Call on the UI thread. */
+    public void copyToClipboard(String content) {
+        setLastCopied(content);
+        clipboardSource.writeText(content);
+    }
+
+    /** Copies an item back to the clipboard in its own format and counts a use. Completes on the UI thread. */
+    public CompletableFuture<Void> copyItem(ClipboardItem item) {
+        if (item.getKind() != RichContent.Kind.TEXT) {
+            return loadRichContent(item).thenAccept(content -> {
+                if (content != null) {
+                    // Its hash is the one reading it back off the clipboard gives
+                    lastCopiedHash = item.getContentHash();
+                    hasLastCopied = true;
+                    clipboardSource.writeContent(content);
+                    recordUse(item);
+                }
+            });
+        }
+        return loadContent(item).thenAccept(content -> {
+            if (content != null) {
+                copyToClipboard(content);
+                recordUse(item);
+            }
+        });
     }
 
-    public void deleteItem(ClipboardItem item) {
-        dbExecutor.submit(() -> {
+    /** Counts a use of the item; in {@link Order#FRECENCY} order it moves up right away. Call on the UI thread. */
+    public void recordUse(ClipboardItem item) {
+        long now = TimeRange.toMillis(LocalDateTime.now());
+        item.recordUse(now);
+        // A search result is a copy of the row the list holds
+        ClipboardItem listed = clipboardHistory.getCached(item.getId());
+        if (listed != null && listed != item) {
+            listed.recordUse(now);
+        }
+        usage.record(item.getId(), now);
+        double key = clipboardHistory.getKey(item.getId());
+        if (!Double.isNaN(key)) {
+            clipboardHistory.reorder(item.getId(), Frecency.add(key, Frecency.ofTime(now)));
+        }
+    }
+
+    public Order getHistoryOrder() {
+        return historyOrder;
+    }
+
+    /** Switches the list between newest first and most used first, and reloads it. */
+    public CompletableFuture<Void> setHistoryOrder(Order order) {
+        if (order == historyOrder) {
+            return historyLoaded;
+        }
+        historyOrder = order;
+        // Before the database opens, its first load already picks the order up
+        return databaseOpened.isDone() ? loadHistory() : historyLoaded;
+    }
+
+    /** Called on the UI executor with every newly captured item once it is stored and shown. */
+    void setCaptureListener(Consumer<ClipboardItem> listener) {
+        this.captureListener = listener;
+    }
+
+    private void onClipboardChanged(RichContent content, long changedSinceNanos) {
+        if (content.getKind() == RichContent.Kind.TEXT) {
+            onTextChanged(content.getText(), changedSinceNanos);
+            return;
+        }
+        // Rules see the text form; one that rewrites it leaves only the rewritten text to keep
+        String filtered = captureFilter.apply(content.getText());
+        if (filtered == null) {
+            return;
+        }
+        if (filtered != content.getText()) {
+            long hash = ContentHash.of(filtered);
+            if (!isNewCopy(hash)) {
+                return;
+            }
+            int previousId = lastId.get();
+            ClipboardItem newItem = store(filtered, hash, RichContent.Kind.TEXT, null, changedSinceNanos, null);
+            if (newItem.getId() > previousId) {
+                poller.recordCapture(changedSinceNanos);
+            }
+            return;
+        }
+        captureRich(content, changedSinceNanos);
+    }
+
+    // Hashing and encoding run on the rich content thread; the UI thread only compares hashes
+    private void captureRich(RichContent content, long changedSinceNanos) {
+        CompletableFuture.supplyAsync(content::getHash, richExecutor).thenAcceptAsync(hash -> {
+            ClipboardItem newest = newestItem();
+            if (!isNewCopy(hash) || newest != null && newest.getContentHash() == hash) {
+                return;
+            }
+            CompletableFuture.supplyAsync(() -> storeAttachment(content), richExecutor).thenAcceptAsync(attachment -> {
+                int previousId = lastId.get();
+                ClipboardItem newItem = store(content.getText(), hash, content.getKind(), attachment, changedSinceNanos, null);
+                if (newItem.getId() > previousId && poller != null) {
+                    poller.recordCapture(changedSinceNanos);
+                }
+            }, uiExecutor).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    error.printStackTrace();
+                    metrics.recordError("capture", error);
+                }
+            });
+        }, uiExecutor);
+    }
+
+    // Returns the digest of the image or markup in the blob store, or null for kinds that are all text
+    private String storeAttachment(RichContent content) {
+        try {
+            switch (content.getKind()) {
+                case IMAGE:
+                    return blobStore.put(ImageCodec.encodePng(content.getWidth(), content.getHeight(), content.getPixels()));
+                case HTML:
+                    return blobStore.putText(content.getHtml());
+                default:
+                    return null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Whether the hash differs from the last copy seen, which it then becomes; on the UI thread
+    private boolean isNewCopy(long hash) {
+        if (hasLastCopied && hash == lastCopiedHash) {
+            return false;
+        }
+        lastCopiedHash = hash;
+        hasLastCopied = true;
+        return true;
+    }
+
+    private ClipboardItem newestItem() {
+        return clipboardHistory.isEmpty() || !historyRange.isAll() ? null : clipboardHistory.getCached(clipboardHistory.getNewestId());
+    }
+
+    private void onTextChanged(String content, long changedSinceNanos) {
+        long hash = ContentHash.of(content);
+        if (hasLastCopied && hash == lastCopiedHash) {
+            return;
+        }
+        lastCopiedHash = hash;
+        hasLastCopied = true;
+        int previousId = lastId.get();
+        ClipboardItem newItem = capture(content, hash, changedSinceNanos, null);
+        if (newItem != null && newItem.getId() > previousId) {
+            poller.recordCapture(changedSinceNanos);
+        }
+    }
+
+    /**
+     * Adds text as if copied, e.g. from {@link ApiServer}, optionally putting it on the clipboard. Completes
+     * once committed, with the stored item, or null if a rule dropped it.
+     */
+    public CompletableFuture<ClipboardItem> push(String content, boolean copy) {
+        CompletableFuture<ClipboardItem> stored = new CompletableFuture<>();
+        uiExecutor.execute(() -> {
             try {
-                PreparedStatement pstmt = connection.prepareStatement("DELETE FROM clipboard WHERE id = ?");
-                pstmt.setInt(1, item.getId());
-                pstmt.executeUpdate();
-                Platform.runLater(() -> clipboardHistory.remove(item));
-            } catch (SQLException e) {
-                e.printStackTrace();
+                long changedSinceNanos = System.nanoTime();
+                long hash = ContentHash.of(content);
+                lastCopiedHash = hash;
+                hasLastCopied = true;
+                if (capture(content, hash, changedSinceNanos, stored) == null) {
+                    stored.complete(null);
+                }
+                if (copy) {
+                    clipboardSource.writeText(content);
+                }
+            } catch (RuntimeException e) {
+                stored.completeExceptionally(e);
             }
         });
+        return stored;
     }
 
-    public void updateItem(ClipboardItem item) {
-        dbExecutor.submit(() -> {
+    /** Returns the stored or newest item, or null if dropped; {@code stored} completes once SQLite has it. */
+    private ClipboardItem capture(String content, long hash, long changedSinceNanos, CompletableFuture<ClipboardItem> stored) {
+        // Rules see the text before anything is stored, journaled or shown
+        String filtered = captureFilter.apply(content);
+        if (filtered == null) {
+            return null;
+        }
+        if (filtered != content) {
+            content = filtered;
+            hash = ContentHash.of(content);
+        }
+        return store(content, hash, RichContent.Kind.TEXT, null, changedSinceNanos, stored);
+    }
+
+    // Stores content that passed the capture rules, or returns the newest item if it is the same
+    private ClipboardItem store(String content, long hash, RichContent.Kind kind, String attachment, long changedSinceNanos,
+                                CompletableFuture<ClipboardItem> stored) {
+        TimeRange range = historyRange;
+        ClipboardItem newest = newestItem();
+        if (newest != null && hash == newest.getContentHash()) {
+            if (stored != null) {
+                stored.complete(newest);
+            }
+            return newest;
+        }
+
+        // The write is journaled before this returns, so the item can be shown before SQLite has it
+        ClipboardItem newItem = saveToDatabase(content, hash, kind, attachment, (committed, outcome) -> {
+            // A delete or clear later in the same batch already took it out again
+            if (!outcome.isCommitted()) {
+                if (stored != null) {
+                    stored.complete(committed);
+                }
+                return;
+            }
+            List<Integer> replacedIds = outcome.getReplacedIds();
+            // A re-copy moves the existing entry to the top rather than duplicating it, keeping its uses
+            if (!replacedIds.isEmpty()) {
+                dbExecutor.execute(() -> searchIndex.removeAll(replacedIds));
+                inheritUses(committed, replacedIds);
+                clipboardHistory.removeIds(replacedIds);
+                searchResults.removeIf(item -> replacedIds.contains(item.getId()));
+            }
+            // The previous version of a near duplicate is now listed under the new row
+            if (outcome.getFoldedId() != 0) {
+                clipboardHistory.removeIds(List.of(outcome.getFoldedId()));
+            }
+            if (outcome.getSimilarCount() != committed.getSimilarCount()) {
+                committed.setSimilar(0, outcome.getSimilarCount());
+                clipboardHistory.changed(committed);
+            }
+            if (stored != null) {
+                stored.complete(committed);
+            }
+        });
+        // While the list is filtered to a past range, new captures are stored but not shown
+        if (range.contains(newItem.getTimestampMillis())) {
+            clipboardHistory.add(newItem, newItem.getFrecency());
+        }
+        metrics.recordCapture(newItem.getLength(), System.nanoTime() - changedSinceNanos);
+        Consumer<ClipboardItem> listener = captureListener;
+        if (listener != null) {
+            listener.accept(newItem);
+        }
+        return newItem;
+    }
+
+    // The database already carried the replaced rows' uses over to the new row; this does the same in memory
+    private void inheritUses(ClipboardItem item, List<Integer> replacedIds) {
+        usage.transfer(replacedIds, item.getId());
+        int useCount = item.getUseCount();
+        long lastUsed = item.getLastUsedMillis();
+        double frecency = item.getFrecency();
+        double key = clipboardHistory.getKey(item.getId());
+        for (int id : replacedIds) {
+            ClipboardItem replaced = clipboardHistory.getCached(id);
+            if (replaced != null) {
+                useCount += replaced.getUseCount();
+                lastUsed = Math.max(lastUsed, replaced.getLastUsedMillis());
+                frecency = Frecency.add(frecency, replaced.getFrecency());
+            }
+            key = Frecency.add(key, clipboardHistory.getKey(id));
+        }
+        item.setUsage(useCount, lastUsed, frecency);
+        if (!Double.isNaN(key)) {
+            clipboardHistory.reorder(item.getId(), key);
+        }
+    }
+
+    /** Reloads the history list from the database. */
+    public CompletableFuture<Void> reloadHistory() {
+        return loadHistory();
+    }
+
+    /** Limits the history list to a capture time range, or shows everything for {@link TimeRange#ALL}. */
+    public CompletableFuture<Void> setHistoryRange(TimeRange range) {
+        historyRange = range;
+        return loadHistory();
+    }
+
+    public TimeRange getHistoryRange() {
+        return historyRange;
+    }
+
+    /** Reads up to {@code limit} items within the range, newest first. Completes on the FX thread. */
+    public CompletableFuture<List<ClipboardItem>> findInRange(TimeRange range, int limit) {
+        return readRange(range, limit).thenApplyAsync(items -> items, uiExecutor);
+    }
+
+    /** Reads the newest {@code limit} items. Completes on the reader's thread. */
+    public CompletableFuture<List<ClipboardItem>> findRecent(int limit) {
+        return readRange(TimeRange.ALL, limit);
+    }
+
+    private CompletableFuture<List<ClipboardItem>> readRange(TimeRange range, int limit) {
+        return read("range", reader -> {
+            try (PreparedStatement pstmt = reader.prepareStatement("SELECT " + ITEM_COLUMNS + " FROM clipboard c JOIN blobs b ON b.id = c.blob_id "
+                    + "WHERE c.created_ms >= ? AND c.created_ms < ? AND c.similar_to IS NULL ORDER BY c.created_ms DESC LIMIT ?")) {
+                pstmt.setLong(1, range.getFrom());
+                pstmt.setLong(2, range.getTo());
+                pstmt.setInt(3, limit);
+                List<ClipboardItem> items = new ArrayList<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        items.add(readItem(rs));
+                    }
+                }
+                return items;
+            }
+        }, List::size);
+    }
+
+    /** Reads one item with its full content, or null. Completes on the reader's thread. */
+    public CompletableFuture<ClipboardItem> findItem(int id) {
+        return read("item", reader -> {
+            try (PreparedStatement pstmt = reader.prepareStatement("SELECT c.id, c.created_ms, c.timestamp, b.format, b.hash, b.kind, b.attachment, "
+                    + "COALESCE(p.content, b.content) AS content, c.similar_to, (SELECT COUNT(*) FROM clipboard s WHERE s.similar_to = c.id) AS similar_count "
+                    + "FROM clipboard c JOIN blobs b ON b.id = c.blob_id LEFT JOIN payloads p ON p.blob_id = b.id WHERE c.id = ?")) {
+                pstmt.setInt(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    long timestamp = rs.getLong("created_ms");
+                    if (rs.wasNull()) {
+                        timestamp = TimeRange.toMillis(LocalDateTime.parse(rs.getString("timestamp")));
+                    }
+                    ClipboardItem item = new ClipboardItem(id, codec.decode(rs.getInt("format"), rs.getObject("content")), timestamp);
+                    RichContent.Kind kind = RichContent.Kind.of(rs.getInt("kind"));
+                    if (kind != RichContent.Kind.TEXT) {
+                        item.setRich(kind, rs.getString("attachment"), rs.getLong("hash"));
+                    }
+                    item.setSimilar(rs.getInt("similar_to"), rs.getInt("similar_count"));
+                    return item;
+                }
+            }
+        }, item -> item != null ? 1 : 0);
+    }
+
+    /**
+     * Exports the history as NDJSON, gzipped if the name ends in {@code .gz}; see {@link HistoryTransfer}.
+     * {@code progress} may be null. Completes on the reader's thread.
+     */
+    public CompletableFuture<HistoryTransfer.Report> exportHistory(Path file, LongConsumer progress) {
+        return read("export", reader -> {
             try {
-                PreparedStatement pstmt = connection.prepareStatement("UPDATE clipboard SET content = ? WHERE id = ?");
-                pstmt.setString(1, item.getContent());
-                pstmt.setInt(2, item.getId());
-                pstmt.executeUpdate();
-            } catch (SQLException e) {
+                return HistoryTransfer.export(reader, codec, file, progress);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, report -> (int) report.getRows());
+    }
+
+    /**
+     * Imports an NDJSON file, plain or gzipped, in one transaction, skipping content already stored.
+     * {@code progress} may be null. Completes once the list has reloaded.
+     */
+    public CompletableFuture<HistoryTransfer.Report> importHistory(Path file, LongConsumer progress) {
+        HistoryTransfer.Import run = new HistoryTransfer.Import(file, codec, blobStore, largePayloadThreshold, progress);
+        return databaseOpened.thenApplyAsync(ignored -> {
+            DiagnosticEvents.Database event = metrics.beginDatabase("import");
+            int[] imported = {Integer.MAX_VALUE, 0};
+            try {
+                HistoryTransfer.Report report = run.run(connection, count -> lastId.getAndAdd(count) + 1, id -> {
+                    imported[0] = Math.min(imported[0], id);
+                    imported[1] = Math.max(imported[1], id);
+                });
+                metrics.endDatabase(event, (int) report.getRows());
+                // Captures made meanwhile may have ids in this span; they are already indexed and skipped
+                if (report.getRows() > 0) {
+                    buildSearchIndexStep(imported[0] - 1, imported[1]);
+                    dbExecutor.submit(this::groupNearDuplicates);
+                }
+                return report;
+            } catch (SQLException | IOException e) {
                 e.printStackTrace();
+                metrics.recordError("import", e);
+                throw new CompletionException(e);
+            }
+        }, dbExecutor).thenCompose(report -> loadHistory().thenApply(loaded -> report));
+    }
+
+    /** Runs a timed query on a read-only connection once the database is open. Completes on the reader's thread. */
+    private <T> CompletableFuture<T> read(String operation, ReaderPool.Query<T> query, ToIntFunction<T> rows) {
+        return databaseOpened.thenCompose(ignored -> readers.submit(reader -> {
+            DiagnosticEvents.Database event = metrics.beginDatabase(operation);
+            T result = query.run(reader);
+            metrics.endDatabase(event, rows.applyAsInt(result));
+            return result;
+        })).whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                cause.printStackTrace();
+                metrics.recordError(operation, cause);
             }
         });
     }
-    
-    public void clearAll() {
-        dbExecutor.submit(() -> {
+
+    private CompletableFuture<Void> loadHistory() {
+        TimeRange range = historyRange;
+        if (historyOrder == Order.FRECENCY) {
+            // Uses still held in memory are written first, so the stored keys are the ones the list works with
+            return usage.flush().thenCompose(flushed -> loadRankedHistory(range));
+        }
+        return read("load history", reader -> {
+            // One read transaction, so the count, ids and first page come from the same snapshot
+            reader.setAutoCommit(false);
+            try {
+                int count;
+                try (PreparedStatement countStmt = reader.prepareStatement("SELECT COUNT(*) FROM clipboard WHERE similar_to IS NULL" + rangeFilter(range, " AND "))) {
+                    bindRange(countStmt, 1, range);
+                    try (ResultSet countRs = countStmt.executeQuery()) {
+                        count = countRs.next() ? countRs.getInt(1) : 0;
+                    }
+                }
+                // Older ids are loaded by the list as it is scrolled
+                int[] ids = queryIds(reader, Integer.MAX_VALUE, PagedHistoryList.ID_CHUNK, range);
+                for (int i = 0, j = ids.length - 1; i < j; i++, j--) {
+                    int id = ids[i];
+                    ids[i] = ids[j];
+                    ids[j] = id;
+                }
+                List<ClipboardItem> firstPage = queryPage(reader, Integer.MAX_VALUE, PagedHistoryList.PAGE_SIZE, range);
+                if (range.isAll()) {
+                    HistorySnapshot.write(snapshotPath, firstPage);
+                }
+                LoadedHistory loaded = new LoadedHistory(ids, firstPage);
+                loaded.count = count;
+                return loaded;
+            } finally {
+                reader.rollback();
+                reader.setAutoCommit(true);
+            }
+        }, loaded -> loaded.ids.length).thenAcceptAsync(loaded -> showHistory(range, Order.RECENT, loaded), uiExecutor);
+    }
+
+    // Ids and keys in ascending key order; the first page is read by id, plus the newest item
+    private CompletableFuture<Void> loadRankedHistory(TimeRange range) {
+        return read("load history", reader -> {
+            int[] ids = new int[256];
+            double[] keys = new double[256];
+            int count = 0;
+            int newestId = 0;
+            try (PreparedStatement idStmt = reader.prepareStatement("SELECT id, frecency FROM clipboard WHERE similar_to IS NULL"
+                    + rangeFilter(range, " AND ") + " ORDER BY frecency, id")) {
+                bindRange(idStmt, 1, range);
+                try (ResultSet rs = idStmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                            keys = Arrays.copyOf(keys, count * 2);
+                        }
+                        ids[count] = rs.getInt(1);
+                        keys[count++] = rs.getDouble(2);
+                        newestId = Math.max(newestId, ids[count - 1]);
+                    }
+                }
+            }
+            int[] firstIds = new int[Math.min(count, PagedHistoryList.PAGE_SIZE) + 1];
+            int first = 0;
+            while (first < firstIds.length - 1) {
+                firstIds[first] = ids[count - 1 - first];
+                first++;
+            }
+            boolean newestShown = false;
+            for (int i = 0; i < first; i++) {
+                newestShown |= firstIds[i] == newestId;
+            }
+            if (!newestShown && count > 0) {
+                firstIds[first++] = newestId;
+            }
+            firstIds = Arrays.copyOf(firstIds, first);
+            LoadedHistory loaded = new LoadedHistory(Arrays.copyOf(ids, count), queryItems(reader, firstIds));
+            loaded.keys = Arrays.copyOf(keys, count);
+            return loaded;
+        }, loaded -> loaded.ids.length).thenAcceptAsync(loaded -> showHistory(range, Order.FRECENCY, loaded), uiExecutor);
+    }
+
+    private void showHistory(TimeRange range, Order order, LoadedHistory loaded) {
+        // A newer range or order was picked while this one loaded; its own load will reset the list
+        if (range != historyRange || order != historyOrder) {
+            return;
+        }
+        if (loaded.keys != null) {
+            clipboardHistory.reset(loaded.ids, loaded.keys, loaded.firstPage);
+        } else {
+            clipboardHistory.reset(loaded.count, loaded.ids, loaded.firstPage);
+        }
+        if (!clipboardHistory.isEmpty() && range.isAll()) {
+            ClipboardItem newest = clipboardHistory.getCached(clipboardHistory.getNewestId());
+            if (newest != null) {
+                lastCopiedHash = newest.getContentHash();
+                hasLastCopied = true;
+            }
+        }
+        if (!historyLoaded.isDone()) {
+            StartupTimings.mark("history loaded");
+            historyLoaded.complete(null);
+        }
+    }
+
+    private void loadPage(int maxId, int limit, Consumer<List<ClipboardItem>> callback) {
+        TimeRange range = historyRange;
+        read("page", reader -> queryPage(reader, maxId, limit, range), List::size)
+                .thenAcceptAsync(callback, uiExecutor);
+    }
+
+    private void loadIds(int belowId, int limit, Consumer<int[]> callback) {
+        TimeRange range = historyRange;
+        read("ids", reader -> queryIds(reader, belowId, limit, range), ids -> ids.length)
+                .thenAcceptAsync(callback, uiExecutor);
+    }
+
+    // Newest first
+    private int[] queryIds(Connection db, int belowId, int limit, TimeRange range) throws SQLException {
+        try (PreparedStatement pstmt = db.prepareStatement("SELECT id FROM clipboard WHERE id < ? AND similar_to IS NULL"
+                + rangeFilter(range, " AND ") + " ORDER BY id DESC LIMIT ?")) {
+            pstmt.setInt(1, belowId);
+            int next = bindRange(pstmt, 2, range);
+            pstmt.setInt(next, limit);
+            int[] ids = new int[Math.min(limit, 1024)];
+            int count = 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = rs.getInt(1);
+                }
+            }
+            return Arrays.copyOf(ids, count);
+        }
+    }
+
+    private void loadItems(int[] ids, Consumer<List<ClipboardItem>> callback) {
+        read("page", reader -> queryItems(reader, ids), List::size)
+                .thenAcceptAsync(callback, uiExecutor);
+    }
+
+    private List<ClipboardItem> queryItems(Connection db, int[] ids) throws SQLException {
+        List<ClipboardItem> items = new ArrayList<>(ids.length);
+        if (ids.length == 0) {
+            return items;
+        }
+        StringBuilder sql = new StringBuilder("SELECT " + ITEM_COLUMNS + " FROM clipboard c JOIN blobs b ON b.id = c.blob_id WHERE c.id IN (");
+        for (int i = 0; i < ids.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        try (PreparedStatement pstmt = db.prepareStatement(sql.append(')').toString())) {
+            for (int i = 0; i < ids.length; i++) {
+                pstmt.setInt(i + 1, ids[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    items.add(readItem(rs));
+                }
+            }
+        }
+        return items;
+    }
+
+    // Keyset pagination: seeks straight to maxId on the primary key instead of skipping rows with OFFSET
+    private List<ClipboardItem> queryPage(Connection db, int maxId, int limit, TimeRange range) throws SQLException {
+        try (PreparedStatement pstmt = db.prepareStatement("SELECT " + ITEM_COLUMNS + " FROM clipboard c JOIN blobs b ON b.id = c.blob_id "
+                + "WHERE c.id <= ? AND c.similar_to IS NULL" + rangeFilter(range, " AND ") + " ORDER BY c.id DESC LIMIT ?")) {
+            pstmt.setInt(1, maxId);
+            int next = bindRange(pstmt, 2, range);
+            pstmt.setInt(next, limit);
+            List<ClipboardItem> items = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    items.add(readItem(rs));
+                }
+            }
+            return items;
+        }
+    }
+
+    // The unfiltered view adds no condition, so rows whose created_ms is not backfilled yet still show
+    private static String rangeFilter(TimeRange range, String conjunction) {
+        return range.isAll() ? "" : conjunction + "created_ms >= ? AND created_ms < ?";
+    }
+
+    private static int bindRange(PreparedStatement pstmt, int index, TimeRange range) throws SQLException {
+        if (range.isAll()) {
+            return index;
+        }
+        pstmt.setLong(index, range.getFrom());
+        pstmt.setLong(index + 1, range.getTo());
+        return index + 2;
+    }
+
+    // Large payloads stay in the database; the item carries the preview and display strings made here
+    private ClipboardItem readItem(ResultSet rs) throws SQLException {
+        ClipboardItem item = readItemData(rs);
+        item.getDisplay();
+        return item;
+    }
+
+    private ClipboardItem readItemData(ResultSet rs) throws SQLException {
+        long timestamp = rs.getLong("created_ms");
+        if (rs.wasNull()) {
+            String timestampStr = rs.getString("timestamp");
+            timestamp = TimeRange.toMillis(timestampStr != null ? LocalDateTime.parse(timestampStr) : LocalDateTime.now());
+        }
+        String content = codec.decode(rs.getInt("format"), rs.getObject("content"));
+        ClipboardItem item = content != null
+                ? new ClipboardItem(rs.getInt("id"), content, timestamp)
+                : new ClipboardItem(rs.getInt("id"), rs.getString("preview"), rs.getInt("line_count"), rs.getInt("length"), rs.getLong("hash"), timestamp);
+        RichContent.Kind kind = RichContent.Kind.of(rs.getInt("kind"));
+        if (kind != RichContent.Kind.TEXT) {
+            item.setRich(kind, rs.getString("attachment"), rs.getLong("hash"));
+        }
+        item.setSimilar(rs.getInt("similar_to"), rs.getInt("similar_count"));
+        double frecency = rs.getDouble("frecency");
+        if (rs.wasNull()) {
+            frecency = item.getFrecency();
+        }
+        item.setUsage(rs.getInt("use_count"), rs.getLong("last_used_ms"), frecency);
+        usage.apply(item);
+        return item;
+    }
+
+    /** Returns an item's full content, reading it if only its preview is held. Completes on the FX thread. */
+    public CompletableFuture<String> loadContent(ClipboardItem item) {
+        String loaded = item.getContent();
+        if (loaded != null) {
+            return CompletableFuture.completedFuture(loaded);
+        }
+        return read("load content", reader -> {
+            try (PreparedStatement pstmt = reader.prepareStatement(
+                    "SELECT b.format, COALESCE(p.content, b.content) FROM clipboard c JOIN blobs b ON b.id = c.blob_id "
+                    + "LEFT JOIN payloads p ON p.blob_id = b.id WHERE c.id = ?")) {
+                pstmt.setInt(1, item.getId());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? codec.decode(rs.getInt(1), rs.getObject(2)) : null;
+                }
+            }
+        }, content -> content != null ? 1 : 0).thenApplyAsync(content -> content, uiExecutor);
+    }
+
+    /** Returns an item's content as an image, HTML or files. Completes on the UI thread, with null if gone. */
+    public CompletableFuture<RichContent> loadRichContent(ClipboardItem item) {
+        String attachment = item.getAttachment();
+        switch (item.getKind()) {
+            case IMAGE:
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        ImageCodec.Pixels pixels = ImageCodec.decode(blobStore.map(attachment));
+                        return RichContent.image(pixels.width, pixels.height, pixels.argb);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        metrics.recordError("load content", e);
+                        return null;
+                    }
+                }, richExecutor).thenApplyAsync(content -> content, uiExecutor);
+            case HTML:
+                return loadContent(item).thenApplyAsync(text -> {
+                    try {
+                        return text != null ? RichContent.html(text, blobStore.readText(attachment)) : null;
+                    } catch (IOException e) {
+                        // The text is still worth having without its markup
+                        e.printStackTrace();
+                        metrics.recordError("load content", e);
+                        return RichContent.text(text);
+                    }
+                }, richExecutor).thenApplyAsync(content -> content, uiExecutor);
+            case FILES:
+                return loadContent(item).thenApply(text -> text != null ? RichContent.files(Arrays.asList(text.split("\n"))) : null);
+            default:
+                return loadContent(item).thenApply(text -> text != null ? RichContent.text(text) : null);
+        }
+    }
+
+    /**
+     * Sets the size, in characters, from which payloads are stored out of line and kept in memory only as a preview.
+     */
+    public void setLargePayloadThreshold(int chars) {
+        this.largePayloadThreshold = chars;
+        writeQueue.setLargePayloadThreshold(chars);
+    }
+
+    /**
+     * Journals and queues a new item and returns it right away; the callback runs once it is committed.
+     */
+    ClipboardItem saveToDatabase(String content, long hash, BiConsumer<ClipboardItem, WriteBehindQueue.Outcome> callback) {
+        return saveToDatabase(content, hash, RichContent.Kind.TEXT, null, callback);
+    }
+
+    private ClipboardItem saveToDatabase(String content, long hash, RichContent.Kind kind, String attachment,
+                                         BiConsumer<ClipboardItem, WriteBehindQueue.Outcome> callback) {
+        ClipboardItem newItem = new ClipboardItem(lastId.incrementAndGet(), content, LocalDateTime.now());
+        if (kind != RichContent.Kind.TEXT) {
+            newItem.setRich(kind, attachment, hash);
+        }
+        dbExecutor.execute(() -> searchIndex.add(newItem.getId(), content));
+        writeQueue.insert(newItem.getId(), content, hash, kind, attachment, newItem.getTimestamp(), outcome -> {
+            if (newItem.getLength() >= largePayloadThreshold) {
+                newItem.releaseContent();
+                clipboardHistory.resized(newItem);
+            }
+            callback.accept(newItem, outcome);
+        });
+        return newItem;
+    }
+
+    public ObservableList<ClipboardItem> getSearchResults() {
+        return searchResults;
+    }
+
+    /**
+     * Searches the whole database: trigram matches for three or more characters, then full-text matches.
+     * Completes on the reader's thread, or is cancelled once {@code isStale} reports a newer query.
+     */
+    public CompletableFuture<List<ClipboardItem>> search(String query, int limit, BooleanSupplier isStale) {
+        CompletableFuture<List<ClipboardItem>> found = search(query, limit, historyRange, isStale);
+        if (historyOrder != Order.FRECENCY) {
+            return found;
+        }
+        return found.thenApply(results -> {
+            results.sort(Comparator.comparingDouble(ClipboardItem::getFrecency).reversed());
+            return results;
+        });
+    }
+
+    /**
+     * Like {@link #search(String, int, BooleanSupplier)}, within the given range instead of the history list's.
+     */
+    public CompletableFuture<List<ClipboardItem>> search(String query, int limit, TimeRange range, BooleanSupplier isStale) {
+        String ftsQuery = toFtsQuery(query);
+        if (ftsQuery.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        boolean fuzzy = query.indexOf('"') < 0 && query.trim().length() >= 3;
+
+        CompletableFuture<List<ClipboardItem>> found = new CompletableFuture<>();
+        databaseOpened.thenCompose(ignored -> readers.submit(reader -> {
+            if (isStale.getAsBoolean()) {
+                found.cancel(false);
+                return null;
+            }
+            DiagnosticEvents.Search event = metrics.beginSearch(query);
+            List<ClipboardItem> results = new ArrayList<>();
             try {
-                Statement stmt = connection.createStatement();
-                stmt.executeUpdate("DELETE FROM clipboard");
-                Platform.runLater(clipboardHistory::clear);
+                if (fuzzy && searchIndexReady) {
+                    int[] ids = searchIndex.search(query, limit);
+                    if (ids.length > 0 && !readRanked(reader, ids, range, results, isStale)) {
+                        metrics.endSearch(event, results.size(), true);
+                        found.cancel(false);
+                        return null;
+                    }
+                }
+                if (results.size() < limit && !readFullText(reader, ftsQuery, limit, range, results, isStale)) {
+                    metrics.endSearch(event, results.size(), true);
+                    found.cancel(false);
+                    return null;
+                }
+
+                boolean stale = isStale.getAsBoolean();
+                collapseNearDuplicates(results);
+                metrics.endSearch(event, results.size(), stale);
+                if (stale) {
+                    found.cancel(false);
+                } else {
+                    found.complete(results);
+                }
             } catch (SQLException e) {
-                e.printStackTrace();
+                // An interrupted query is how stale searches get cancelled, so only report real failures
+                boolean stale = isStale.getAsBoolean();
+                metrics.endSearch(event, results.size(), stale);
+                if (stale) {
+                    found.cancel(false);
+                } else {
+                    e.printStackTrace();
+                    metrics.recordError("search", e);
+                    found.completeExceptionally(e);
+                }
+            }
+            return null;
+        }));
+        return found;
+    }
+
+    // Reads the items behind the trigram index hits, in its rank order. Ids whose rows are already gone are skipped.
+    private boolean readRanked(Connection reader, int[] ids, TimeRange range, List<ClipboardItem> results, BooleanSupplier isStale) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT " + ITEM_COLUMNS + " FROM clipboard c JOIN blobs b ON b.id = c.blob_id WHERE c.id IN (");
+        for (int i = 0; i < ids.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(')').append(rangeFilter(range, " AND "));
+        Map<Integer, ClipboardItem> byId = new HashMap<>();
+        try (PreparedStatement pstmt = reader.prepareStatement(sql.toString())) {
+            for (int i = 0; i < ids.length; i++) {
+                pstmt.setInt(i + 1, ids[i]);
+            }
+            bindRange(pstmt, ids.length + 1, range);
+            if (!runSearchQuery(pstmt, item -> byId.put(item.getId(), item), isStale)) {
+                return false;
+            }
+        }
+        for (int id : ids) {
+            ClipboardItem item = byId.get(id);
+            if (item != null) {
+                results.add(item);
+            }
+        }
+        return true;
+    }
+
+    // Keeps only the best-ranked version of each group of near duplicates
+    private static void collapseNearDuplicates(List<ClipboardItem> results) {
+        Set<Integer> groups = new HashSet<>();
+        results.removeIf(item -> !groups.add(item.getSimilarTo() != 0 ? item.getSimilarTo() : item.getId()));
+    }
+
+    // Appends full-text matches not already in the results, up to the limit
+    private boolean readFullText(Connection reader, String ftsQuery, int limit, TimeRange range, List<ClipboardItem> results, BooleanSupplier isStale) throws SQLException {
+        Set<Integer> seen = new HashSet<>();
+        for (ClipboardItem item : results) {
+            seen.add(item.getId());
+        }
+        try (PreparedStatement pstmt = reader.prepareStatement(
+                "SELECT " + ITEM_COLUMNS + " FROM blobs_fts f JOIN blobs b ON b.id = f.rowid JOIN clipboard c ON c.blob_id = b.id "
+                + "WHERE blobs_fts MATCH ?" + rangeFilter(range, " AND ") + " ORDER BY f.rank, c.id DESC LIMIT ?")) {
+            pstmt.setString(1, ftsQuery);
+            pstmt.setInt(bindRange(pstmt, 2, range), limit);
+            return runSearchQuery(pstmt, item -> {
+                if (results.size() < limit && seen.add(item.getId())) {
+                    results.add(item);
+                }
+            }, isStale);
+        }
+    }
+
+    // Runs a search statement where cancelSearch can interrupt it; returns false once the query went stale
+    private boolean runSearchQuery(PreparedStatement pstmt, Consumer<ClipboardItem> sink, BooleanSupplier isStale) throws SQLException {
+        synchronized (activeSearches) {
+            activeSearches.add(pstmt);
+        }
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                if (isStale.getAsBoolean()) {
+                    return false;
+                }
+                sink.accept(readItem(rs));
             }
+            return true;
+        } finally {
+            synchronized (activeSearches) {
+                activeSearches.remove(pstmt);
+            }
+        }
+    }
+
+    /** Interrupts the searches running on the reader connections; writes are never tracked. */
+    public void cancelSearch() {
+        synchronized (activeSearches) {
+            for (PreparedStatement search : activeSearches) {
+                try {
+                    search.cancel();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    static String toFtsQuery(String query) {
+        StringBuilder fts = new StringBuilder();
+        StringBuilder term = new StringBuilder();
+        boolean inPhrase = false;
+
+        for (int i = 0; i <= query.length(); i++) {
+            char c = (i < query.length()) ? query.charAt(i) : ' ';
+            boolean end = i == query.length();
+            if (c == '"' && !end) {
+                // A closing quote ends an exact phrase, an opening one flushes the word before it
+                appendFtsTerm(fts, term, !inPhrase);
+                inPhrase = !inPhrase;
+            } else if (Character.isWhitespace(c) && !inPhrase) {
+                appendFtsTerm(fts, term, true);
+            } else if (end) {
+                // An unterminated phrase is still being typed, so match it as a prefix
+                appendFtsTerm(fts, term, true);
+            } else {
+                term.append(c);
+            }
+        }
+        return fts.toString();
+    }
+
+    private static void appendFtsTerm(StringBuilder fts, StringBuilder term, boolean prefix) {
+        String text = term.toString().trim();
+        term.setLength(0);
+        if (text.codePoints().noneMatch(Character::isLetterOrDigit)) {
+            return;
+        }
+        if (fts.length() > 0) {
+            fts.append(' ');
+        }
+        fts.append('"').append(text.replace("\"", "\"\"")).append('"');
+        if (prefix) {
+            fts.append('*');
+        }
+    }
+
+    /** Deletes an item; deleting a group head lists the next newest version in its place. */
+    public void deleteItem(ClipboardItem item) {
+        dbExecutor.execute(() -> searchIndex.removeAll(List.of(item.getId())));
+        writeQueue.delete(item.getId(), outcome -> {
+            clipboardHistory.removeIds(List.of(item.getId()));
+            searchResults.remove(item);
+            ClipboardItem head = item.getSimilarTo() != 0 ? clipboardHistory.getCached(item.getSimilarTo()) : null;
+            if (head != null && head.getSimilarCount() > 0) {
+                head.setSimilar(0, head.getSimilarCount() - 1);
+                clipboardHistory.changed(head);
+            }
+            if (outcome.getPromotedId() != 0) {
+                showPromoted(List.of(outcome.getPromotedId()));
+            }
+        });
+    }
+
+    /** Reads the older versions an item stands for, newest first. Completes on the FX thread. */
+    public CompletableFuture<List<ClipboardItem>> findSimilar(ClipboardItem head) {
+        return read("similar", reader -> {
+            try (PreparedStatement pstmt = reader.prepareStatement("SELECT " + ITEM_COLUMNS + " FROM clipboard c JOIN blobs b ON b.id = c.blob_id "
+                    + "WHERE c.similar_to = ? ORDER BY c.id DESC")) {
+                pstmt.setInt(1, head.getId());
+                List<ClipboardItem> items = new ArrayList<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        items.add(readItem(rs));
+                    }
+                }
+                return items;
+            }
+        }, List::size).thenApplyAsync(items -> items, uiExecutor);
+    }
+
+    /** Stores the edited text of a text item; rich items cannot be edited. */
+    public void updateItem(ClipboardItem item) {
+        if (item.getKind() != RichContent.Kind.TEXT) {
+            throw new IllegalArgumentException("Item " + item.getId() + " is " + item.getKind() + ", not text");
+        }
+        String content = item.getContent();
+        dbExecutor.execute(() -> searchIndex.update(item.getId(), content));
+        writeQueue.update(item.getId(), content, item.getContentHash());
+        if (item.getLength() >= largePayloadThreshold) {
+            item.releaseContent();
+        }
+        clipboardHistory.resized(item);
+    }
+    
+    public void clearAll() {
+        dbExecutor.execute(searchIndex::clear);
+        writeQueue.clear(outcome -> {
+            clipboardHistory.clear();
+            searchResults.clear();
         });
     }
+
+    private static final class LoadedHistory {
+        final int[] ids;
+        final List<ClipboardItem> firstPage;
+        // Only for Order.RECENT, where ids are the newest of count rows
+        int count;
+        // Only for Order.FRECENCY
+        double[] keys;
+
+        LoadedHistory(int[] ids, List<ClipboardItem> firstPage) {
+            this.ids = ids;
+            this.firstPage = firstPage;
+        }
+    }
 }
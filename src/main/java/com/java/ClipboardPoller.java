@@ -0,0 +1,195 @@
+package com.java;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Watches a {@link ClipboardSource} with an adaptive interval: it polls quickly right after a change and
+ * backs off while the clipboard stays idle. Only one poll is ever queued on the JavaFX Application Thread,
+ * because the next tick is scheduled once the previous one has finished.
+ */
+public class ClipboardPoller {
+
+    static final long MIN_INTERVAL_MS = 150;
+    static final long MAX_INTERVAL_MS = 2000;
+    private static final long ACTIVE_WINDOW_MS = 5000;
+    private static final double BACKOFF_FACTOR = 1.5;
+
+    private final ClipboardSource source;
+    private final BiConsumer<RichContent, Long> onChange;
+    private final Executor uiExecutor;
+    private final Metrics metrics;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "clipboard-poll");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+
+    // Only touched on the JavaFX Application Thread
+    private RichContent.Kind lastKind;
+    private long lastFingerprint;
+    private volatile long intervalMs;
+    private long lastChangeNanos;
+    private long lastPollNanos;
+
+    // Written on the FX thread, read by whoever asks for stats
+    private volatile long polls;
+    private volatile long changes;
+    private volatile long totalPollCostNanos;
+    private volatile long maxPollCostNanos;
+    private volatile long totalCaptureLatencyNanos;
+    private volatile long maxCaptureLatencyNanos;
+    private volatile long captures;
+
+    /**
+     * @param onChange receives new clipboard content and the {@link System#nanoTime()} of the previous poll,
+     *                 the earliest the change could have happened; called on the JavaFX Application Thread
+     * @param uiExecutor runs each poll on the JavaFX Application Thread
+     */
+    public ClipboardPoller(ClipboardSource source, BiConsumer<RichContent, Long> onChange, Executor uiExecutor, Metrics metrics) {
+        this(source, onChange, uiExecutor, metrics, MIN_INTERVAL_MS, MAX_INTERVAL_MS);
+    }
+
+    ClipboardPoller(ClipboardSource source, BiConsumer<RichContent, Long> onChange, Executor uiExecutor, Metrics metrics,
+                    long minIntervalMs, long maxIntervalMs) {
+        this.source = source;
+        this.onChange = onChange;
+        this.uiExecutor = uiExecutor;
+        this.metrics = metrics;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.intervalMs = minIntervalMs;
+    }
+
+    public void start() {
+        lastPollNanos = System.nanoTime();
+        scheduler.schedule(() -> uiExecutor.execute(this::poll), 0, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Records the worst-case time from a copy to the item being stored and shown.
+     */
+    public void recordCapture(long changedSinceNanos) {
+        long latency = System.nanoTime() - changedSinceNanos;
+        captures++;
+        totalCaptureLatencyNanos += latency;
+        maxCaptureLatencyNanos = Math.max(maxCaptureLatencyNanos, latency);
+    }
+
+    private void poll() {
+        long start = System.nanoTime();
+        DiagnosticEvents.Poll event = metrics.beginPoll();
+        boolean changed = false;
+        int length = 0;
+        try {
+            RichContent content = source.readContent();
+            length = content != null ? content.getText().length() : 0;
+            // Fingerprints are compared instead of the full content; equal values are left to the caller
+            if (content != null && (content.getKind() != lastKind || content.getFingerprint() != lastFingerprint)) {
+                lastKind = content.getKind();
+                lastFingerprint = content.getFingerprint();
+                changed = true;
+                changes++;
+                lastChangeNanos = start;
+                onChange.accept(content, lastPollNanos);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to access clipboard: " + e.getMessage());
+            metrics.recordError("poll", e);
+        }
+        metrics.endPoll(event, changed, length);
+
+        long cost = System.nanoTime() - start;
+        polls++;
+        totalPollCostNanos += cost;
+        maxPollCostNanos = Math.max(maxPollCostNanos, cost);
+        lastPollNanos = start;
+
+        if (changed || TimeUnit.NANOSECONDS.toMillis(start - lastChangeNanos) < ACTIVE_WINDOW_MS) {
+            intervalMs = minIntervalMs;
+        } else {
+            intervalMs = Math.min(maxIntervalMs, (long) Math.ceil(intervalMs * BACKOFF_FACTOR));
+        }
+
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(() -> uiExecutor.execute(this::poll), intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(polls, changes, totalPollCostNanos, maxPollCostNanos,
+                captures, totalCaptureLatencyNanos, maxCaptureLatencyNanos, intervalMs);
+    }
+
+    public static class Stats {
+        private final long polls;
+        private final long changes;
+        private final long totalPollCostNanos;
+        private final long maxPollCostNanos;
+        private final long captures;
+        private final long totalCaptureLatencyNanos;
+        private final long maxCaptureLatencyNanos;
+        private final long intervalMs;
+
+        Stats(long polls, long changes, long totalPollCostNanos, long maxPollCostNanos,
+              long captures, long totalCaptureLatencyNanos, long maxCaptureLatencyNanos, long intervalMs) {
+            this.polls = polls;
+            this.changes = changes;
+            this.totalPollCostNanos = totalPollCostNanos;
+            this.maxPollCostNanos = maxPollCostNanos;
+            this.captures = captures;
+            this.totalCaptureLatencyNanos = totalCaptureLatencyNanos;
+            this.maxCaptureLatencyNanos = maxCaptureLatencyNanos;
+            this.intervalMs = intervalMs;
+        }
+
+        public long getPolls() {
+            return polls;
+        }
+
+        public long getChanges() {
+            return changes;
+        }
+
+        public double getAveragePollCostMicros() {
+            return polls == 0 ? 0 : totalPollCostNanos / 1000.0 / polls;
+        }
+
+        public double getMaxPollCostMicros() {
+            return maxPollCostNanos / 1000.0;
+        }
+
+        public long getCaptures() {
+            return captures;
+        }
+
+        public double getAverageCaptureLatencyMillis() {
+            return captures == 0 ? 0 : totalCaptureLatencyNanos / 1_000_000.0 / captures;
+        }
+
+        public double getMaxCaptureLatencyMillis() {
+            return maxCaptureLatencyNanos / 1_000_000.0;
+        }
+
+        public long getIntervalMs() {
+            return intervalMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d polls, %d changes, poll cost avg %.1f us / max %.1f us, "
+                            + "capture latency avg %.1f ms / max %.1f ms, interval %d ms",
+                    polls, changes, getAveragePollCostMicros(), getMaxPollCostMicros(),
+                    getAverageCaptureLatencyMillis(), getMaxCaptureLatencyMillis(), intervalMs);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.java;
+
+/**
+ * Where clipboard content is read from and copied back to. {@link ClipboardPoller} reads it on the UI executor,
+ * so implementations only need to be safe on that thread; {@link SystemClipboardSource} requires it to be
+ * the JavaFX Application Thread. Sources that only handle text implement {@link #readText()} and
+ * {@link #writeText(String)}; the rich methods then fall back to them.
+ */
+public interface ClipboardSource {
+
+    /** Returns the current text, or {@code null} if the clipboard holds none. */
+    String readText();
+
+    void writeText(String text);
+
+    /** Returns the current content in its richest supported format, or {@code null} if the clipboard is empty. */
+    default RichContent readContent() {
+        String text = readText();
+        return text != null ? RichContent.text(text) : null;
+    }
+
+    default void writeContent(RichContent content) {
+        writeText(content.getText());
+    }
+}
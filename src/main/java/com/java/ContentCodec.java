@@ -0,0 +1,239 @@
+package com.java;
+
+import org.sqlite.Function;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Storage format of blob payloads. Text above {@link #COMPRESS_THRESHOLD} characters is stored DEFLATE
+ * compressed when that actually saves space; everything else is stored as plain text. The format of each
+ * row is recorded next to it, so rows written before compression existed still read correctly.
+ *
+ * <p>Safe to use from any thread: each thread gets its own deflater and inflater.
+ */
+public class ContentCodec {
+
+    /** Plain text written before formats were tracked; the background migration re-encodes these. */
+    public static final int FORMAT_LEGACY = 0;
+    public static final int FORMAT_PLAIN = 1;
+    public static final int FORMAT_DEFLATE = 2;
+
+    static final int COMPRESS_THRESHOLD = 256;
+    // Only keep the compressed form if it is at least this much smaller
+    private static final double MIN_SAVING = 0.1;
+
+    // Encoding runs on the writer thread and on import parsers; decoding also on the reader connections' threads
+    private final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private final ThreadLocal<byte[]> deflateBuffer = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+    private final ThreadLocal<byte[]> inflateBuffer = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private long encoded;
+    private long compressed;
+    private long plainBytes;
+    private long storedBytes;
+    private long totalEncodeNanos;
+    private long maxEncodeNanos;
+    private long decoded;
+    private long totalDecodeNanos;
+    private long maxDecodeNanos;
+
+    /**
+     * Registers {@code content_text(format, content)} on the connection, which the search index triggers
+     * and the {@code blob_text} view use to read payloads as text.
+     */
+    void register(Connection connection) throws SQLException {
+        Function.create(connection, "content_text", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                if (value_int(0) == FORMAT_DEFLATE) {
+                    result(decode(FORMAT_DEFLATE, value_blob(1)));
+                } else {
+                    result(value_text(1));
+                }
+            }
+        }, 2, Function.FLAG_DETERMINISTIC);
+    }
+
+    /**
+     * Binds the encoded form of the content to parameter {@code index} and returns the format used.
+     */
+    int bind(PreparedStatement pstmt, int index, String content) throws SQLException {
+        Object stored = encode(content);
+        if (stored instanceof byte[]) {
+            pstmt.setBytes(index, (byte[]) stored);
+        } else {
+            pstmt.setString(index, content);
+        }
+        return formatOf(stored);
+    }
+
+    /**
+     * Returns the stored form of the content: a compressed byte array, or the content itself when
+     * compressing would not pay off. {@link #formatOf} tells which.
+     */
+    Object encode(String content) {
+        long start = System.nanoTime();
+        byte[] utf8 = content.getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = content.length() > COMPRESS_THRESHOLD ? deflate(utf8) : null;
+        boolean useDeflate = deflated != null && deflated.length <= utf8.length * (1 - MIN_SAVING);
+        recordEncode(utf8.length, useDeflate ? deflated.length : utf8.length, useDeflate, System.nanoTime() - start);
+        return useDeflate ? deflated : content;
+    }
+
+    static int formatOf(Object stored) {
+        return stored instanceof byte[] ? FORMAT_DEFLATE : FORMAT_PLAIN;
+    }
+
+    /**
+     * Turns a stored value back into text. {@code stored} is the column value as returned by
+     * {@code ResultSet.getObject}: a String for plain rows, a byte array for compressed ones.
+     */
+    String decode(int format, Object stored) throws SQLException {
+        if (stored == null) {
+            return null;
+        }
+        if (format != FORMAT_DEFLATE) {
+            return stored instanceof byte[] ? new String((byte[]) stored, StandardCharsets.UTF_8) : stored.toString();
+        }
+
+        long start = System.nanoTime();
+        byte[] input = (byte[]) stored;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 4);
+        Inflater inflater = this.inflater.get();
+        byte[] buffer = inflateBuffer.get();
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new SQLException("Truncated compressed payload");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new SQLException("Corrupt compressed payload", e);
+        }
+        String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        recordDecode(System.nanoTime() - start);
+        return text;
+    }
+
+    private byte[] deflate(byte[] input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4 + 16);
+        Deflater deflater = this.deflater.get();
+        byte[] buffer = deflateBuffer.get();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private synchronized void recordEncode(long plain, long stored, boolean wasCompressed, long nanos) {
+        encoded++;
+        if (wasCompressed) {
+            compressed++;
+        }
+        plainBytes += plain;
+        storedBytes += stored;
+        totalEncodeNanos += nanos;
+        maxEncodeNanos = Math.max(maxEncodeNanos, nanos);
+    }
+
+    private synchronized void recordDecode(long nanos) {
+        decoded++;
+        totalDecodeNanos += nanos;
+        maxDecodeNanos = Math.max(maxDecodeNanos, nanos);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(encoded, compressed, plainBytes, storedBytes, totalEncodeNanos, maxEncodeNanos,
+                decoded, totalDecodeNanos, maxDecodeNanos);
+    }
+
+    public static class Stats {
+        private final long encoded;
+        private final long compressed;
+        private final long plainBytes;
+        private final long storedBytes;
+        private final long totalEncodeNanos;
+        private final long maxEncodeNanos;
+        private final long decoded;
+        private final long totalDecodeNanos;
+        private final long maxDecodeNanos;
+
+        Stats(long encoded, long compressed, long plainBytes, long storedBytes, long totalEncodeNanos, long maxEncodeNanos,
+              long decoded, long totalDecodeNanos, long maxDecodeNanos) {
+            this.encoded = encoded;
+            this.compressed = compressed;
+            this.plainBytes = plainBytes;
+            this.storedBytes = storedBytes;
+            this.totalEncodeNanos = totalEncodeNanos;
+            this.maxEncodeNanos = maxEncodeNanos;
+            this.decoded = decoded;
+            this.totalDecodeNanos = totalDecodeNanos;
+            this.maxDecodeNanos = maxDecodeNanos;
+        }
+
+        public long getEncoded() {
+            return encoded;
+        }
+
+        public long getCompressed() {
+            return compressed;
+        }
+
+        public long getPlainBytes() {
+            return plainBytes;
+        }
+
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+
+        /** Plain size over stored size of everything written since startup; 1 when nothing was compressed. */
+        public double getCompressionRatio() {
+            return storedBytes == 0 ? 1 : (double) plainBytes / storedBytes;
+        }
+
+        public double getAverageEncodeMicros() {
+            return encoded == 0 ? 0 : totalEncodeNanos / 1000.0 / encoded;
+        }
+
+        public double getMaxEncodeMicros() {
+            return maxEncodeNanos / 1000.0;
+        }
+
+        public long getDecoded() {
+            return decoded;
+        }
+
+        public double getAverageDecodeMicros() {
+            return decoded == 0 ? 0 : totalDecodeNanos / 1000.0 / decoded;
+        }
+
+        public double getMaxDecodeMicros() {
+            return maxDecodeNanos / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d payloads written (%d compressed), %.1f KB -> %.1f KB (ratio %.2f), "
+                            + "encode avg %.1f us / max %.1f us, %d decompressed, decode avg %.1f us / max %.1f us",
+                    encoded, compressed, plainBytes / 1024.0, storedBytes / 1024.0, getCompressionRatio(),
+                    getAverageEncodeMicros(), getMaxEncodeMicros(), decoded, getAverageDecodeMicros(), getMaxDecodeMicros());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.java;
+
+/**
+ * 64-bit FNV-1a hash of clipboard text, used as the key of the content-addressed {@code blobs} table.
+ * It walks the string's chars directly so hashing never allocates an encoded copy of the payload. Images
+ * are hashed by their pixels, and the parts of a {@link RichContent} are folded together with {@link #combine}.
+ */
+public final class ContentHash {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private ContentHash() {
+    }
+
+    public static long of(String content) {
+        long hash = OFFSET_BASIS;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            hash = (hash ^ (c & 0xff)) * PRIME;
+            hash = (hash ^ (c >>> 8)) * PRIME;
+        }
+        return hash;
+    }
+
+    /** Hashes ARGB pixels a whole pixel per step, which is enough to tell screenshots apart. */
+    public static long of(int width, int height, int[] argb) {
+        long hash = combine(OFFSET_BASIS, ((long) width << 32) | height);
+        for (int pixel : argb) {
+            hash = (hash ^ pixel) * PRIME;
+        }
+        return hash;
+    }
+
+    /** Folds a value into a hash, e.g. the kind of content or the hash of a second format. */
+    public static long combine(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,141 @@
+package com.java;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Custom Flight Recorder events. They cost next to nothing unless a recording is running, e.g. one
+ * started with {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start}.
+ */
+final class DiagnosticEvents {
+
+    private DiagnosticEvents() {
+    }
+
+    @Name("com.java.ditto.Poll")
+    @Label("Clipboard Poll")
+    @Category("Ditto")
+    @StackTrace(false)
+    static final class Poll extends Event {
+        @Label("Changed")
+        boolean changed;
+
+        @Label("Content Length")
+        int length;
+
+        transient long startNanos;
+    }
+
+    @Name("com.java.ditto.Capture")
+    @Label("Clipboard Capture")
+    @Description("A new clipboard item stored and shown")
+    @Category("Ditto")
+    @StackTrace(false)
+    static final class Capture extends Event {
+        @Label("Content Length")
+        int length;
+
+        @Label("Capture Latency")
+        @Description("Worst-case time from the copy to the item being stored and shown")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("com.java.ditto.Database")
+    @Label("Database Operation")
+    @Category("Ditto")
+    @StackTrace(false)
+    static final class Database extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Queue Depth")
+        @Description("Tasks waiting on the database thread when the operation finished")
+        int queueDepth;
+
+        transient long startNanos;
+    }
+
+    @Name("com.java.ditto.Search")
+    @Label("Search")
+    @Category("Ditto")
+    @StackTrace(false)
+    static final class Search extends Event {
+        @Label("Query Length")
+        int queryLength;
+
+        @Label("Results")
+        int results;
+
+        @Label("Cancelled")
+        boolean cancelled;
+
+        transient long startNanos;
+    }
+
+    @Name("com.java.ditto.Error")
+    @Label("Error")
+    @Category("Ditto")
+    static final class Error extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Message")
+        String message;
+    }
+
+    @Name("com.java.ditto.Maintenance")
+    @Label("Maintenance")
+    @Description("A migration or cleanup pass that finished")
+    @Category("Ditto")
+    @StackTrace(false)
+    static final class Maintenance extends Event {
+        @Label("Task")
+        String task;
+
+        @Label("Items")
+        long items;
+
+        @Label("Summary")
+        String summary;
+    }
+
+    @Name("com.java.ditto.StartupPhase")
+    @Label("Startup Phase")
+    @Category("Ditto")
+    @StackTrace(false)
+    static final class StartupPhase extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Since JVM Start")
+        @Timespan(Timespan.MILLISECONDS)
+        long sinceJvmStart;
+
+        @Label("Since Previous Phase")
+        @Timespan(Timespan.MILLISECONDS)
+        long sincePrevious;
+    }
+
+    @Name("com.java.ditto.HistoryMemory")
+    @Label("History Memory")
+    @Category("Ditto")
+    @StackTrace(false)
+    static final class HistoryMemory extends Event {
+        @Label("Items in Memory")
+        int items;
+
+        @Label("Estimated Size")
+        @DataAmount
+        long bytes;
+    }
+}
@@ -0,0 +1,63 @@
+package com.java;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+/**
+ * Live view of the runtime metrics, refreshed every second while it is open.
+ */
+public class DiagnosticsDialog extends Stage {
+
+    private final ClipboardManager clipboardManager;
+    private final TextArea reportArea = new TextArea();
+    private final Timeline refresher;
+
+    public DiagnosticsDialog(Stage owner, ClipboardManager clipboardManager) {
+        this.clipboardManager = clipboardManager;
+
+        initOwner(owner);
+        setTitle("Diagnostics");
+
+        reportArea.setEditable(false);
+        reportArea.setStyle("-fx-font-family: monospace;");
+        reportArea.setPrefColumnCount(90);
+        reportArea.setPrefRowCount(24);
+
+        Label hint = new Label("Also available over JMX as " + Metrics.OBJECT_NAME
+                + " and as JFR events in the \"Ditto\" category.");
+        hint.setWrapText(true);
+
+        VBox root = new VBox(10, reportArea, hint);
+        root.setPadding(new Insets(10));
+        setScene(new Scene(root));
+
+        refresher = new Timeline(new KeyFrame(Duration.seconds(1), e -> refresh()));
+        refresher.setCycleCount(Timeline.INDEFINITE);
+        setOnShown(e -> {
+            refresh();
+            refresher.play();
+        });
+        setOnHidden(e -> refresher.stop());
+    }
+
+    private void refresh() {
+        StringBuilder report = new StringBuilder(clipboardManager.getMetrics().report());
+        ClipboardPoller.Stats pollStats = clipboardManager.getPollStats();
+        if (pollStats != null) {
+            report.append("\nPolling: ").append(pollStats);
+        }
+        report.append("\nStorage: ").append(clipboardManager.getCompressionStats());
+        report.append("\nCapture rules: ").append(clipboardManager.getCaptureFilterStats());
+        report.append("\n\nStartup:\n").append(StartupTimings.report());
+        double scroll = reportArea.getScrollTop();
+        reportArea.setText(report.toString());
+        reportArea.setScrollTop(scroll);
+    }
+}
@@ -0,0 +1,43 @@
+package com.java;
+
+/**
+ * Frecency scores: every use of an item, its capture included, is worth 1 and loses half its weight each
+ * {@link #HALF_LIFE_MS}. Instead of the decaying sum itself, an item stores its base-2 logarithm measured
+ * against a fixed point in time, the key: {@code log2(sum of 2^(t / half-life))} over its use times
+ * {@code t}. Every item decays at the same rate, so keys never change as time passes and their order is
+ * the order of the current scores. Only a use changes an item's key, which is what lets the history list
+ * keep itself sorted by moving one row at a time.
+ *
+ * <p>An item that was never used has the key of its capture time, so without any use the order is the
+ * same as newest first. Times are epoch milliseconds.
+ */
+public final class Frecency {
+
+    /** One use a week ago counts as much as half a use now. */
+    public static final long HALF_LIFE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private Frecency() {
+    }
+
+    /** The key of a single use at the given time. */
+    public static double ofTime(long millis) {
+        return (double) millis / HALF_LIFE_MS;
+    }
+
+    /** Combines two keys into the key of both sets of uses. NaN stands for no uses at all. */
+    public static double add(double a, double b) {
+        if (Double.isNaN(a)) {
+            return b;
+        }
+        if (Double.isNaN(b)) {
+            return a;
+        }
+        double high = Math.max(a, b);
+        return high + Math.log1p(Math.pow(2, Math.min(a, b) - high)) / Math.log(2);
+    }
+
+    /** The decayed number of uses a key stands for at the given time. */
+    public static double score(double key, long nowMillis) {
+        return Math.pow(2, key - ofTime(nowMillis));
+    }
+}
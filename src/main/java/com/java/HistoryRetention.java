@@ -0,0 +1,374 @@
+package com.java;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Prunes the database according to a {@link Policy} and gives the freed pages back to the file system.
+ * Work runs on the database thread in small batches, each one a separate task, so captures and searches
+ * queued in between are never stuck behind a long purge. The size limit covers the {@link BlobStore} files
+ * of rich items too, and those are deleted with the last row using them. A deleted head of a group of
+ * {@link NearDuplicates} that still has members hands its place to the newest of them.
+ *
+ * <p>Freed pages go back to the file system only in databases created with {@code auto_vacuum=INCREMENTAL}.
+ * Older ones keep them for reuse until {@link #compact} rebuilds the database once with {@code VACUUM}.
+ * That holds the database thread for as long as the rebuild takes, so it only runs when the user asks.
+ */
+public class HistoryRetention {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int VACUUM_PAGES_PER_STEP = 1024;
+    private static final long RUN_INTERVAL_MINUTES = 60;
+    // PRAGMA auto_vacuum value
+    private static final int INCREMENTAL = 2;
+
+    private final ExecutorService dbExecutor;
+    private final BiConsumer<List<Integer>, List<Integer>> onRemoved;
+    private final Metrics metrics;
+    private final BlobStore blobStore;
+    private final NearDuplicates nearDuplicates;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Policy policy;
+    private volatile Report lastReport;
+    private Connection connection;
+    private boolean running;
+
+    /**
+     * @param onRemoved receives the ids of each deleted batch and of the members that became heads in their
+     *                  place; called on the database thread
+     * @param blobStore where rich items keep their files, or {@code null} if only text is stored
+     */
+    public HistoryRetention(ExecutorService dbExecutor, Policy policy, BiConsumer<List<Integer>, List<Integer>> onRemoved, Metrics metrics,
+                            BlobStore blobStore, NearDuplicates nearDuplicates) {
+        this.dbExecutor = dbExecutor;
+        this.policy = policy;
+        this.onRemoved = onRemoved;
+        this.metrics = metrics;
+        this.blobStore = blobStore;
+        this.nearDuplicates = nearDuplicates;
+    }
+
+    /**
+     * Binds to the database connection. Called on the database thread before any run starts.
+     */
+    void open(Connection connection) {
+        this.connection = connection;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> run(null), 1, RUN_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public Report getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Starts a retention pass unless one is already in progress.
+     *
+     * @param onComplete receives the report when the pass finishes, on the database thread; may be null
+     */
+    public void run(Consumer<Report> onComplete) {
+        run(onComplete, false);
+    }
+
+    /**
+     * Like {@link #run}, and also switches a database from before incremental vacuum over to it, which
+     * rebuilds the whole file in one step.
+     */
+    public void compact(Consumer<Report> onComplete) {
+        run(onComplete, true);
+    }
+
+    private void run(Consumer<Report> onComplete, boolean compact) {
+        submit(() -> {
+            if (running) {
+                return;
+            }
+            running = true;
+            try {
+                Run run = new Run(policy, onComplete, compact);
+                run.pageSize = pragma("page_size");
+                run.startBytes = pragma("page_count") * run.pageSize;
+                submit(() -> deleteStep(run));
+            } catch (SQLException e) {
+                running = false;
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void deleteStep(Run run) {
+        DiagnosticEvents.Database event = metrics.beginDatabase("retention delete");
+        try {
+            List<Integer> ids = new ArrayList<>();
+            List<Long> blobIds = new ArrayList<>();
+            List<String> attachments = new ArrayList<>();
+            selectBatch(run.policy, ids, blobIds, attachments);
+            if (ids.isEmpty()) {
+                submit(() -> vacuumStep(run));
+                return;
+            }
+
+            Set<String> orphans = new HashSet<>();
+            List<Integer> promoted = new ArrayList<>();
+            connection.setAutoCommit(false);
+            try (PreparedStatement deleteRow = connection.prepareStatement("DELETE FROM clipboard WHERE id = ?");
+                 PreparedStatement deleteBlob = connection.prepareStatement("DELETE FROM blobs WHERE id = ? AND NOT EXISTS (SELECT 1 FROM clipboard WHERE blob_id = ?)")) {
+                for (int id : ids) {
+                    deleteRow.setInt(1, id);
+                    deleteRow.addBatch();
+                }
+                deleteRow.executeBatch();
+                // Members are older than their head, so they are normally already gone by now
+                for (int id : ids) {
+                    int head = nearDuplicates.promote(id);
+                    if (head != 0) {
+                        promoted.add(head);
+                    }
+                }
+                for (int i = 0; i < blobIds.size(); i++) {
+                    deleteBlob.setLong(1, blobIds.get(i));
+                    deleteBlob.setLong(2, blobIds.get(i));
+                    int deleted = deleteBlob.executeUpdate();
+                    run.blobsDeleted += deleted;
+                    if (deleted > 0 && attachments.get(i) != null) {
+                        orphans.add(attachments.get(i));
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            if (blobStore != null) {
+                run.filesReclaimed += blobStore.deleteUnreferenced(connection, orphans);
+            }
+            run.rowsDeleted += ids.size();
+            metrics.endDatabase(event, ids.size());
+            onRemoved.accept(ids, promoted);
+            submit(() -> deleteStep(run));
+        } catch (SQLException e) {
+            finish(run);
+            e.printStackTrace();
+            metrics.recordError("retention delete", e);
+        }
+    }
+
+    // Picks the oldest rows that break any of the limits, at most one batch of them
+    private void selectBatch(Policy policy, List<Integer> ids, List<Long> blobIds, List<String> attachments) throws SQLException {
+        int excess = 0;
+        if (policy.getMaxRows() > 0 || policy.getMaxBytes() > 0) {
+            int rows;
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM clipboard")) {
+                rows = rs.next() ? rs.getInt(1) : 0;
+            }
+            if (policy.getMaxRows() > 0) {
+                excess = Math.max(0, rows - policy.getMaxRows());
+            }
+            long used = usedBytes();
+            if (policy.getMaxBytes() > 0 && used > policy.getMaxBytes()) {
+                // Assume rows are of average size; the next step re-measures and trims further if needed
+                int overBudget = (int) Math.ceil((double) (used - policy.getMaxBytes()) / used * rows);
+                excess = Math.max(excess, overBudget);
+            }
+        }
+
+        long cutoff = policy.getMaxAgeDays() > 0 ? TimeRange.toMillis(LocalDateTime.now().minusDays(policy.getMaxAgeDays())) : Long.MIN_VALUE;
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT s.id, s.blob_id, b.attachment FROM (SELECT id, blob_id FROM clipboard WHERE created_ms < ? "
+                + "UNION SELECT id, blob_id FROM (SELECT id, blob_id FROM clipboard ORDER BY id LIMIT ?) "
+                + "ORDER BY id LIMIT ?) s LEFT JOIN blobs b ON b.id = s.blob_id ORDER BY s.id")) {
+            pstmt.setLong(1, cutoff);
+            pstmt.setInt(2, Math.min(excess, BATCH_SIZE));
+            pstmt.setInt(3, BATCH_SIZE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                    blobIds.add(rs.getLong(2));
+                    attachments.add(rs.getString(3));
+                }
+            }
+        }
+    }
+
+    private void vacuumStep(Run run) {
+        try {
+            if (pragma("auto_vacuum") != INCREMENTAL) {
+                // auto_vacuum can only be switched on for an existing database by rebuilding it with VACUUM
+                if (run.compact) {
+                    DiagnosticEvents.Database event = metrics.beginDatabase("retention rebuild");
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                        statement.execute("VACUUM");
+                    }
+                    metrics.endDatabase(event, 0);
+                }
+                finish(run);
+                return;
+            }
+            if (pragma("freelist_count") == 0) {
+                finish(run);
+                return;
+            }
+            // The pragma frees one page per step; executeUpdate steps it to completion where execute would stop after one
+            DiagnosticEvents.Database event = metrics.beginDatabase("retention vacuum");
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_STEP + ")");
+            }
+            metrics.endDatabase(event, 0);
+            submit(() -> vacuumStep(run));
+        } catch (SQLException e) {
+            finish(run);
+            e.printStackTrace();
+            metrics.recordError("retention vacuum", e);
+        }
+    }
+
+    private void finish(Run run) {
+        running = false;
+        if (blobStore != null) {
+            try {
+                // Files that were too new to delete when their rows went
+                run.filesReclaimed += blobStore.deleteUnreferenced(connection, List.of());
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        long endBytes = run.startBytes;
+        try {
+            endBytes = pragma("page_count") * run.pageSize;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        Report report = new Report(run.rowsDeleted, run.blobsDeleted, Math.max(0, run.startBytes - endBytes) + run.filesReclaimed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - run.startNanos));
+        lastReport = report;
+        if (run.onComplete != null) {
+            run.onComplete.accept(report);
+        }
+    }
+
+    private long usedBytes() throws SQLException {
+        long files = blobStore != null ? blobStore.getTotalBytes() : 0;
+        return (pragma("page_count") - pragma("freelist_count")) * pragma("page_size") + files;
+    }
+
+    private long pragma(String name) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private void submit(Runnable task) {
+        if (!dbExecutor.isShutdown()) {
+            dbExecutor.submit(task);
+        }
+    }
+
+    private static final class Run {
+        final Policy policy;
+        final Consumer<Report> onComplete;
+        final boolean compact;
+        final long startNanos = System.nanoTime();
+        long pageSize;
+        long startBytes;
+        int rowsDeleted;
+        int blobsDeleted;
+        long filesReclaimed;
+
+        Run(Policy policy, Consumer<Report> onComplete, boolean compact) {
+            this.policy = policy;
+            this.onComplete = onComplete;
+            this.compact = compact;
+        }
+    }
+
+    /** Limits on what the database keeps. A value of zero disables that limit. */
+    public static class Policy {
+        private final int maxRows;
+        private final long maxBytes;
+        private final int maxAgeDays;
+
+        public Policy(int maxRows, long maxBytes, int maxAgeDays) {
+            this.maxRows = maxRows;
+            this.maxBytes = maxBytes;
+            this.maxAgeDays = maxAgeDays;
+        }
+
+        public int getMaxRows() {
+            return maxRows;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public int getMaxAgeDays() {
+            return maxAgeDays;
+        }
+    }
+
+    public static class Report {
+        private final int rowsDeleted;
+        private final int blobsDeleted;
+        private final long bytesReclaimed;
+        private final long durationMs;
+
+        Report(int rowsDeleted, int blobsDeleted, long bytesReclaimed, long durationMs) {
+            this.rowsDeleted = rowsDeleted;
+            this.blobsDeleted = blobsDeleted;
+            this.bytesReclaimed = bytesReclaimed;
+            this.durationMs = durationMs;
+        }
+
+        public int getRowsDeleted() {
+            return rowsDeleted;
+        }
+
+        public int getBlobsDeleted() {
+            return blobsDeleted;
+        }
+
+        public long getBytesReclaimed() {
+            return bytesReclaimed;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("removed %d items (%d payloads), reclaimed %.1f KB in %d ms",
+                    rowsDeleted, blobsDeleted, bytesReclaimed / 1024.0, durationMs);
+        }
+    }
+}
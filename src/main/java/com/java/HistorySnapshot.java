@@ -0,0 +1,96 @@
+package com.java;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The newest items as last seen, kept in a small file so the first screen can be shown at launch
+ * before SQLite is even opened. Only previews are stored; full content is read from the database on demand.
+ */
+final class HistorySnapshot {
+
+    static final int SIZE = 50;
+    // Version 2 added the kind and attachment of rich items; version 1 files are still read
+    private static final int VERSION = 2;
+
+    private HistorySnapshot() {
+    }
+
+    /**
+     * Returns the stored items, newest first, or an empty list if there is no usable snapshot.
+     */
+    static List<ClipboardItem> read(Path path) {
+        List<ClipboardItem> items = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) {
+                return items;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                long hash = in.readLong();
+                LocalDateTime timestamp = LocalDateTime.parse(in.readUTF());
+                int lineCount = in.readInt();
+                int length = in.readInt();
+                String preview = in.readUTF();
+                ClipboardItem item = new ClipboardItem(id, preview, lineCount, length, hash, timestamp);
+                if (version >= 2) {
+                    RichContent.Kind kind = RichContent.Kind.of(in.readByte());
+                    String attachment = in.readBoolean() ? in.readUTF() : null;
+                    if (kind != RichContent.Kind.TEXT) {
+                        item.setRich(kind, attachment, hash);
+                    }
+                }
+                items.add(item);
+            }
+        } catch (NoSuchFileException e) {
+            // First launch
+        } catch (IOException | RuntimeException e) {
+            // A stale or damaged snapshot only costs the head start
+            System.err.println("Ignoring history snapshot: " + e);
+            items.clear();
+        }
+        return items;
+    }
+
+    /**
+     * Replaces the snapshot with the first {@link #SIZE} of the given items, newest first.
+     */
+    static void write(Path path, List<ClipboardItem> items) {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int count = Math.min(items.size(), SIZE);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                for (ClipboardItem item : items.subList(0, count)) {
+                    out.writeInt(item.getId());
+                    out.writeLong(item.getContentHash());
+                    out.writeUTF(item.getTimestamp().toString());
+                    out.writeInt(item.getLineCount());
+                    out.writeInt(item.getLength());
+                    out.writeUTF(item.getPreview());
+                    out.writeByte(item.getKind().getCode());
+                    out.writeBoolean(item.getAttachment() != null);
+                    if (item.getAttachment() != null) {
+                        out.writeUTF(item.getAttachment());
+                    }
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
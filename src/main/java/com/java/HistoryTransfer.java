@@ -0,0 +1,798 @@
+package com.java;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the history to and from NDJSON files, one item per line:
+ * <pre>{"id":42,"created":1760808419214,"timestamp":"2026-10-18T17:26:59.214","content":"..."}</pre>
+ * {@code created} is the capture time in epoch milliseconds; {@code id}
+ * is informational, imported items get new ids in file order. Rich items (see {@link RichContent}) add
+ * {@code "kind"}, {@code "hash"} and {@code "attachment"}, the digest of their file in the {@link BlobStore};
+ * the file itself is not exported, and an item whose file is missing on import comes back as plain text.
+ * Files whose name ends in {@code .gz} are written gzipped, and gzipped input is recognised by its header.
+ * <p>
+ * Exports read a single forward-only cursor on a reader connection, so memory stays constant whatever the
+ * history size. Imports parse on their own thread while the database thread inserts what has been parsed,
+ * many rows per statement, in one transaction; full-text indexing is done in a single pass at the end.
+ */
+public class HistoryTransfer {
+
+    private static final int PARSE_BATCH_ROWS = 4096;
+    // Ten parameters per blobs row, well under SQLite's limit of 32766 per statement
+    private static final int INSERT_ROWS = 256;
+    private static final int PROGRESS_INTERVAL = 10_000;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // A transaction's dirty pages spill to the log once the page cache fills, so imports get a larger one
+    private static final int IMPORT_CACHE_KB = 64 * 1024;
+    // Dropped for the duration of an import and recreated before it commits
+    private static final String[] DEFERRED_TRIGGERS = {"blobs_ai", "payloads_ai"};
+    private static final String[] DEFERRED_INDEXES = {"blobs_hash"};
+
+    private HistoryTransfer() {
+    }
+
+    /**
+     * Writes every item, oldest first, to the file.
+     *
+     * @param progress receives the number of items written so far, every few thousand items; may be null
+     */
+    static Report export(Connection reader, ContentCodec codec, Path file, LongConsumer progress) throws SQLException, IOException {
+        long start = System.nanoTime();
+        long rows = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(openOutput(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+             Statement statement = reader.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT c.id, c.created_ms, c.timestamp, b.format, COALESCE(p.content, b.content), "
+                     + "b.kind, b.hash, b.attachment FROM clipboard c JOIN blobs b ON b.id = c.blob_id LEFT JOIN payloads p ON p.blob_id = b.id ORDER BY c.id")) {
+            StringBuilder line = new StringBuilder(256);
+            while (rs.next()) {
+                long created = rs.getLong(2);
+                String timestamp = rs.getString(3);
+                if (rs.wasNull()) {
+                    created = TimeRange.toMillis(LocalDateTime.parse(timestamp));
+                }
+                line.setLength(0);
+                line.append("{\"id\":").append(rs.getInt(1))
+                        .append(",\"created\":").append(created)
+                        .append(",\"timestamp\":");
+                appendString(line, timestamp);
+                line.append(",\"content\":");
+                appendString(line, codec.decode(rs.getInt(4), rs.getObject(5)));
+                int kind = rs.getInt(6);
+                if (kind != RichContent.Kind.TEXT.getCode()) {
+                    line.append(",\"kind\":").append(kind)
+                            .append(",\"hash\":").append(rs.getLong(7))
+                            .append(",\"attachment\":");
+                    appendString(line, rs.getString(8));
+                }
+                line.append("}\n");
+                out.append(line);
+                if (++rows % PROGRESS_INTERVAL == 0 && progress != null) {
+                    progress.accept(rows);
+                }
+            }
+        }
+        if (progress != null) {
+            progress.accept(rows);
+        }
+        return new Report("exported", rows, 0, Files.size(file), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static OutputStream openOutput(Path file) throws IOException {
+        OutputStream out = Files.newOutputStream(file);
+        if (!file.getFileName().toString().endsWith(".gz")) {
+            return out;
+        }
+        // Clipboard text compresses well even at the fastest level, which keeps gzip from being the bottleneck
+        return new GZIPOutputStream(out, BUFFER_SIZE) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+    }
+
+    private static InputStream openInput(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        in.mark(2);
+        boolean gzipped = in.read() == 0x1f && in.read() == 0x8b;
+        in.reset();
+        return gzipped ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    // Control characters are escaped; everything else, non-ASCII included, is written as is
+    private static void appendString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        int run = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(value, run, i);
+            run = i + 1;
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default: out.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        out.append(value, run, value.length()).append('"');
+    }
+
+    /**
+     * One import run. Content that is already in the history, or appears earlier in the file, is skipped,
+     * so importing the same file twice adds nothing the second time.
+     */
+    static final class Import {
+        private final Path file;
+        private final ContentCodec codec;
+        private final BlobStore blobStore;
+        private final int largePayloadThreshold;
+        private final LongConsumer progress;
+        private final BlockingQueue<Parsed> parsed = new ArrayBlockingQueue<>(4);
+        private volatile boolean abandoned;
+
+        /**
+         * @param blobStore where the files of rich items are looked for
+         * @param progress receives the number of items read so far, on the database thread; may be null
+         */
+        Import(Path file, ContentCodec codec, BlobStore blobStore, int largePayloadThreshold, LongConsumer progress) {
+            this.file = file;
+            this.codec = codec;
+            this.blobStore = blobStore;
+            this.largePayloadThreshold = largePayloadThreshold;
+            this.progress = progress;
+        }
+
+        /**
+         * Runs the import on the database connection as a single transaction; nothing is kept if it fails.
+         *
+         * @param reserveIds reserves the given number of consecutive item ids and returns the first
+         * @param onInserted receives the id of each inserted item, before the commit
+         */
+        Report run(Connection connection, IntUnaryOperator reserveIds, IntConsumer onInserted) throws SQLException, IOException {
+            long start = System.nanoTime();
+            Thread parser = new Thread(this::parse, "history-import");
+            parser.setDaemon(true);
+            parser.start();
+
+            Inserter inserter = null;
+            long cacheSize = pragma(connection, "cache_size");
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA cache_size = -" + IMPORT_CACHE_KB);
+                LongMap blobsByHash = existingHashes(statement);
+                List<String> deferred = drop(statement, "TRIGGER", DEFERRED_TRIGGERS);
+                deferred.addAll(drop(statement, "INDEX", DEFERRED_INDEXES));
+                inserter = new Inserter(connection, nextBlobId(statement), blobsByHash, reserveIds, onInserted);
+                long read = 0;
+                while (true) {
+                    Parsed batch = take();
+                    if (batch.error != null) {
+                        throw batch.error;
+                    }
+                    if (batch.rows.isEmpty()) {
+                        break;
+                    }
+                    for (Row row : batch.rows) {
+                        inserter.add(row);
+                    }
+                    read += batch.rows.size();
+                    if (progress != null) {
+                        progress.accept(read);
+                    }
+                }
+                inserter.flush();
+
+                // Building the hash index in one sort beats inserting random keys into it row by row
+                for (String definition : deferred) {
+                    statement.executeUpdate(definition);
+                }
+                connection.commit();
+                return new Report("imported", inserter.inserted, inserter.skipped, Files.size(file),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (SQLException | IOException | RuntimeException e) {
+                abandoned = true;
+                connection.rollback();
+                throw e;
+            } finally {
+                if (inserter != null) {
+                    inserter.close();
+                }
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("PRAGMA cache_size = " + cacheSize);
+                }
+            }
+        }
+
+        private Parsed take() throws IOException {
+            try {
+                return parsed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            }
+        }
+
+        // Keeps the definitions so they can be put back in the same transaction
+        private List<String> drop(Statement statement, String type, String[] names) throws SQLException {
+            List<String> definitions = new ArrayList<>();
+            for (String name : names) {
+                try (ResultSet rs = statement.executeQuery("SELECT sql FROM sqlite_master WHERE type = '" + type.toLowerCase() + "' AND name = '" + name + "'")) {
+                    if (rs.next()) {
+                        definitions.add(rs.getString(1));
+                    }
+                }
+                statement.executeUpdate("DROP " + type + " IF EXISTS " + name);
+            }
+            return definitions;
+        }
+
+        // Blob ids are assigned here so whole batches can be inserted at once; never reuses a deleted id
+        private long nextBlobId(Statement statement) throws SQLException {
+            try (ResultSet rs = statement.executeQuery("SELECT MAX(COALESCE((SELECT seq FROM sqlite_sequence WHERE name = 'blobs'), 0), "
+                    + "COALESCE((SELECT MAX(id) FROM blobs), 0))")) {
+                return (rs.next() ? rs.getLong(1) : 0) + 1;
+            }
+        }
+
+        // Read off the hash index in one scan; duplicates are then found without it, by blob id
+        private LongMap existingHashes(Statement statement) throws SQLException {
+            LongMap blobsByHash = new LongMap();
+            try (ResultSet rs = statement.executeQuery("SELECT hash, id FROM blobs")) {
+                while (rs.next()) {
+                    blobsByHash.putIfAbsent(rs.getLong(1), rs.getLong(2));
+                }
+            }
+            return blobsByHash;
+        }
+
+        // Parses, hashes and encodes each line, leaving the database thread only the inserts
+        private void parse() {
+            int lineNumber = 0;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(openInput(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                List<Row> rows = new ArrayList<>(PARSE_BATCH_ROWS);
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    Row row = Row.parse(line);
+                    // Without its file, or its hash, a rich item can only be restored as its text
+                    boolean rich = row.kind != RichContent.Kind.TEXT.getCode() && row.storedHash != null
+                            && (row.attachment == null ? row.kind == RichContent.Kind.FILES.getCode() : blobStore.contains(row.attachment));
+                    if (!rich) {
+                        row.kind = RichContent.Kind.TEXT.getCode();
+                        row.attachment = null;
+                    }
+                    row.hash = rich ? row.storedHash : ContentHash.of(row.content);
+                    row.external = row.content.length() >= largePayloadThreshold;
+                    row.stored = codec.encode(row.content);
+                    row.preview = row.external || row.content.length() > ClipboardItem.PREVIEW_CHARS ? ClipboardItem.previewOf(row.content) : null;
+                    row.lineCount = ClipboardItem.lineCountOf(row.content);
+                    if (row.timestamp == null) {
+                        row.timestamp = TimeRange.toLocalDateTime(row.created).toString();
+                    }
+                    rows.add(row);
+                    if (rows.size() == PARSE_BATCH_ROWS) {
+                        if (!put(new Parsed(rows, null))) {
+                            return;
+                        }
+                        rows = new ArrayList<>(PARSE_BATCH_ROWS);
+                    }
+                }
+                if (!rows.isEmpty() && !put(new Parsed(rows, null))) {
+                    return;
+                }
+                put(new Parsed(List.of(), null));
+            } catch (IOException | RuntimeException e) {
+                IOException error = e instanceof IOException ? (IOException) e
+                        : new IOException(file + ", line " + lineNumber + ": " + e.getMessage(), e);
+                put(new Parsed(List.of(), error));
+            }
+        }
+
+        // Gives up once the database side has failed and stopped taking batches
+        private boolean put(Parsed batch) {
+            try {
+                while (!abandoned) {
+                    if (parsed.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        // Buffers rows and inserts them INSERT_ROWS to a statement
+        private final class Inserter {
+            private final Connection connection;
+            private final LongMap blobsByHash;
+            private final IntUnaryOperator reserveIds;
+            private final IntConsumer onInserted;
+            private final PreparedStatement findBlob;
+            private final PreparedStatement insertPayload;
+            private final Map<Integer, PreparedStatement[]> inserts = new HashMap<>();
+            private final List<Row> pending = new ArrayList<>(INSERT_ROWS);
+            long nextBlobId;
+            long inserted;
+            long skipped;
+
+            Inserter(Connection connection, long nextBlobId, LongMap blobsByHash, IntUnaryOperator reserveIds, IntConsumer onInserted) throws SQLException {
+                this.connection = connection;
+                this.nextBlobId = nextBlobId;
+                this.blobsByHash = blobsByHash;
+                this.reserveIds = reserveIds;
+                this.onInserted = onInserted;
+                this.findBlob = connection.prepareStatement("SELECT b.format, COALESCE(p.content, b.content) FROM blobs b "
+                        + "LEFT JOIN payloads p ON p.blob_id = b.id WHERE b.id = ?");
+                this.insertPayload = connection.prepareStatement("INSERT INTO payloads (blob_id, content) VALUES (?, ?)");
+            }
+
+            void add(Row row) throws SQLException {
+                row.blobId = nextBlobId;
+                long earlier = blobsByHash.putIfAbsent(row.hash, row.blobId);
+                // Only the first blob with a given hash is compared; a 64-bit collision between two
+                // different texts that are also both duplicates is not worth an index lookup per row
+                if (earlier != LongMap.MISSING) {
+                    if (earlier >= pendingFrom()) {
+                        if (pending.get((int) (earlier - pendingFrom())).content.equals(row.content)) {
+                            skipped++;
+                            return;
+                        }
+                    } else if (sameContent(earlier, row.content)) {
+                        skipped++;
+                        return;
+                    }
+                }
+                nextBlobId++;
+                if (row.external) {
+                    insertPayload.setLong(1, row.blobId);
+                    bindStored(insertPayload, 2, row.stored);
+                    insertPayload.executeUpdate();
+                }
+                pending.add(row);
+                if (pending.size() == INSERT_ROWS) {
+                    flush();
+                }
+            }
+
+            private long pendingFrom() {
+                return nextBlobId - pending.size();
+            }
+
+            private boolean sameContent(long blobId, String content) throws SQLException {
+                findBlob.setLong(1, blobId);
+                try (ResultSet rs = findBlob.executeQuery()) {
+                    while (rs.next()) {
+                        if (content.equals(codec.decode(rs.getInt(1), rs.getObject(2)))) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+
+            void flush() throws SQLException {
+                int count = pending.size();
+                if (count == 0) {
+                    return;
+                }
+                int firstId = reserveIds.applyAsInt(count);
+                PreparedStatement[] statements = inserts.get(count);
+                if (statements == null) {
+                    statements = new PreparedStatement[] {
+                            connection.prepareStatement(multiRow("INSERT INTO blobs (id, hash, content, preview, line_count, length, external, format, kind, attachment) VALUES ", 10, count)),
+                            connection.prepareStatement(multiRow("INSERT INTO clipboard (id, blob_id, timestamp, created_ms, frecency) VALUES ", 5, count)),
+                            connection.prepareStatement(multiRow("INSERT INTO blobs_fts (rowid, content) VALUES ", 2, count))
+                    };
+                    // Only the full size is reused; the odd-sized tail of a run is prepared once
+                    if (count == INSERT_ROWS) {
+                        inserts.put(count, statements);
+                    }
+                }
+                PreparedStatement blobs = statements[0];
+                PreparedStatement clipboard = statements[1];
+                PreparedStatement fullText = statements[2];
+                try {
+                    for (int i = 0; i < count; i++) {
+                        Row row = pending.get(i);
+                        String content = row.content;
+                        int b = i * 10;
+                        blobs.setLong(b + 1, row.blobId);
+                        blobs.setLong(b + 2, row.hash);
+                        bindStored(blobs, b + 3, row.external ? "" : row.stored);
+                        blobs.setString(b + 4, row.preview);
+                        blobs.setInt(b + 5, row.lineCount);
+                        blobs.setInt(b + 6, content.length());
+                        blobs.setBoolean(b + 7, row.external);
+                        blobs.setInt(b + 8, ContentCodec.formatOf(row.stored));
+                        blobs.setInt(b + 9, row.kind);
+                        blobs.setString(b + 10, row.attachment);
+
+                        int c = i * 5;
+                        clipboard.setInt(c + 1, firstId + i);
+                        clipboard.setLong(c + 2, row.blobId);
+                        clipboard.setString(c + 3, row.timestamp);
+                        clipboard.setLong(c + 4, row.created);
+                        clipboard.setDouble(c + 5, Frecency.ofTime(row.created));
+
+                        // What the deferred triggers would have indexed, without decoding it again
+                        fullText.setLong(i * 2 + 1, row.blobId);
+                        fullText.setString(i * 2 + 2, content);
+                    }
+                    blobs.executeUpdate();
+                    clipboard.executeUpdate();
+                    fullText.executeUpdate();
+                } finally {
+                    if (count != INSERT_ROWS) {
+                        for (PreparedStatement statement : statements) {
+                            statement.close();
+                        }
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    onInserted.accept(firstId + i);
+                }
+                inserted += count;
+                pending.clear();
+            }
+
+            void close() {
+                try {
+                    findBlob.close();
+                    insertPayload.close();
+                    for (PreparedStatement[] statements : inserts.values()) {
+                        for (PreparedStatement statement : statements) {
+                            statement.close();
+                        }
+                    }
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void bindStored(PreparedStatement pstmt, int index, Object stored) throws SQLException {
+        if (stored instanceof byte[]) {
+            pstmt.setBytes(index, (byte[]) stored);
+        } else {
+            pstmt.setString(index, (String) stored);
+        }
+    }
+
+    private static long pragma(Connection connection, String name) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static String multiRow(String insert, int columns, int rows) {
+        StringBuilder sql = new StringBuilder(insert.length() + rows * (columns * 2 + 3));
+        sql.append(insert);
+        for (int r = 0; r < rows; r++) {
+            sql.append(r == 0 ? "(" : ",(");
+            for (int c = 0; c < columns; c++) {
+                sql.append(c == 0 ? "?" : ",?");
+            }
+            sql.append(')');
+        }
+        return sql.toString();
+    }
+
+    // Open-addressing map from hash to blob id, 16 bytes a blob where a HashMap<Long, Long> would take ~80
+    private static final class LongMap {
+        static final long MISSING = -1;
+        private long[] keys = new long[1024];
+        // Blob ids start at 1, so 0 marks a free slot
+        private long[] values = new long[1024];
+        private int size;
+
+        /** Returns the value already stored for the key, or {@link #MISSING} after storing this one. */
+        long putIfAbsent(long key, long value) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (values[i] == 0) {
+                    keys[i] = key;
+                    values[i] = value;
+                    size++;
+                    return MISSING;
+                }
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != 0) {
+                    putIfAbsent(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static final class Parsed {
+        final List<Row> rows;
+        final IOException error;
+
+        Parsed(List<Row> rows, IOException error) {
+            this.rows = rows;
+            this.error = error;
+        }
+    }
+
+    /** One parsed line. Only {@code content} is required; a missing time means now. */
+    private static final class Row {
+        String content;
+        long created = Long.MIN_VALUE;
+        String timestamp;
+        int kind;
+        Long storedHash;
+        String attachment;
+        // Filled in by the parser thread
+        long hash;
+        boolean external;
+        Object stored;
+        String preview;
+        int lineCount;
+        // Assigned on the database thread
+        long blobId;
+
+        // A flat JSON object: string, number and literal values, unknown keys skipped
+        static Row parse(String line) {
+            Row row = new Row();
+            Cursor in = new Cursor(line);
+            in.expect('{');
+            if (!in.consume('}')) {
+                do {
+                    String key = in.string();
+                    in.expect(':');
+                    switch (key) {
+                        case "content":
+                            row.content = in.string();
+                            break;
+                        case "created":
+                            row.created = in.number();
+                            break;
+                        case "timestamp":
+                            row.timestamp = in.peek() == 'n' ? in.literal() : in.string();
+                            break;
+                        case "kind":
+                            row.kind = (int) in.number();
+                            break;
+                        case "hash":
+                            row.storedHash = in.number();
+                            break;
+                        case "attachment":
+                            row.attachment = in.peek() == 'n' ? in.literal() : in.string();
+                            break;
+                        default:
+                            in.skipValue();
+                    }
+                } while (in.consume(','));
+                in.expect('}');
+            }
+            if (row.content == null) {
+                throw new IllegalArgumentException("missing \"content\"");
+            }
+            // Older exports wrote created as local wall-clock time, so the text wins
+            if (row.timestamp != null) {
+                row.created = TimeRange.toMillis(LocalDateTime.parse(row.timestamp));
+            } else if (row.created == Long.MIN_VALUE) {
+                row.created = System.currentTimeMillis();
+            }
+            return row;
+        }
+    }
+
+    private static final class Cursor {
+        private final String text;
+        private int pos;
+
+        Cursor(String text) {
+            this.text = text;
+        }
+
+        char peek() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw new IllegalArgumentException("unexpected end of line");
+            }
+            return text.charAt(pos);
+        }
+
+        boolean consume(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("expected '" + c + "' at column " + (pos + 1));
+            }
+        }
+
+        String string() {
+            expect('"');
+            int start = pos;
+            // Fast path: no escapes, the value is a plain substring
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c == '"') {
+                    return text.substring(start, pos++);
+                }
+                if (c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            StringBuilder out = new StringBuilder(pos - start + 16).append(text, start, pos);
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    break;
+                }
+                char escape = text.charAt(pos++);
+                switch (escape) {
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    case 't': out.append('\t'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw new IllegalArgumentException("truncated \\u escape");
+                        }
+                        out.append((char) Integer.parseInt(text, pos, pos + 4, 16));
+                        pos += 4;
+                        break;
+                    default: out.append(escape);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        long number() {
+            skipWhitespace();
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            boolean integral = true;
+            for (int i = start; i < pos && integral; i++) {
+                integral = text.charAt(i) != '.' && text.charAt(i) != 'e' && text.charAt(i) != 'E';
+            }
+            // Hashes need all 64 bits, which a double would round away
+            return integral ? Long.parseLong(text, start, pos, 10) : (long) Double.parseDouble(text.substring(start, pos));
+        }
+
+        String literal() {
+            skipWhitespace();
+            int start = pos;
+            while (pos < text.length() && Character.isLetter(text.charAt(pos))) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (!literal.equals("null") && !literal.equals("true") && !literal.equals("false")) {
+                throw new IllegalArgumentException("unexpected '" + literal + "' at column " + (start + 1));
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        void skipValue() {
+            char c = peek();
+            if (c == '"') {
+                string();
+            } else if (c == '-' || Character.isDigit(c)) {
+                number();
+            } else {
+                literal();
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+
+    public static class Report {
+        private final String action;
+        private final long rows;
+        private final long skipped;
+        private final long bytes;
+        private final long durationMs;
+
+        Report(String action, long rows, long skipped, long bytes, long durationMs) {
+            this.action = action;
+            this.rows = rows;
+            this.skipped = skipped;
+            this.bytes = bytes;
+            this.durationMs = durationMs;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        /** Items left out because their content was already in the history. */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /** Size of the file written or read. */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public double getRowsPerSecond() {
+            return durationMs == 0 ? rows * 1000.0 : rows * 1000.0 / durationMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d items%s, %.1f MB in %d ms (%.0f items/s)", action, rows,
+                    skipped > 0 ? " (" + skipped + " duplicates skipped)" : "", bytes / 1048576.0, durationMs, getRowsPerSecond());
+        }
+    }
+}
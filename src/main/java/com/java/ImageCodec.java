@@ -0,0 +1,167 @@
+package com.java;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Converts clipboard images between ARGB pixels and the PNG files {@link BlobStore} keeps. PNG is lossless,
+ * so an image copied back out of the history is the one that was captured. Images are written with light
+ * compression, which is faster than the default and only a little larger. Reads take the mapped file
+ * directly, without a copy on the heap or a disk cache, and thumbnails are decoded with source subsampling,
+ * so a large screenshot is never expanded in full just to show a small preview of it.
+ */
+final class ImageCodec {
+
+    // ImageIO maps quality to the deflate level, 1.0 being no compression at all; 0.9 is the fastest level
+    // that still compresses, which on screenshots is several times smaller than raw for a third of the time
+    private static final float PNG_QUALITY = 0.9f;
+
+    private ImageCodec() {
+    }
+
+    /** Non-premultiplied ARGB pixels, row by row. */
+    static final class Pixels {
+        final int width;
+        final int height;
+        final int[] argb;
+
+        Pixels(int width, int height, int[] argb) {
+            this.width = width;
+            this.height = height;
+            this.argb = argb;
+        }
+    }
+
+    static byte[] encodePng(int width, int height, int[] argb) throws IOException {
+        boolean opaque = true;
+        for (int pixel : argb) {
+            if (pixel >>> 24 != 0xff) {
+                opaque = false;
+                break;
+            }
+        }
+        // Without an alpha channel the file is a quarter smaller
+        BufferedImage image = new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        System.arraycopy(argb, 0, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, width * height);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(width * height + 1024);
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(PNG_QUALITY);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    static Pixels decode(ByteBuffer png) throws IOException {
+        return read(png, 0, 0);
+    }
+
+    /**
+     * Decodes a scaled-down copy that fits within the given size, keeping the aspect ratio. Images that
+     * already fit are decoded as they are.
+     */
+    static Pixels thumbnail(ByteBuffer png, int maxWidth, int maxHeight) throws IOException {
+        return read(png, maxWidth, maxHeight);
+    }
+
+    private static Pixels read(ByteBuffer png, int maxWidth, int maxHeight) throws IOException {
+        try (ImageInputStream in = new BufferInputStream(png.duplicate())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Not an image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                double scale = maxWidth > 0 ? Math.min(1, Math.min((double) maxWidth / width, (double) maxHeight / height)) : 1;
+                // Skipping rows and columns while decoding does most of the shrinking; smoothing does the rest
+                int step = (int) Math.max(1, Math.floor(1 / scale / 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = reader.read(0, param);
+                int targetWidth = Math.max(1, (int) Math.round(width * scale));
+                int targetHeight = Math.max(1, (int) Math.round(height * scale));
+                if (image.getWidth() != targetWidth || image.getHeight() != targetHeight) {
+                    image = scale(image, targetWidth, targetHeight);
+                }
+                int w = image.getWidth();
+                int h = image.getHeight();
+                return new Pixels(w, h, image.getRGB(0, 0, w, h, null, 0, w));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    // ImageIO's own streams over a byte source either copy it or cache it in a temporary file
+    private static final class BufferInputStream extends ImageInputStreamImpl {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            bitOffset = 0;
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+            return buffer.get((int) streamPos++) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            bitOffset = 0;
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+            int count = (int) Math.min(length, buffer.limit() - streamPos);
+            buffer.get((int) streamPos, bytes, offset, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+    }
+}
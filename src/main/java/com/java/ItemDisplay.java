@@ -0,0 +1,190 @@
+package com.java;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneRules;
+
+/**
+ * What a history cell shows for one item, prepared once so that binding a cell while scrolling only sets a
+ * few ready strings. The preview is clamped to a few short lines, so a cell never lays out more text than
+ * fits in it, and the time is labelled relative to now ("Today, 14:03:22"). The label goes stale when its
+ * age bucket changes, e.g. at midnight, and {@link ClipboardItem#getDisplay()} then prepares a new one.
+ * Immutable; built on the reader thread that loads the item.
+ */
+public final class ItemDisplay {
+
+    /** How long ago the item was captured, as the cell labels it. */
+    public enum Age {
+        JUST_NOW, TODAY, YESTERDAY, THIS_WEEK, OLDER
+    }
+
+    static final int PREVIEW_LINES = 4;
+    static final int PREVIEW_LINE_CHARS = 200;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final DateTimeFormatter WEEKDAY_FORMAT = DateTimeFormatter.ofPattern("EEE, HH:mm:ss");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMM dd, HH:mm:ss");
+    private static final long MINUTE = 60_000;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    private final String preview;
+    private final int lineCount;
+    private final String formattedTime;
+    private final Age age;
+    private final String details;
+    private final String versions;
+    // System.currentTimeMillis() after which the age label is wrong
+    private final long expiresAt;
+
+    private ItemDisplay(String preview, int lineCount, String formattedTime, Age age, String details, String versions, long expiresAt) {
+        this.preview = preview;
+        this.lineCount = lineCount;
+        this.formattedTime = formattedTime;
+        this.age = age;
+        this.details = details;
+        this.versions = versions;
+        this.expiresAt = expiresAt;
+    }
+
+    static ItemDisplay of(ClipboardItem item) {
+        long nowUtc = System.currentTimeMillis();
+        // Days are counted in local time
+        ZoneRules zone = ZoneId.systemDefault().getRules();
+        long offset = zone.getOffset(Instant.ofEpochMilli(nowUtc)).getTotalSeconds() * 1000L;
+        long now = nowUtc + offset;
+        long time = item.getTimestampMillis() + zone.getOffset(Instant.ofEpochMilli(item.getTimestampMillis())).getTotalSeconds() * 1000L;
+        LocalDateTime dateTime = TimeRange.toLocalDateTime(item.getTimestampMillis());
+        long today = Math.floorDiv(now, DAY) * DAY;
+        long day = Math.floorDiv(time, DAY) * DAY;
+
+        String formattedTime = DATE_FORMAT.format(dateTime);
+        Age age;
+        String label;
+        long validUntil;
+        if (now - time < MINUTE) {
+            age = Age.JUST_NOW;
+            label = "Just now";
+            validUntil = Math.max(time, now) + MINUTE;
+        } else if (day == today) {
+            age = Age.TODAY;
+            label = "Today, " + TIME_FORMAT.format(dateTime);
+            validUntil = today + DAY;
+        } else if (day == today - DAY) {
+            age = Age.YESTERDAY;
+            label = "Yesterday, " + TIME_FORMAT.format(dateTime);
+            validUntil = today + DAY;
+        } else if (day > today - 7 * DAY) {
+            age = Age.THIS_WEEK;
+            label = WEEKDAY_FORMAT.format(dateTime);
+            validUntil = day + 7 * DAY;
+        } else {
+            age = Age.OLDER;
+            label = formattedTime;
+            validUntil = Long.MAX_VALUE;
+        }
+
+        String details = label;
+        if (item.getUseCount() > 0) {
+            details += "  \u00b7  used " + (item.getUseCount() == 1 ? "once" : item.getUseCount() + " times");
+        }
+        if (item.getKind() == RichContent.Kind.HTML) {
+            details += "  \u00b7  HTML";
+        } else if (item.getKind() == RichContent.Kind.FILES) {
+            details += "  \u00b7  " + (item.getLineCount() == 1 ? "1 file" : item.getLineCount() + " files");
+        } else if (item.isTruncated()) {
+            details += "  \u00b7  " + item.getLineCount() + " lines, " + formatSize(item.getLength());
+        }
+        String versions = null;
+        if (item.getSimilarCount() > 0) {
+            versions = item.getSimilarCount() == 1 ? "1 earlier version" : item.getSimilarCount() + " earlier versions";
+        }
+        return new ItemDisplay(clamp(item.getPreview(), item.isTruncated()), item.getLineCount(), formattedTime,
+                age, details, versions, validUntil == Long.MAX_VALUE ? Long.MAX_VALUE : validUntil - offset);
+    }
+
+    /** The first few lines of the preview, each cut short, with an ellipsis wherever something was left out. */
+    static String clamp(String preview, boolean truncated) {
+        StringBuilder out = new StringBuilder(Math.min(preview.length(), PREVIEW_LINES * (PREVIEW_LINE_CHARS + 2)) + 1);
+        boolean cut = false;
+        boolean clamped = false;
+        boolean more = truncated;
+        int lineStart = 0;
+        for (int line = 0; ; line++) {
+            int lineEnd = preview.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = preview.length();
+            }
+            int end = Math.min(lineEnd, lineStart + PREVIEW_LINE_CHARS);
+            if (end < lineEnd && Character.isHighSurrogate(preview.charAt(end - 1))) {
+                end--;
+            }
+            out.append(preview, lineStart, end);
+            cut = end < lineEnd;
+            if (cut) {
+                out.append('\u2026');
+                clamped = true;
+            }
+            if (lineEnd == preview.length()) {
+                break;
+            }
+            if (line == PREVIEW_LINES - 1) {
+                more = true;
+                break;
+            }
+            out.append('\n');
+            lineStart = lineEnd + 1;
+        }
+        if (more && !cut) {
+            out.append('\u2026');
+        }
+        return clamped || more ? out.toString() : preview;
+    }
+
+    private static String formatSize(int chars) {
+        if (chars < 1024) {
+            return chars + " chars";
+        }
+        if (chars < 1024 * 1024) {
+            return String.format("%.1f K chars", chars / 1024.0);
+        }
+        return String.format("%.1f M chars", chars / (1024.0 * 1024.0));
+    }
+
+    boolean isCurrent() {
+        return expiresAt == Long.MAX_VALUE || System.currentTimeMillis() < expiresAt;
+    }
+
+    /** Heap held by the prepared strings, for the history memory budget. */
+    long estimateSize() {
+        return 72 + 40 + preview.length() + formattedTime.length() + details.length() + (versions != null ? 40 + versions.length() : 0);
+    }
+
+    public String getPreview() {
+        return preview;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /** The absolute capture time, e.g. "Mar 05, 14:03:22". */
+    public String getFormattedTime() {
+        return formattedTime;
+    }
+
+    public Age getAge() {
+        return age;
+    }
+
+    /** The relative time, how often it was used, and the format of rich content or line count and size for a large item. */
+    public String getDetails() {
+        return details;
+    }
+
+    /** How many near duplicates the row stands for, e.g. "3 earlier versions", or null if none. */
+    public String getVersions() {
+        return versions;
+    }
+}
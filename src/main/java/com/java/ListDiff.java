@@ -0,0 +1,112 @@
+package com.java;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the smallest set of removals and insertions that turns one list of items into another,
+ * matching items by id. Used to patch the visible search results instead of replacing them wholesale.
+ */
+public class ListDiff {
+
+    /** A contiguous edit: remove {@code removeCount} items at {@code index}, then insert {@code inserted} there. */
+    public static class Edit {
+        private final int index;
+        private final int removeCount;
+        private final List<ClipboardItem> inserted;
+
+        Edit(int index, int removeCount, List<ClipboardItem> inserted) {
+            this.index = index;
+            this.removeCount = removeCount;
+            this.inserted = inserted;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getRemoveCount() {
+            return removeCount;
+        }
+
+        public List<ClipboardItem> getInserted() {
+            return inserted;
+        }
+    }
+
+    /**
+     * Returns edits ordered from the end of the list to the start, so each one can be applied
+     * without shifting the indexes of those still to come.
+     */
+    public static List<Edit> compute(List<ClipboardItem> oldItems, List<ClipboardItem> newItems) {
+        int start = 0;
+        int oldEnd = oldItems.size();
+        int newEnd = newItems.size();
+
+        // Typing usually narrows or re-ranks a few results, so trim the shared head and tail first
+        while (start < oldEnd && start < newEnd && sameId(oldItems.get(start), newItems.get(start))) {
+            start++;
+        }
+        while (oldEnd > start && newEnd > start && sameId(oldItems.get(oldEnd - 1), newItems.get(newEnd - 1))) {
+            oldEnd--;
+            newEnd--;
+        }
+
+        int n = oldEnd - start;
+        int m = newEnd - start;
+        List<Edit> edits = new ArrayList<>();
+        if (n == 0 && m == 0) {
+            return edits;
+        }
+
+        // Longest common subsequence over the differing middle; result lists are capped, so n * m stays small
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                if (sameId(oldItems.get(start + i), newItems.get(start + j))) {
+                    lcs[i][j] = lcs[i + 1][j + 1] + 1;
+                } else {
+                    lcs[i][j] = Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+                }
+            }
+        }
+
+        // Walk the table, merging adjacent removals and insertions into a single edit
+        int i = 0;
+        int j = 0;
+        int editIndex = -1;
+        int removeCount = 0;
+        List<ClipboardItem> inserted = new ArrayList<>();
+        while (i < n || j < m) {
+            if (i < n && j < m && sameId(oldItems.get(start + i), newItems.get(start + j))) {
+                if (editIndex >= 0) {
+                    edits.add(0, new Edit(editIndex, removeCount, inserted));
+                    editIndex = -1;
+                    removeCount = 0;
+                    inserted = new ArrayList<>();
+                }
+                i++;
+                j++;
+                continue;
+            }
+            if (editIndex < 0) {
+                editIndex = start + i;
+            }
+            if (j < m && (i == n || lcs[i][j + 1] >= lcs[i + 1][j])) {
+                inserted.add(newItems.get(start + j));
+                j++;
+            } else {
+                removeCount++;
+                i++;
+            }
+        }
+        if (editIndex >= 0) {
+            edits.add(0, new Edit(editIndex, removeCount, inserted));
+        }
+        return edits;
+    }
+
+    private static boolean sameId(ClipboardItem a, ClipboardItem b) {
+        return a.getId() == b.getId();
+    }
+}
@@ -6,13 +6,20 @@ import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.DatePicker;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
@@ -25,27 +32,162 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.LongConsumer;
 
 public class Main extends Application {
 
+    private static final int SEARCH_RESULT_LIMIT = 200;
+    private static final String CUSTOM_RANGE = "Custom...";
+    /** Quits as soon as history has loaded; used by the training run that builds the CDS archive. */
+    static final String EXIT_AFTER_STARTUP = "ditto.exitAfterStartup";
+    private static final String DATABASE = "clipboard.db";
+
     private Stage stage;
     private Scene scene;
     private VBox root;
-    private final ObservableList<ClipboardItem> clipboardHistory = FXCollections.observableArrayList();
     private ClipboardManager clipboardManager;
     private SettingsManager settingsManager;
+    private DiagnosticsDialog diagnosticsDialog;
+    private ApiServer apiServer;
+    private SearchPipeline searchPipeline;
 
     public static void main(String[] args) {
+        if (args.length > 0 && (args[0].equals("--export") || args[0].equals("--import"))) {
+            System.exit(transfer(args));
+        }
+        if (args.length > 0 && args[0].equals("--client")) {
+            System.exit(ApiClient.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            System.exit(daemon());
+        }
+        StartupTimings.mark("main");
         // GDK warning on Linux fix
         System.setProperty("jdk.gtk.version", "2");
         launch(args);
     }
 
+    /**
+     * Exports or imports the history without starting the UI or touching the system clipboard:
+     * {@code --export FILE} or {@code --import FILE}, gzipped when the name ends in {@code .gz}. Refuses
+     * to run while another instance serves the database, whose writes and journal it would collide with.
+     * Returns the process exit code.
+     */
+    static int transfer(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: ditto --export FILE[.gz] | --import FILE[.gz]");
+            return 2;
+        }
+        Path file = Paths.get(args[1]);
+        boolean export = args[0].equals("--export");
+        Path socket = ApiClient.defaultSocket();
+        if (ApiServer.isServing(socket)) {
+            System.err.println("Ditto is running on " + socket + "; quit it before " + (export ? "exporting" : "importing"));
+            return 1;
+        }
+        SettingsManager settings = new SettingsManager();
+        ClipboardManager manager = new ClipboardManager(settings.getHistoryBudgetBytes(), DATABASE, engineExecutor(), new SyntheticClipboardSource());
+        manager.setLargePayloadThreshold(settings.getLargeItemThresholdKb() * 1024);
+        LongConsumer progress = rows -> System.err.print("\r" + rows + " items");
+        try {
+            HistoryTransfer.Report report = (export ? manager.exportHistory(file, progress) : manager.importHistory(file, progress)).join();
+            System.err.println();
+            System.out.println(file + ": " + report);
+            return 0;
+        } catch (CompletionException e) {
+            System.err.println();
+            System.err.println((export ? "Export" : "Import") + " failed: " + e.getCause());
+            return 1;
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    /**
+     * Runs the capture engine without a window and serves it on the API socket until the process is
+     * stopped. Watches the system clipboard when a display is available; without one it only keeps
+     * the history and takes pushes from clients. Returns the process exit code.
+     */
+    static int daemon() {
+        Path socket = ApiClient.defaultSocket();
+        if (ApiServer.isServing(socket)) {
+            System.err.println("Ditto is already running on " + socket);
+            return 1;
+        }
+        SettingsManager settings = new SettingsManager();
+        Executor uiExecutor;
+        ClipboardSource source;
+        boolean display = !GraphicsEnvironment.isHeadless();
+        if (display) {
+            // The system clipboard is only reachable from the JavaFX Application Thread
+            Platform.setImplicitExit(false);
+            Platform.startup(() -> { });
+            uiExecutor = Platform::runLater;
+            source = new SystemClipboardSource();
+        } else {
+            System.err.println("No display; serving the history without watching the clipboard");
+            uiExecutor = engineExecutor();
+            source = new SyntheticClipboardSource();
+        }
+        ClipboardManager manager = new ClipboardManager(settings.getHistoryBudgetBytes(), DATABASE, uiExecutor, source);
+        manager.setLargePayloadThreshold(settings.getLargeItemThresholdKb() * 1024);
+        manager.setCaptureRules(settings.getCaptureRules(), settings.getCaptureMaxKb() * 1024);
+        ApiServer server = new ApiServer(manager, socket);
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Cannot serve " + socket + ": " + e.getMessage());
+            manager.shutdown();
+            return 1;
+        }
+        if (display) {
+            manager.startPolling();
+        }
+        manager.startRetention(settings.getRetentionPolicy());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            manager.shutdown();
+        }, "daemon-shutdown"));
+        System.err.println("Serving " + DATABASE + " on " + socket);
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    // Stands in for the JavaFX Application Thread without a window: the history list must be used from one thread
+    private static Executor engineExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     @Override
     public void start(Stage primaryStage) {
         this.stage = primaryStage;
         Platform.setImplicitExit(false);
 
+        // One process owns the database; a second launch would capture everything twice
+        Path socket = ApiClient.defaultSocket();
+        if (ApiServer.isServing(socket)) {
+            System.err.println("Ditto is already running on " + socket);
+            Platform.exit();
+            return;
+        }
+
         // --- Settings ---
         settingsManager = new SettingsManager();
         primaryStage.setTitle("Ditto");
@@ -77,27 +219,56 @@ public class Main extends Application {
         Button clearButton = new Button("Clear All");
         clearButton.setOnAction(e -> clipboardManager.clearAll());
         
-        HBox topBar = new HBox(10, searchField, settingsButton, clearButton);
+        // Filters both the history and searches to a capture time range
+        ComboBox<String> rangeBox = new ComboBox<>(FXCollections.observableArrayList(
+                "All Time", "Last Hour", "Today", "Yesterday", "Last 7 Days", CUSTOM_RANGE));
+        rangeBox.setValue("All Time");
+
+        HBox topBar = new HBox(10, searchField, rangeBox, settingsButton, clearButton);
         topBar.setAlignment(Pos.CENTER_LEFT);
 
-        // --- Data and Filtering ---
-        FilteredList<ClipboardItem> filteredData = new FilteredList<>(clipboardHistory, s -> true);
+        // --- Manager and ListView ---
+        // Opens the database on its own thread; until then the list shows the snapshot from the last run
+        clipboardManager = new ClipboardManager(settingsManager.getHistoryBudgetBytes());
+        clipboardManager.setLargePayloadThreshold(settingsManager.getLargeItemThresholdKb() * 1024);
+        clipboardManager.setCaptureRules(settingsManager.getCaptureRules(), settingsManager.getCaptureMaxKb() * 1024);
+        clipboardManager.setHistoryOrder(settingsManager.getHistoryOrder());
+        ObservableList<ClipboardItem> clipboardHistory = clipboardManager.getHistory();
+
+        ListView<ClipboardItem> listView = new ListView<>(clipboardHistory);
+        ClipboardHistoryCell.install(listView, clipboardManager);
+        VBox.setVgrow(listView, Priority.ALWAYS); // Make ListView fill vertical space
+
+        // --- Search ---
+        // Queries are debounced and run against the full-text index on a worker, so typing never waits on them
+        searchPipeline = new SearchPipeline(clipboardManager, SEARCH_RESULT_LIMIT);
         searchField.textProperty().addListener(obs -> {
             String filter = searchField.getText();
-            if (filter == null || filter.isEmpty()) {
-                filteredData.setPredicate(s -> true);
+            if (filter == null || filter.isBlank()) {
+                searchPipeline.cancel();
+                listView.setItems(clipboardHistory);
             } else {
-                String lowerCaseFilter = filter.toLowerCase();
-                filteredData.setPredicate(item -> item.getContent().toLowerCase().contains(lowerCaseFilter));
+                searchPipeline.submit(filter);
+                listView.setItems(clipboardManager.getSearchResults());
             }
         });
 
-        // --- Manager and ListView ---
-        clipboardManager = new ClipboardManager(clipboardHistory, settingsManager.getMaxHistorySize());
-
-        ListView<ClipboardItem> listView = new ListView<>(filteredData);
-        listView.setCellFactory(param -> new ClipboardHistoryCell(clipboardManager));
-        VBox.setVgrow(listView, Priority.ALWAYS); // Make ListView fill vertical space
+        rangeBox.valueProperty().addListener((obs, oldValue, newValue) -> {
+            if (newValue == null) {
+                return;
+            }
+            Optional<TimeRange> range = toTimeRange(newValue);
+            if (range.isEmpty()) {
+                Platform.runLater(() -> rangeBox.setValue(oldValue));
+                return;
+            }
+            // The range is set before this returns, so the search below is already filtered by it
+            clipboardManager.setHistoryRange(range.get());
+            String filter = searchField.getText();
+            if (filter != null && !filter.isBlank()) {
+                searchPipeline.submit(filter);
+            }
+        });
 
         root.getChildren().addAll(topBar, listView);
 
@@ -111,15 +282,89 @@ public class Main extends Application {
         applyTheme();
         
         primaryStage.setScene(scene);
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.F12), this::showDiagnostics);
 
         SwingUtilities.invokeLater(() -> createTrayIcon(stage));
 
         clipboardManager.startPolling();
+        clipboardManager.startRetention(settingsManager.getRetentionPolicy());
 
         primaryStage.setOnCloseRequest(event -> stage.hide());
-        
+        StartupTimings.mark("ui built");
+
         // Show the stage
         primaryStage.show();
+        StartupTimings.mark("window shown");
+
+        // Starting the MBean server and JFR hooks is slow and nothing on screen needs them
+        Thread metricsRegistration = new Thread(() -> clipboardManager.getMetrics().register(), "metrics-registration");
+        metricsRegistration.setDaemon(true);
+        metricsRegistration.start();
+
+        // Scripts and editor plugins reach this same engine over the API socket
+        apiServer = new ApiServer(clipboardManager, socket);
+        clipboardManager.getHistoryLoaded().thenRun(() -> {
+            try {
+                apiServer.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+
+        // Otherwise the timings are only shown in Diagnostics
+        if (Boolean.getBoolean(EXIT_AFTER_STARTUP)) {
+            clipboardManager.getHistoryLoaded().thenRun(() -> {
+                System.out.print("Startup:\n" + StartupTimings.report());
+                Platform.runLater(this::exit);
+            });
+        }
+    }
+
+    private Optional<TimeRange> toTimeRange(String choice) {
+        switch (choice) {
+            case "Last Hour": return Optional.of(TimeRange.lastHour());
+            case "Today": return Optional.of(TimeRange.today());
+            case "Yesterday": return Optional.of(TimeRange.yesterday());
+            case "Last 7 Days": return Optional.of(TimeRange.lastDays(7));
+            case CUSTOM_RANGE: return showCustomRangeDialog();
+            default: return Optional.of(TimeRange.ALL);
+        }
+    }
+
+    private Optional<TimeRange> showCustomRangeDialog() {
+        Dialog<TimeRange> dialog = new Dialog<>();
+        dialog.initOwner(stage);
+        dialog.setTitle("Custom Range");
+        dialog.setHeaderText("Show items copied between:");
+        DatePicker fromPicker = new DatePicker(LocalDate.now().minusDays(7));
+        DatePicker toPicker = new DatePicker(LocalDate.now());
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.add(new Label("From:"), 0, 0);
+        grid.add(fromPicker, 1, 0);
+        grid.add(new Label("To:"), 0, 1);
+        grid.add(toPicker, 1, 1);
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(button -> {
+            if (button != ButtonType.OK || fromPicker.getValue() == null || toPicker.getValue() == null) {
+                return null;
+            }
+            LocalDate first = fromPicker.getValue();
+            LocalDate last = toPicker.getValue();
+            return last.isBefore(first) ? TimeRange.between(last, first) : TimeRange.between(first, last);
+        });
+        return dialog.showAndWait();
+    }
+
+    private void exit() {
+        apiServer.close();
+        searchPipeline.close();
+        clipboardManager.shutdown();
+        Platform.exit();
+        System.exit(0);
     }
     
     private void applyTheme() {
@@ -133,12 +378,21 @@ public class Main extends Application {
     }
 
     private void showSettingsDialog() {
-        SettingsDialog dialog = new SettingsDialog(stage, settingsManager);
+        SettingsDialog dialog = new SettingsDialog(stage, settingsManager, clipboardManager);
         dialog.showAndWait();
         stage.setAlwaysOnTop(settingsManager.isAlwaysOnTop());
+        clipboardManager.setHistoryBudget(settingsManager.getHistoryBudgetBytes());
         applyTheme();
     }
 
+    private void showDiagnostics() {
+        if (diagnosticsDialog == null) {
+            diagnosticsDialog = new DiagnosticsDialog(stage, clipboardManager);
+        }
+        diagnosticsDialog.show();
+        diagnosticsDialog.toFront();
+    }
+
     private void createTrayIcon(final Stage stage) {
         if (SystemTray.isSupported()) {
             SystemTray tray = SystemTray.getSystemTray();
@@ -180,8 +434,15 @@ public class Main extends Application {
             }));
             popupMenu.add(showItem);
 
+            MenuItem diagnosticsItem = new MenuItem("Diagnostics");
+            diagnosticsItem.addActionListener(e -> Platform.runLater(this::showDiagnostics));
+            popupMenu.add(diagnosticsItem);
+
             MenuItem exitItem = new MenuItem("Exit");
             exitItem.addActionListener(e -> {
+                apiServer.close();
+                searchPipeline.close();
+                clipboardManager.shutdown();
                 Platform.exit();
                 tray.remove(trayIcon);
                 System.exit(0);
@@ -0,0 +1,286 @@
+package com.java;
+
+import jdk.jfr.FlightRecorder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and latency histograms for polling, captures, database work and searches. Every record also
+ * emits the matching {@link DiagnosticEvents JFR event}, so one call site feeds both JMX and Flight Recorder.
+ * Safe to use from any thread.
+ */
+public class Metrics implements MetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.java.ditto:type=Metrics";
+
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder captures = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder cancelledSearches = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicInteger uiBacklog = new AtomicInteger();
+    private final LatencyHistogram pollCost = new LatencyHistogram();
+    private final LatencyHistogram captureLatency = new LatencyHistogram();
+    private final LatencyHistogram searchLatency = new LatencyHistogram();
+    private final LatencyHistogram uiDispatchDelay = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> database = new ConcurrentHashMap<>();
+    private final Map<String, String> maintenance = new ConcurrentHashMap<>();
+
+    private volatile IntSupplier databaseQueueDepth = () -> 0;
+    private volatile IntSupplier pendingWrites = () -> 0;
+    private volatile IntSupplier historyItems = () -> 0;
+    private volatile LongSupplier historyBytes = () -> 0;
+
+    void setDatabaseQueueDepth(IntSupplier supplier) {
+        this.databaseQueueDepth = supplier;
+    }
+
+    void setPendingWrites(IntSupplier supplier) {
+        this.pendingWrites = supplier;
+    }
+
+    void setHistoryMemory(IntSupplier items, LongSupplier bytes) {
+        this.historyItems = items;
+        this.historyBytes = bytes;
+    }
+
+    /**
+     * Publishes the bean on the platform MBean server and starts the periodic history memory JFR event.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+            FlightRecorder.addPeriodicEvent(DiagnosticEvents.HistoryMemory.class, () -> {
+                DiagnosticEvents.HistoryMemory event = new DiagnosticEvents.HistoryMemory();
+                event.items = getHistoryItemsInMemory();
+                event.bytes = getHistoryBytesInMemory();
+                event.commit();
+            });
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wraps the executor that hands work to the JavaFX Application Thread so its backlog and dispatch
+     * delay are measured.
+     */
+    Executor instrument(Executor uiExecutor) {
+        return task -> {
+            long queued = System.nanoTime();
+            uiBacklog.incrementAndGet();
+            uiExecutor.execute(() -> {
+                uiBacklog.decrementAndGet();
+                uiDispatchDelay.record(System.nanoTime() - queued);
+                task.run();
+            });
+        };
+    }
+
+    DiagnosticEvents.Poll beginPoll() {
+        DiagnosticEvents.Poll event = new DiagnosticEvents.Poll();
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    void endPoll(DiagnosticEvents.Poll event, boolean changed, int length) {
+        pollCost.record(System.nanoTime() - event.startNanos);
+        polls.increment();
+        if (changed) {
+            changes.increment();
+        }
+        event.changed = changed;
+        event.length = length;
+        event.commit();
+    }
+
+    void recordCapture(int length, long latencyNanos) {
+        captures.increment();
+        captureLatency.record(latencyNanos);
+        DiagnosticEvents.Capture event = new DiagnosticEvents.Capture();
+        event.length = length;
+        event.latency = latencyNanos;
+        event.commit();
+    }
+
+    DiagnosticEvents.Database beginDatabase(String operation) {
+        DiagnosticEvents.Database event = new DiagnosticEvents.Database();
+        event.operation = operation;
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    void endDatabase(DiagnosticEvents.Database event, int rows) {
+        database.computeIfAbsent(event.operation, op -> new LatencyHistogram()).record(System.nanoTime() - event.startNanos);
+        event.rows = rows;
+        event.queueDepth = getDatabaseQueueDepth();
+        event.commit();
+    }
+
+    DiagnosticEvents.Search beginSearch(String query) {
+        DiagnosticEvents.Search event = new DiagnosticEvents.Search();
+        event.queryLength = query.length();
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    void endSearch(DiagnosticEvents.Search event, int results, boolean cancelled) {
+        searches.increment();
+        if (cancelled) {
+            cancelledSearches.increment();
+        } else {
+            searchLatency.record(System.nanoTime() - event.startNanos);
+        }
+        event.results = results;
+        event.cancelled = cancelled;
+        event.commit();
+    }
+
+    void recordError(String operation, Throwable error) {
+        errors.increment();
+        DiagnosticEvents.Error event = new DiagnosticEvents.Error();
+        event.operation = operation;
+        event.message = String.valueOf(error);
+        event.commit();
+    }
+
+    /** Records what a migration or cleanup pass did; the latest summary per task is kept. */
+    void recordMaintenance(String task, long items, String summary) {
+        maintenance.put(task, summary);
+        DiagnosticEvents.Maintenance event = new DiagnosticEvents.Maintenance();
+        event.task = task;
+        event.items = items;
+        event.summary = summary;
+        event.commit();
+    }
+
+    @Override
+    public long getPolls() {
+        return polls.sum();
+    }
+
+    @Override
+    public long getClipboardChanges() {
+        return changes.sum();
+    }
+
+    @Override
+    public long getCaptures() {
+        return captures.sum();
+    }
+
+    @Override
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    @Override
+    public long getCancelledSearches() {
+        return cancelledSearches.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public int getDatabaseQueueDepth() {
+        return databaseQueueDepth.getAsInt();
+    }
+
+    @Override
+    public int getPendingWrites() {
+        return pendingWrites.getAsInt();
+    }
+
+    @Override
+    public int getUiBacklog() {
+        return uiBacklog.get();
+    }
+
+    @Override
+    public int getHistoryItemsInMemory() {
+        return historyItems.getAsInt();
+    }
+
+    @Override
+    public long getHistoryBytesInMemory() {
+        return historyBytes.getAsLong();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getPollCost() {
+        return pollCost.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCaptureLatency() {
+        return captureLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getSearchLatency() {
+        return searchLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getUiDispatchDelay() {
+        return uiDispatchDelay.snapshot();
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getDatabaseLatencies() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        database.forEach((operation, histogram) -> snapshots.put(operation, histogram.snapshot()));
+        return snapshots;
+    }
+
+    @Override
+    public Map<String, String> getMaintenance() {
+        return new TreeMap<>(maintenance);
+    }
+
+    /** Multi-line summary of everything above, as shown in the diagnostics view. */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Polls: %d (%d changes)   Captures: %d   Searches: %d (%d cancelled)   Errors: %d%n",
+                getPolls(), getClipboardChanges(), getCaptures(), getSearches(), getCancelledSearches(), getErrors()));
+        report.append(String.format("DB queue: %d   Pending writes: %d   UI backlog: %d%n",
+                getDatabaseQueueDepth(), getPendingWrites(), getUiBacklog()));
+        report.append(String.format("History in memory: %d items, ~%.1f KB%n%n",
+                getHistoryItemsInMemory(), getHistoryBytesInMemory() / 1024.0));
+        report.append("Poll cost:        ").append(getPollCost()).append('\n');
+        report.append("Capture latency:  ").append(getCaptureLatency()).append('\n');
+        report.append("Search latency:   ").append(getSearchLatency()).append('\n');
+        report.append("UI dispatch:      ").append(getUiDispatchDelay()).append("\n\n");
+        report.append("Database:\n");
+        getDatabaseLatencies().forEach((operation, snapshot) ->
+                report.append(String.format("  %-16s %s%n", operation, snapshot)));
+        Map<String, String> tasks = getMaintenance();
+        if (!tasks.isEmpty()) {
+            report.append("\nMaintenance:\n");
+            tasks.forEach((task, summary) -> report.append(String.format("  %-16s %s%n", task, summary)));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,47 @@
+package com.java;
+
+import java.util.Map;
+
+/**
+ * Runtime metrics published over JMX as {@code com.java.ditto:type=Metrics}. Latencies are histograms
+ * since startup; open the bean in JConsole or Mission Control to watch them live.
+ */
+public interface MetricsMXBean {
+
+    long getPolls();
+
+    long getClipboardChanges();
+
+    long getCaptures();
+
+    long getSearches();
+
+    long getCancelledSearches();
+
+    long getErrors();
+
+    int getDatabaseQueueDepth();
+
+    int getPendingWrites();
+
+    /** Callbacks handed to the JavaFX Application Thread that have not run yet. */
+    int getUiBacklog();
+
+    int getHistoryItemsInMemory();
+
+    long getHistoryBytesInMemory();
+
+    LatencyHistogram.Snapshot getPollCost();
+
+    LatencyHistogram.Snapshot getCaptureLatency();
+
+    LatencyHistogram.Snapshot getSearchLatency();
+
+    /** Time from handing a callback to the JavaFX Application Thread until it starts running. */
+    LatencyHistogram.Snapshot getUiDispatchDelay();
+
+    Map<String, LatencyHistogram.Snapshot> getDatabaseLatencies();
+
+    /** The last result of each migration or cleanup pass since startup. */
+    Map<String, String> getMaintenance();
+}
@@ -0,0 +1,234 @@
+package com.java;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups near-identical items, like the same block copied again with a changed line or formatted another
+ * way, under the newest of them. Each blob stores the {@link SimHash} of its text in {@code blobs.simhash},
+ * with one expression index per band, so the rows near a fingerprint are found with a handful of index
+ * lookups. Each older version points at the newest one, the head of its group, with
+ * {@code clipboard.similar_to}; the history list shows heads only, and a head lists its versions on demand.
+ *
+ * <p>A head always has the highest id in its group, so pruning the oldest rows first never leaves members
+ * without their head. All methods run on the database thread, in whatever transaction is open there.
+ */
+public class NearDuplicates {
+
+    /** {@code blobs.simhash} of a blob that has no text to fingerprint, like an image. */
+    static final long NONE = SimHash.NONE;
+
+    static final int FINGERPRINT_BATCH_SIZE = 200;
+
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private final String candidatesSql;
+    private Connection connection;
+
+    public NearDuplicates() {
+        // Each band is its own term, which lets SQLite answer the OR with one index per band. The indexes
+        // hold the fingerprint too, so candidates are compared without reading their rows.
+        StringBuilder sql = new StringBuilder("SELECT b.id, b.simhash FROM blobs b WHERE ");
+        for (int band = 0; band < SimHash.BANDS; band++) {
+            sql.append(band == 0 ? "" : " OR ").append("(b.simhash <> 0 AND ").append(SimHash.bandSql("b.simhash", band)).append(" = ?)");
+        }
+        candidatesSql = sql.toString();
+    }
+
+    /**
+     * Binds to the database connection. Called on the database thread once the schema is in place.
+     */
+    void open(Connection connection) {
+        this.connection = connection;
+    }
+
+    /** The fingerprint stored for new content: that of its text, or {@link #NONE} for images and file lists. */
+    static long fingerprint(String content, int contentKind) {
+        RichContent.Kind kind = RichContent.Kind.of(contentKind);
+        return kind == RichContent.Kind.TEXT || kind == RichContent.Kind.HTML ? SimHash.of(content) : NONE;
+    }
+
+    /**
+     * Returns the head of the group holding the rows nearest to the fingerprint, or 0 if no row is within
+     * {@link SimHash#MAX_DISTANCE}. Rows of the group headed by {@code excludeHead} are skipped.
+     */
+    int findGroup(long simhash, int excludeHead) throws SQLException {
+        if (simhash == NONE) {
+            return 0;
+        }
+        PreparedStatement select = statement(candidatesSql);
+        for (int band = 0; band < SimHash.BANDS; band++) {
+            select.setInt(band + 1, SimHash.band(simhash, band));
+        }
+        // Most candidates share a band by chance and are much further away
+        List<long[]> near = new ArrayList<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                int distance = SimHash.distance(simhash, rs.getLong(2));
+                if (distance <= SimHash.MAX_DISTANCE) {
+                    near.add(new long[] {rs.getLong(1), distance});
+                }
+            }
+        }
+        int bestHead = 0;
+        long bestDistance = SimHash.MAX_DISTANCE + 1;
+        PreparedStatement rows = statement("SELECT id, similar_to FROM clipboard WHERE blob_id = ?");
+        for (long[] blob : near) {
+            rows.setLong(1, blob[0]);
+            try (ResultSet rs = rows.executeQuery()) {
+                while (rs.next()) {
+                    int head = rs.getInt(2);
+                    if (head == 0) {
+                        head = rs.getInt(1);
+                    }
+                    // Ties go to the newer group
+                    if (head != excludeHead && (blob[1] < bestDistance || blob[1] == bestDistance && head > bestHead)) {
+                        bestHead = head;
+                        bestDistance = blob[1];
+                    }
+                }
+            }
+        }
+        return bestHead;
+    }
+
+    /**
+     * Merges the groups headed by {@code a} and {@code b}, both heads, under the newer of the two, and returns
+     * the older, which is no longer a head.
+     */
+    int join(int a, int b) throws SQLException {
+        int head = Math.max(a, b);
+        int folded = Math.min(a, b);
+        PreparedStatement update = statement("UPDATE clipboard SET similar_to = ? WHERE similar_to = ? OR id = ?");
+        update.setInt(1, head);
+        update.setInt(2, folded);
+        update.setInt(3, folded);
+        update.executeUpdate();
+        return folded;
+    }
+
+    /** Hands the members of a head that is being replaced, e.g. by a re-copy of its content, to another head. */
+    void moveMembers(int from, int to) throws SQLException {
+        PreparedStatement update = statement("UPDATE clipboard SET similar_to = ? WHERE similar_to = ?");
+        update.setInt(1, to);
+        update.setInt(2, from);
+        update.executeUpdate();
+    }
+
+    /**
+     * Makes the newest member of a removed head's group the new head. Returns its id, or 0 if the head
+     * had no members.
+     */
+    int promote(int removedHead) throws SQLException {
+        int newest = 0;
+        PreparedStatement select = statement("SELECT MAX(id) FROM clipboard WHERE similar_to = ?");
+        select.setInt(1, removedHead);
+        try (ResultSet rs = select.executeQuery()) {
+            if (rs.next()) {
+                newest = rs.getInt(1);
+            }
+        }
+        if (newest > 0) {
+            // NULLIF leaves the new head itself without one
+            PreparedStatement update = statement("UPDATE clipboard SET similar_to = NULLIF(?, id) WHERE similar_to = ?");
+            update.setInt(1, newest);
+            update.setInt(2, removedHead);
+            update.executeUpdate();
+        }
+        return newest;
+    }
+
+    int countSimilar(int head) throws SQLException {
+        PreparedStatement select = statement("SELECT COUNT(*) FROM clipboard WHERE similar_to = ?");
+        select.setInt(1, head);
+        try (ResultSet rs = select.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Fingerprints a batch of blobs written without one, by older versions or by an import, and groups their
+     * rows with the near duplicates fingerprinted before them, all in one transaction. Returns how many blobs
+     * it did, which is less than a full batch once none are left, and adds the ids of rows that stopped being
+     * heads to {@code folded}.
+     */
+    int fingerprintStep(ContentCodec codec, List<Integer> folded) throws SQLException {
+        List<Long> blobIds = new ArrayList<>();
+        List<Long> fingerprints = new ArrayList<>();
+        PreparedStatement select = statement("SELECT b.id, b.kind, b.format, COALESCE(p.content, b.content) FROM blobs b "
+                + "LEFT JOIN payloads p ON p.blob_id = b.id WHERE b.simhash IS NULL ORDER BY b.id LIMIT ?");
+        select.setInt(1, FINGERPRINT_BATCH_SIZE);
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                blobIds.add(rs.getLong(1));
+                String content = codec.decode(rs.getInt(3), rs.getObject(4));
+                fingerprints.add(content != null ? fingerprint(content, rs.getInt(2)) : NONE);
+            }
+        }
+        if (blobIds.isEmpty()) {
+            return 0;
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement update = statement("UPDATE blobs SET simhash = ? WHERE id = ?");
+            PreparedStatement rows = statement("SELECT id, similar_to FROM clipboard WHERE blob_id = ?");
+            for (int i = 0; i < blobIds.size(); i++) {
+                long simhash = fingerprints.get(i);
+                update.setLong(1, simhash);
+                update.setLong(2, blobIds.get(i));
+                update.executeUpdate();
+                if (simhash == NONE) {
+                    continue;
+                }
+                List<Integer> heads = new ArrayList<>();
+                rows.setLong(1, blobIds.get(i));
+                try (ResultSet rs = rows.executeQuery()) {
+                    while (rs.next()) {
+                        int head = rs.getInt(2);
+                        heads.add(head != 0 ? head : rs.getInt(1));
+                    }
+                }
+                for (int head : heads) {
+                    int near = findGroup(simhash, head);
+                    if (near != 0) {
+                        folded.add(join(head, near));
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return blobIds.size();
+    }
+
+    /** Closes the cached statements. Called on the database thread before the connection closes. */
+    void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        statements.clear();
+    }
+
+    private PreparedStatement statement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+}
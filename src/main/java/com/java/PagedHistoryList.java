@@ -0,0 +1,596 @@
+package com.java;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Virtualized, newest-first view of the history for the {@code ListView}. Ids load in chunks and items a page
+ * at a time into an LRU window bounded by a byte budget; unloaded items read as null. When keyed, e.g. by
+ * {@link Frecency}, rows are ordered by key, highest first. FX thread only.
+ */
+public class PagedHistoryList extends ObservableListBase<ClipboardItem> {
+
+    public static final int PAGE_SIZE = 100;
+    public static final int ID_CHUNK = 4096;
+    public static final long DEFAULT_BUDGET_BYTES = 32L * 1024 * 1024;
+    // Never evicted below this, so the rows on screen stay loaded even when the budget is tiny
+    private static final int MIN_WINDOW_ITEMS = 2 * PAGE_SIZE;
+    private static final long MIN_BUDGET_BYTES = 1024 * 1024;
+    // LinkedHashMap entry, boxed key and Resident
+    private static final int ENTRY_OVERHEAD = 40 + 16 + 24;
+
+    /** Fetches up to {@code limit} items with {@code id <= maxId}, newest first, and calls back on the FX thread. */
+    public interface PageLoader {
+        void loadPage(int maxId, int limit, Consumer<List<ClipboardItem>> callback);
+    }
+
+    /** Fetches the items with the given ids, in any order, and calls back on the FX thread. */
+    public interface ItemLoader {
+        void loadItems(int[] ids, Consumer<List<ClipboardItem>> callback);
+    }
+
+    /** Fetches up to {@code limit} ids below {@code belowId}, newest first, and calls back on the FX thread. */
+    public interface IdLoader {
+        void loadIds(int belowId, int limit, Consumer<int[]> callback);
+    }
+
+    private final PageLoader loader;
+    private final ItemLoader itemLoader;
+    private final IdLoader idLoader;
+    private final Set<Integer> pendingPages = new HashSet<>();
+    private long budgetBytes;
+    // Access ordered, so iteration starts at the least recently shown item
+    private final LinkedHashMap<Integer, Resident> window = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+
+    // Ascending, so new captures append; list index i maps to ids[size - 1 - i]
+    private int[] ids = new int[256];
+    private int size;
+    // Rows counted below the loaded ids, shown at indexes size and up; only when not keyed
+    private int unloaded;
+    // Indexes among them that asked for their ids
+    private final Set<Integer> waitingForIds = new HashSet<>();
+    private boolean idsPending;
+    // Bumped by every reset, so ids loaded for an earlier one are dropped
+    private int generation;
+    // When keyed: keys[i] belongs to ids[i] and the two ascend together, by key and then id
+    private double[] keys;
+    // When keyed: the index into ids of each id, offset by positionBase, or -1
+    private int[] positions;
+    private int positionBase;
+    private int newestId;
+
+    // Published after every change so metrics can read them from other threads
+    private volatile int windowItemCount;
+    private volatile long windowBytes;
+
+    public PagedHistoryList(PageLoader loader, ItemLoader itemLoader, IdLoader idLoader, long budgetBytes) {
+        this.loader = loader;
+        this.itemLoader = itemLoader;
+        this.idLoader = idLoader;
+        this.budgetBytes = Math.max(MIN_BUDGET_BYTES, budgetBytes);
+    }
+
+    /** Sets how many bytes of items may stay materialised, evicting the least recently used ones right away. */
+    public void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = Math.max(MIN_BUDGET_BYTES, budgetBytes);
+        evict();
+        updateWindowStats();
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    @Override
+    public ClipboardItem get(int index) {
+        if (index < 0 || index >= size + unloaded) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + (size + unloaded));
+        }
+        if (index >= size) {
+            waitingForIds.add(index);
+            requestIds();
+            return null;
+        }
+        Resident resident = window.get(idAt(index));
+        if (resident == null) {
+            requestPage(index);
+            return null;
+        }
+        return resident.item;
+    }
+
+    @Override
+    public int size() {
+        return size + unloaded;
+    }
+
+    public int getWindowItemCount() {
+        return windowItemCount;
+    }
+
+    /** Estimated heap held by the materialised items and their entries, see {@link ClipboardItem#estimateSize()}. */
+    public long getWindowBytes() {
+        return windowBytes;
+    }
+
+    /** Returns the item if it is currently materialised, without triggering a load. */
+    public ClipboardItem getCached(int id) {
+        Resident resident = window.get(id);
+        return resident != null ? resident.item : null;
+    }
+
+    /** Re-measures an item after its content was loaded, edited or released. */
+    public void resized(ClipboardItem item) {
+        Resident resident = window.get(item.getId());
+        if (resident == null || resident.item != item) {
+            return;
+        }
+        long bytes = ENTRY_OVERHEAD + item.estimateSize();
+        residentBytes += bytes - resident.bytes;
+        resident.bytes = bytes;
+        evict();
+        updateWindowStats();
+    }
+
+    /** Re-measures an item whose display changed and redraws its row. */
+    public void changed(ClipboardItem item) {
+        resized(item);
+        int index = indexOfId(item.getId());
+        if (index >= 0 && getCached(item.getId()) == item) {
+            beginChange();
+            nextSet(index, item);
+            endChange();
+        }
+    }
+
+    /** Returns the id of the newest item; the list must not be empty. */
+    public int getNewestId() {
+        return keys == null ? idAt(0) : newestId;
+    }
+
+    /** Returns true if the list is ordered by key rather than newest first. */
+    public boolean isKeyed() {
+        return keys != null;
+    }
+
+    /** Returns the key of a row, or NaN if the list is not keyed or has no such row. */
+    public double getKey(int id) {
+        int pos = keys == null ? -1 : positionOf(id);
+        return pos < 0 ? Double.NaN : keys[pos];
+    }
+
+    /** Replaces the contents with the given ids, which must be ascending, and preloads the newest page. */
+    public void reset(int[] sortedIds, List<ClipboardItem> firstPage) {
+        reset(sortedIds, null, firstPage);
+    }
+
+    /** Replaces the contents with {@code count} rows of which only the newest ids are given, ascending. */
+    public void reset(int count, int[] newestIds, List<ClipboardItem> firstPage) {
+        reset(newestIds, null, firstPage);
+        if (newestIds.length > 0 && count > newestIds.length) {
+            unloaded = count - newestIds.length;
+            beginChange();
+            nextAdd(size, size + unloaded);
+            endChange();
+        }
+    }
+
+    /** Replaces the contents and preloads the first page; with keys, ids and keys ascend together. */
+    public void reset(int[] sortedIds, double[] sortedKeys, List<ClipboardItem> firstPage) {
+        beginChange();
+        if (size + unloaded > 0) {
+            nextRemove(0, Collections.nCopies(size + unloaded, (ClipboardItem) null));
+        }
+        unloaded = 0;
+        waitingForIds.clear();
+        idsPending = false;
+        generation++;
+        ids = Arrays.copyOf(sortedIds, Math.max(256, sortedIds.length * 2));
+        size = sortedIds.length;
+        keys = sortedKeys != null ? Arrays.copyOf(sortedKeys, ids.length) : null;
+        if (keys != null) {
+            indexPositions();
+        } else {
+            positions = null;
+        }
+        clearWindow();
+        pendingPages.clear();
+        for (ClipboardItem item : firstPage) {
+            put(item);
+        }
+        evict();
+        if (size > 0) {
+            nextAdd(0, size);
+        }
+        endChange();
+        updateWindowStats();
+    }
+
+    public void addNewest(ClipboardItem item) {
+        add(item, Double.NaN);
+    }
+
+    /** Adds an item not in the list where its id, or its key if keyed, puts it. */
+    public void add(ClipboardItem item, double key) {
+        int pos = size;
+        if (keys != null) {
+            if (positionOf(item.getId()) >= 0) {
+                return;
+            }
+            pos = insertionPoint(key, item.getId());
+        } else if (size > 0 && ids[size - 1] > item.getId()) {
+            // An older row shown again, e.g. the version of a deleted item that takes its place
+            pos = Arrays.binarySearch(ids, 0, size, item.getId());
+            // Older than every loaded id, it comes with the ids still to be loaded
+            if (pos >= 0 || pos == -1 && unloaded > 0) {
+                return;
+            }
+            pos = -pos - 1;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            if (keys != null) {
+                keys = Arrays.copyOf(keys, ids.length);
+            }
+        }
+        System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+        ids[pos] = item.getId();
+        if (keys != null) {
+            System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+            keys[pos] = key;
+            newestId = Math.max(newestId, item.getId());
+        }
+        size++;
+        if (keys != null) {
+            updatePositions(pos, size);
+        }
+        put(item);
+        evict();
+        beginChange();
+        nextAdd(size - 1 - pos, size - pos);
+        endChange();
+        updateWindowStats();
+    }
+
+    /** Moves a row of a keyed list to where its new key puts it. Returns false if not keyed or absent. */
+    public boolean reorder(int id, double key) {
+        int from = keys == null ? -1 : positionOf(id);
+        if (from < 0) {
+            return false;
+        }
+        // Where it goes once taken out of its current place
+        int to = insertionPoint(key, id);
+        if (to > from) {
+            to--;
+            System.arraycopy(ids, from + 1, ids, from, to - from);
+            System.arraycopy(keys, from + 1, keys, from, to - from);
+        } else {
+            System.arraycopy(ids, to, ids, to + 1, from - to);
+            System.arraycopy(keys, to, keys, to + 1, from - to);
+        }
+        ids[to] = id;
+        keys[to] = key;
+        int low = Math.min(from, to);
+        int high = Math.max(from, to);
+        updatePositions(low, high + 1);
+        if (from != to) {
+            // A permutation keeps the selection on the row that moved
+            int first = size - 1 - high;
+            int[] permutation = new int[high - low + 1];
+            for (int pos = low; pos <= high; pos++) {
+                int oldPos = pos == to ? from : (to > from ? pos + 1 : pos - 1);
+                permutation[(size - 1 - oldPos) - first] = size - 1 - pos;
+            }
+            beginChange();
+            nextPermutation(first, first + permutation.length, permutation);
+            endChange();
+        }
+        return true;
+    }
+
+    public void removeIds(Collection<Integer> removed) {
+        if (keys != null) {
+            removeKeyed(removed);
+            return;
+        }
+        beginChange();
+        for (int id : removed) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                continue;
+            }
+            int index = size - 1 - pos;
+            nextRemove(index, removeResident(id));
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+        }
+        endChange();
+        updateWindowStats();
+    }
+
+    // Positions are looked up, removed rows reported in list order and the rest closed up in one pass
+    private void removeKeyed(Collection<Integer> removed) {
+        int[] gone = new int[removed.size()];
+        int count = 0;
+        for (int id : removed) {
+            int pos = positionOf(id);
+            if (pos >= 0) {
+                // Marked right away so an id listed twice is only removed once
+                positions[id - positionBase] = -1;
+                gone[count++] = pos;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        Arrays.sort(gone, 0, count);
+        beginChange();
+        for (int k = 0; k < count; k++) {
+            int pos = gone[count - 1 - k];
+            int id = ids[pos];
+            nextRemove(size - 1 - pos - k, removeResident(id));
+        }
+        endChange();
+        int write = gone[0];
+        boolean newestGone = false;
+        for (int read = gone[0], k = 0; read < size; read++) {
+            if (k < count && read == gone[k]) {
+                newestGone |= ids[read] == newestId;
+                k++;
+                continue;
+            }
+            ids[write] = ids[read];
+            keys[write] = keys[read];
+            write++;
+        }
+        size = write;
+        updatePositions(gone[0], size);
+        if (newestGone) {
+            newestId = 0;
+            for (int pos = 0; pos < size; pos++) {
+                newestId = Math.max(newestId, ids[pos]);
+            }
+        }
+        updateWindowStats();
+    }
+
+    @Override
+    public void clear() {
+        if (size + unloaded == 0) {
+            return;
+        }
+        beginChange();
+        nextRemove(0, Collections.nCopies(size + unloaded, (ClipboardItem) null));
+        size = 0;
+        unloaded = 0;
+        waitingForIds.clear();
+        idsPending = false;
+        generation++;
+        if (keys != null) {
+            Arrays.fill(positions, -1);
+            newestId = 0;
+        }
+        clearWindow();
+        endChange();
+        updateWindowStats();
+    }
+
+    private int idAt(int index) {
+        return ids[size - 1 - index];
+    }
+
+    private int indexOfId(int id) {
+        int pos = keys != null ? positionOf(id) : Arrays.binarySearch(ids, 0, size, id);
+        return pos < 0 ? -1 : size - 1 - pos;
+    }
+
+    private void requestPage(int index) {
+        // Pages are keyed by the id they start at, since indexes shift as items are captured or deleted
+        int start = index - index % PAGE_SIZE;
+        int anchor = idAt(start);
+        if (!pendingPages.add(anchor)) {
+            return;
+        }
+        Consumer<List<ClipboardItem>> onLoaded = items -> {
+            pendingPages.remove(anchor);
+            beginChange();
+            for (ClipboardItem item : items) {
+                int itemIndex = indexOfId(item.getId());
+                if (itemIndex >= 0 && !window.containsKey(item.getId())) {
+                    put(item);
+                    nextSet(itemIndex, null);
+                }
+            }
+            endChange();
+            evict();
+            updateWindowStats();
+        };
+        if (keys == null) {
+            loader.loadPage(anchor, PAGE_SIZE, onLoaded);
+            return;
+        }
+        // Keyed rows are not contiguous in any index, so the page asks for exactly the ids it shows
+        int end = Math.min(start + PAGE_SIZE, size);
+        int[] pageIds = new int[end - start];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (!window.containsKey(idAt(i))) {
+                pageIds[count++] = idAt(i);
+            }
+        }
+        itemLoader.loadItems(Arrays.copyOf(pageIds, count), onLoaded);
+    }
+
+    // One chunk at a time, reaching at least the furthest index waiting for its id
+    private void requestIds() {
+        if (idsPending || waitingForIds.isEmpty()) {
+            return;
+        }
+        idsPending = true;
+        int furthest = Collections.max(waitingForIds);
+        int limit = Math.max(ID_CHUNK, furthest - size + 1 + PAGE_SIZE);
+        int request = generation;
+        idLoader.loadIds(size > 0 ? ids[0] : Integer.MAX_VALUE, limit, older -> {
+            if (request != generation) {
+                return;
+            }
+            idsPending = false;
+            addOlder(older, limit);
+            for (Iterator<Integer> waiting = waitingForIds.iterator(); waiting.hasNext(); ) {
+                int index = waiting.next();
+                if (index >= size + unloaded) {
+                    waiting.remove();
+                } else if (index < size) {
+                    waiting.remove();
+                    requestPage(index);
+                }
+            }
+            requestIds();
+        });
+    }
+
+    // Older ids arrive newest first; a short chunk reaches the oldest row and settles the count
+    private void addOlder(int[] older, int limit) {
+        if (size + older.length > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(ids.length * 2, size + older.length));
+        }
+        System.arraycopy(ids, 0, ids, older.length, size);
+        for (int k = 0; k < older.length; k++) {
+            ids[older.length - 1 - k] = older[k];
+        }
+        int before = size + unloaded;
+        size += older.length;
+        unloaded = Math.max(0, unloaded - older.length);
+        beginChange();
+        if (older.length < limit) {
+            // Rows deleted or added after the count was taken
+            if (unloaded > 0) {
+                nextRemove(size, Collections.nCopies(unloaded, (ClipboardItem) null));
+                unloaded = 0;
+            } else if (size > before) {
+                nextAdd(before, size);
+            }
+        } else if (size > before) {
+            nextAdd(before, size);
+            // There may be more rows than counted
+            unloaded = 1;
+            nextAdd(size, size + 1);
+        }
+        endChange();
+    }
+
+    // First position whose row sorts after (key, id)
+    private int insertionPoint(double key, int id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int order = Double.compare(keys[mid], key);
+            if (order < 0 || order == 0 && ids[mid] < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int positionOf(int id) {
+        int slot = id - positionBase;
+        return slot >= 0 && slot < positions.length ? positions[slot] : -1;
+    }
+
+    // Sized to the span of ids, which retention keeps close to the number of rows
+    private void indexPositions() {
+        int lowest = Integer.MAX_VALUE;
+        newestId = 0;
+        for (int pos = 0; pos < size; pos++) {
+            lowest = Math.min(lowest, ids[pos]);
+            newestId = Math.max(newestId, ids[pos]);
+        }
+        positionBase = size == 0 ? 0 : lowest;
+        positions = new int[size == 0 ? 256 : newestId - lowest + 257];
+        Arrays.fill(positions, -1);
+        updatePositions(0, size);
+    }
+
+    private void updatePositions(int from, int to) {
+        for (int pos = from; pos < to; pos++) {
+            int slot = ids[pos] - positionBase;
+            if (slot < 0) {
+                indexPositionsBelow(ids[pos]);
+                slot = ids[pos] - positionBase;
+            } else if (slot >= positions.length) {
+                int length = positions.length;
+                positions = Arrays.copyOf(positions, Math.max(slot + 1, length * 2));
+                Arrays.fill(positions, length, positions.length, -1);
+            }
+            positions[slot] = pos;
+        }
+    }
+
+    // Only happens for an id below every id seen since the last reset, which new rows never have
+    private void indexPositionsBelow(int id) {
+        int shift = positionBase - id;
+        int[] shifted = new int[positions.length + shift];
+        Arrays.fill(shifted, 0, shift, -1);
+        System.arraycopy(positions, 0, shifted, shift, positions.length);
+        positions = shifted;
+        positionBase = id;
+    }
+
+    private void put(ClipboardItem item) {
+        Resident resident = new Resident(item, ENTRY_OVERHEAD + item.estimateSize());
+        Resident previous = window.put(item.getId(), resident);
+        residentBytes += resident.bytes - (previous != null ? previous.bytes : 0);
+    }
+
+    private ClipboardItem removeResident(int id) {
+        Resident resident = window.remove(id);
+        if (resident == null) {
+            return null;
+        }
+        residentBytes -= resident.bytes;
+        return resident.item;
+    }
+
+    private void clearWindow() {
+        window.clear();
+        residentBytes = 0;
+    }
+
+    // Evicted rows are not reported as changes: they read as null and reload if the list asks for them again
+    private void evict() {
+        Iterator<Resident> residents = window.values().iterator();
+        while (residentBytes > budgetBytes && window.size() > MIN_WINDOW_ITEMS && residents.hasNext()) {
+            residentBytes -= residents.next().bytes;
+            residents.remove();
+        }
+    }
+
+    private void updateWindowStats() {
+        windowItemCount = window.size();
+        windowBytes = residentBytes;
+    }
+
+    // The size is remembered per entry, so eviction subtracts exactly what was added even if the item changed since
+    private static final class Resident {
+        final ClipboardItem item;
+        long bytes;
+
+        Resident(ClipboardItem item, long bytes) {
+            this.item = item;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.java;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small set of read-only SQLite connections, one per worker thread, that serve searches, paging and
+ * exports next to the single writer connection. The database runs in WAL mode, so a reader sees the last
+ * committed snapshot without waiting on the writer, the writer never waits on readers, and readers run in
+ * parallel with each other.
+ */
+public class ReaderPool {
+
+    /** A query run on one of the pool's connections. */
+    public interface Query<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    private final String databasePath;
+    private final ContentCodec codec;
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<Connection> connection = new ThreadLocal<>();
+    private final List<Connection> opened = new ArrayList<>();
+
+    public ReaderPool(String databasePath, ContentCodec codec, int size) {
+        this.databasePath = databasePath;
+        this.codec = codec;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "db-reader-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the query on the next free reader. The future completes on that reader's thread; a query still
+     * queued when its future is cancelled is skipped.
+     */
+    public <T> CompletableFuture<T> submit(Query<T> query) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(query.run(connection()));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Lets queued queries finish, then closes every connection. Blocks until done.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (opened) {
+            for (Connection reader : opened) {
+                try {
+                    reader.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            opened.clear();
+        }
+    }
+
+    // Opened on first use, once the writer has created the schema and switched the file to WAL
+    private Connection connection() throws SQLException {
+        Connection reader = connection.get();
+        if (reader == null) {
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            config.setBusyTimeout(5000);
+            reader = DriverManager.getConnection("jdbc:sqlite:" + databasePath, config.toProperties());
+            codec.register(reader);
+            connection.set(reader);
+            synchronized (opened) {
+                opened.add(reader);
+            }
+        }
+        return reader;
+    }
+}
@@ -0,0 +1,189 @@
+package com.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * One clipboard value in whichever format it was copied: plain text, HTML with its plain-text form, an image
+ * as ARGB pixels, or a list of files. Every kind has a text form, which is what the history stores, shows
+ * and searches: the text itself, the paths of the files, or a label such as "Image 1920 × 1080" for an image.
+ * The HTML markup and the image are kept out of the database, in the {@link BlobStore}.
+ *
+ * <p>{@link #getHash()} identifies the value for deduplication and is the plain {@link ContentHash} of the
+ * text for text, so text items hash as they always did. Immutable apart from the lazily computed hash.
+ */
+public final class RichContent {
+
+    /** The format of an item; the code is what the {@code blobs.kind} column stores. */
+    public enum Kind {
+        TEXT(0), HTML(1), IMAGE(2), FILES(3);
+
+        private final int code;
+
+        Kind(int code) {
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public static Kind of(int code) {
+            for (Kind kind : values()) {
+                if (kind.code == code) {
+                    return kind;
+                }
+            }
+            return TEXT;
+        }
+    }
+
+    private static final Pattern HIDDEN_ELEMENTS = Pattern.compile("(?is)<(script|style|head)\\b.*?</\\1\\s*>");
+    private static final Pattern LINE_BREAKS = Pattern.compile("(?i)<(br|/p|/div|/li|/tr|/h[1-6])\\b[^>]*>");
+    private static final Pattern TAGS = Pattern.compile("(?s)<[^>]*>");
+
+    private final Kind kind;
+    private final String text;
+    private final String html;
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final long fingerprint;
+    private long hash;
+    private boolean hashed;
+
+    private RichContent(Kind kind, String text, String html, int width, int height, int[] pixels, long fingerprint) {
+        this.kind = kind;
+        this.text = text;
+        this.html = html;
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.fingerprint = fingerprint;
+    }
+
+    public static RichContent text(String text) {
+        return new RichContent(Kind.TEXT, text, null, 0, 0, null, textFingerprint(text));
+    }
+
+    /**
+     * @param text the plain-text form the application offered alongside, or null to derive it from the markup
+     */
+    public static RichContent html(String text, String html) {
+        String plain = text != null ? text : htmlToText(html);
+        return new RichContent(Kind.HTML, plain, html, 0, 0, null, textFingerprint(plain) * 31 + html.hashCode());
+    }
+
+    /**
+     * @param argb the pixels, row by row, as non-premultiplied ARGB; not copied
+     * @param fingerprint a cheap value that changes when the image does, such as {@link #sample}; only used
+     *                    to notice changes while polling
+     */
+    public static RichContent image(int width, int height, int[] argb, long fingerprint) {
+        return new RichContent(Kind.IMAGE, imageLabel(width, height), null, width, height, argb, fingerprint);
+    }
+
+    public static RichContent image(int width, int height, int[] argb) {
+        return image(width, height, argb, sample(width, height, argb));
+    }
+
+    /** Absolute paths, one per line in the text form. */
+    public static RichContent files(List<String> paths) {
+        String text = String.join("\n", paths);
+        return new RichContent(Kind.FILES, text, null, 0, 0, null, textFingerprint(text) * 31 + Kind.FILES.code);
+    }
+
+    public static String imageLabel(int width, int height) {
+        return "Image " + width + " × " + height;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /** The markup of HTML content, otherwise null. */
+    public String getHtml() {
+        return html;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** The pixels of an image, otherwise null. Callers must not modify them. */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public List<String> getFiles() {
+        return kind == Kind.FILES ? Arrays.asList(text.split("\n")) : new ArrayList<>();
+    }
+
+    /**
+     * Changes whenever the content does, at a fraction of the cost of {@link #getHash()}; for an image it only
+     * covers a sample of the pixels. Two values of different kinds may share one.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * The full hash, stored as {@code blobs.hash}. Hashing an image walks every pixel, so do it off the UI thread.
+     */
+    public synchronized long getHash() {
+        if (!hashed) {
+            switch (kind) {
+                case HTML:
+                    hash = ContentHash.combine(ContentHash.combine(ContentHash.of(text), ContentHash.of(html)), kind.code);
+                    break;
+                case IMAGE:
+                    hash = ContentHash.combine(ContentHash.of(width, height, pixels), kind.code);
+                    break;
+                case FILES:
+                    hash = ContentHash.combine(ContentHash.of(text), kind.code);
+                    break;
+                default:
+                    hash = ContentHash.of(text);
+            }
+            hashed = true;
+        }
+        return hash;
+    }
+
+    /** Hashes the size and a grid of up to 16 × 16 pixels. */
+    public static long sample(int width, int height, int[] argb) {
+        long sample = ((long) width << 32) | height;
+        int stepX = Math.max(1, width / 16);
+        int stepY = Math.max(1, height / 16);
+        for (int y = stepY / 2; y < height; y += stepY) {
+            for (int x = stepX / 2; x < width; x += stepX) {
+                sample = sample * 31 + argb[y * width + x];
+            }
+        }
+        return sample;
+    }
+
+    // Same length-and-hashCode check the poller has always used for text
+    private static long textFingerprint(String text) {
+        return ((long) text.length() << 32) ^ (text.hashCode() & 0xffffffffL);
+    }
+
+    /** A rough plain-text form of markup, for HTML copied without one. */
+    static String htmlToText(String html) {
+        String text = HIDDEN_ELEMENTS.matcher(html).replaceAll("");
+        text = LINE_BREAKS.matcher(text).replaceAll("\n");
+        text = TAGS.matcher(text).replaceAll("");
+        return text.replace("&nbsp;", " ").replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&#39;", "'").replace("&amp;", "&").strip();
+    }
+}
@@ -0,0 +1,133 @@
+package com.java;
+
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs searches off the JavaFX Application Thread. Keystrokes are debounced, a newer query cancels
+ * the one in flight, and results are applied to the visible list as a minimal diff on the manager's UI
+ * executor.
+ */
+public class SearchPipeline {
+
+    private static final long DEBOUNCE_MS = 120;
+
+    private final ClipboardManager clipboardManager;
+    private final PagedHistoryList clipboardHistory;
+    private final ObservableList<ClipboardItem> results;
+    private final Executor uiExecutor;
+    private final int limit;
+    private final AtomicLong generation = new AtomicLong();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "search-debounce");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> pending;
+
+    // Snapshot of what the visible list holds, read by the worker when diffing
+    private volatile List<ClipboardItem> shown = new ArrayList<>();
+
+    public SearchPipeline(ClipboardManager clipboardManager, int limit) {
+        this(clipboardManager, clipboardManager.getUiExecutor(), limit);
+    }
+
+    /**
+     * @param uiExecutor the thread that owns the manager's lists, where results are applied
+     */
+    SearchPipeline(ClipboardManager clipboardManager, Executor uiExecutor, int limit) {
+        this.clipboardManager = clipboardManager;
+        this.clipboardHistory = clipboardManager.getHistory();
+        this.results = clipboardManager.getSearchResults();
+        this.uiExecutor = uiExecutor;
+        this.limit = limit;
+    }
+
+    /**
+     * Schedules a search for the given text. Must be called on the JavaFX Application Thread;
+     * it only bumps a counter and reschedules, so it never blocks input.
+     */
+    public void submit(String query) {
+        long token = generation.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        clipboardManager.cancelSearch();
+
+        // The diff is computed on the reader thread that ran the query; publish makes the single hop to the UI thread
+        pending = scheduler.schedule(() -> clipboardManager.search(query, limit, () -> generation.get() != token)
+                .thenAccept(found -> publish(token, found)), DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drops any pending or running query and empties the results. Called when the search box is cleared.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        clipboardManager.cancelSearch();
+        results.clear();
+        shown = new ArrayList<>();
+    }
+
+    /** Stops the debounce timer; no searches run afterwards. */
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void publish(long token, List<ClipboardItem> found) {
+        List<ListDiff.Edit> edits = ListDiff.compute(shown, found);
+        uiExecutor.execute(() -> {
+            if (generation.get() != token) {
+                return;
+            }
+            // The visible list may have lost items to deletes since the snapshot was taken
+            if (!sameIds(results, shown)) {
+                results.setAll(canonicalize(found));
+            } else {
+                for (ListDiff.Edit edit : edits) {
+                    if (edit.getRemoveCount() > 0) {
+                        results.remove(edit.getIndex(), edit.getIndex() + edit.getRemoveCount());
+                    }
+                    if (!edit.getInserted().isEmpty()) {
+                        results.addAll(edit.getIndex(), canonicalize(edit.getInserted()));
+                    }
+                }
+            }
+            shown = new ArrayList<>(results);
+        });
+    }
+
+    // Reuse the in-memory instances so edits and deletes apply to both lists
+    private List<ClipboardItem> canonicalize(List<ClipboardItem> items) {
+        List<ClipboardItem> canonical = new ArrayList<>(items.size());
+        for (ClipboardItem item : items) {
+            ClipboardItem loaded = clipboardHistory.getCached(item.getId());
+            canonical.add(loaded != null ? loaded : item);
+        }
+        return canonical;
+    }
+
+    private static boolean sameIds(List<ClipboardItem> a, List<ClipboardItem> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i).getId() != b.get(i).getId()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -9,6 +9,7 @@ import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Spinner;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.stage.Modality;
@@ -17,12 +18,21 @@ import javafx.stage.Stage;
 public class SettingsDialog extends Stage {
 
     private final SettingsManager settingsManager;
+    private final ClipboardManager clipboardManager;
     private final CheckBox alwaysOnTopBox;
     private final Spinner<Integer> historySizeSpinner;
+    private final Spinner<Integer> largeItemSpinner;
+    private final Spinner<Integer> captureMaxSpinner;
     private final ComboBox<String> themeComboBox;
+    private final ComboBox<String> orderComboBox;
+    private final Spinner<Integer> retentionRowsSpinner;
+    private final Spinner<Integer> retentionSizeSpinner;
+    private final Spinner<Integer> retentionAgeSpinner;
+    private final Label retentionReportLabel;
 
-    public SettingsDialog(Stage owner, SettingsManager manager) {
+    public SettingsDialog(Stage owner, SettingsManager manager, ClipboardManager clipboardManager) {
         this.settingsManager = manager;
+        this.clipboardManager = clipboardManager;
 
         initOwner(owner);
         initModality(Modality.APPLICATION_MODAL);
@@ -40,6 +50,13 @@ public class SettingsDialog extends Stage {
         grid.add(themeLabel, 0, 0);
         grid.add(themeComboBox, 1, 0);
 
+        // --- Newest first, or most used first by copy-back count and recency ---
+        Label orderLabel = new Label("List Order:");
+        orderComboBox = new ComboBox<>(FXCollections.observableArrayList("Recent", "Frequent"));
+        orderComboBox.setValue(settingsManager.getHistoryOrderName());
+        grid.add(orderLabel, 0, 9);
+        grid.add(orderComboBox, 1, 9);
+
         // --- Always on Top ---
         Label alwaysOnTopLabel = new Label("Always on Top:");
         alwaysOnTopBox = new CheckBox();
@@ -47,12 +64,65 @@ public class SettingsDialog extends Stage {
         grid.add(alwaysOnTopLabel, 0, 1);
         grid.add(alwaysOnTopBox, 1, 1);
 
-        // --- Max History Size ---
-        Label historySizeLabel = new Label("Max History Size:");
-        historySizeSpinner = new Spinner<>(10, 200, settingsManager.getMaxHistorySize(), 10);
+        // --- In-memory window (the list itself pages through the whole database) ---
+        Label historySizeLabel = new Label("History Memory (MB):");
+        historySizeSpinner = new Spinner<>(1, 4096, settingsManager.getHistoryMemoryMb(), 8);
+        historySizeSpinner.setEditable(true);
         grid.add(historySizeLabel, 0, 2);
         grid.add(historySizeSpinner, 1, 2);
 
+        // --- Items at or above this size are stored out of line and shown as a preview ---
+        Label largeItemLabel = new Label("Large Item Threshold (KB):");
+        largeItemSpinner = new Spinner<>(4, 100_000, settingsManager.getLargeItemThresholdKb(), 16);
+        largeItemSpinner.setEditable(true);
+        grid.add(largeItemLabel, 0, 3);
+        grid.add(largeItemSpinner, 1, 3);
+
+        // --- Larger copies are not captured at all (0 = unlimited); rules live in config.properties ---
+        Label captureMaxLabel = new Label("Max Capture Size (KB):");
+        captureMaxSpinner = new Spinner<>(0, 1_000_000, settingsManager.getCaptureMaxKb(), 1024);
+        captureMaxSpinner.setEditable(true);
+        grid.add(captureMaxLabel, 0, 4);
+        grid.add(captureMaxSpinner, 1, 4);
+
+        // --- Retention (0 = unlimited) ---
+        Label retentionRowsLabel = new Label("Keep at Most (items):");
+        retentionRowsSpinner = new Spinner<>(0, 10_000_000, settingsManager.getRetentionMaxRows(), 1000);
+        retentionRowsSpinner.setEditable(true);
+        grid.add(retentionRowsLabel, 0, 5);
+        grid.add(retentionRowsSpinner, 1, 5);
+
+        Label retentionSizeLabel = new Label("Max Database Size (MB):");
+        retentionSizeSpinner = new Spinner<>(0, 100_000, settingsManager.getRetentionMaxSizeMb(), 64);
+        retentionSizeSpinner.setEditable(true);
+        grid.add(retentionSizeLabel, 0, 6);
+        grid.add(retentionSizeSpinner, 1, 6);
+
+        Label retentionAgeLabel = new Label("Max Age (days):");
+        retentionAgeSpinner = new Spinner<>(0, 36_500, settingsManager.getRetentionMaxAgeDays(), 1);
+        retentionAgeSpinner.setEditable(true);
+        grid.add(retentionAgeLabel, 0, 7);
+        grid.add(retentionAgeSpinner, 1, 7);
+
+        Button compactButton = new Button("Compact Now");
+        compactButton.setTooltip(new Tooltip("Applies the limits now and shrinks the database file. "
+                + "The first time, this rebuilds the database, which can take a while."));
+        HistoryRetention.Report lastReport = clipboardManager.getLastRetentionReport();
+        retentionReportLabel = new Label(lastReport != null ? "Last run: " + lastReport : "");
+        retentionReportLabel.setWrapText(true);
+        retentionReportLabel.setMaxWidth(260);
+        compactButton.setOnAction(e -> {
+            applySettings();
+            compactButton.setDisable(true);
+            retentionReportLabel.setText("Compacting...");
+            clipboardManager.compactDatabase(report -> {
+                compactButton.setDisable(false);
+                retentionReportLabel.setText("Last run: " + report);
+            });
+        });
+        grid.add(compactButton, 0, 8);
+        grid.add(retentionReportLabel, 1, 8);
+
         // --- Save/Cancel ---
         Button saveButton = new Button("Save");
         saveButton.setOnAction(e -> saveAndClose());
@@ -62,17 +132,31 @@ public class SettingsDialog extends Stage {
 
         HBox buttonBox = new HBox(10, saveButton, cancelButton);
         buttonBox.setAlignment(Pos.CENTER_RIGHT);
-        grid.add(buttonBox, 1, 3);
+        grid.add(buttonBox, 1, 10);
 
         Scene scene = new Scene(grid);
         setScene(scene);
     }
 
     private void saveAndClose() {
+        applySettings();
+        close();
+    }
+
+    private void applySettings() {
         settingsManager.setTheme(themeComboBox.getValue());
+        settingsManager.setHistoryOrderName(orderComboBox.getValue());
         settingsManager.setAlwaysOnTop(alwaysOnTopBox.isSelected());
-        settingsManager.setMaxHistorySize(historySizeSpinner.getValue());
+        settingsManager.setHistoryMemoryMb(historySizeSpinner.getValue());
+        settingsManager.setLargeItemThresholdKb(largeItemSpinner.getValue());
+        settingsManager.setCaptureMaxKb(captureMaxSpinner.getValue());
+        settingsManager.setRetentionMaxRows(retentionRowsSpinner.getValue());
+        settingsManager.setRetentionMaxSizeMb(retentionSizeSpinner.getValue());
+        settingsManager.setRetentionMaxAgeDays(retentionAgeSpinner.getValue());
         settingsManager.saveSettings();
-        close();
+        clipboardManager.setRetentionPolicy(settingsManager.getRetentionPolicy());
+        clipboardManager.setLargePayloadThreshold(settingsManager.getLargeItemThresholdKb() * 1024);
+        clipboardManager.setCaptureRules(settingsManager.getCaptureRules(), settingsManager.getCaptureMaxKb() * 1024);
+        clipboardManager.setHistoryOrder(settingsManager.getHistoryOrder());
     }
 }
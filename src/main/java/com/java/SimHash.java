@@ -0,0 +1,150 @@
+package com.java;
+
+/**
+ * 64-bit SimHash of clipboard text, a fingerprint that changes by only a few bits when the text changes a
+ * little. Features are pairs of adjacent tokens, a token being a run of letters or digits, lowercased, or a
+ * single other character, and whitespace only separating them. So the same text with other indentation,
+ * line breaks or trailing spaces, or JSON formatted another way, gets the same fingerprint, and changing a
+ * line only touches the features around it. Each distinct feature counts once, so two long texts made of
+ * the same words in another order, like two logs of the same program, are not taken for each other.
+ *
+ * <p>Two fingerprints within {@link #MAX_DISTANCE} bits of each other agree exactly on at least one of
+ * {@link #BANDS} bit ranges, so near duplicates are found by looking each range up in an index instead of
+ * comparing against every row.
+ */
+public final class SimHash {
+
+    /** The most bits in which two fingerprints of near-identical text differ. */
+    public static final int MAX_DISTANCE = 5;
+    /** One more than {@link #MAX_DISTANCE}, so some band of a near duplicate always matches. */
+    public static final int BANDS = MAX_DISTANCE + 1;
+    /** No fingerprint: there was no text to take one of. */
+    public static final long NONE = 0;
+    // Only the start of very large copies is read; two of them that agree that far are alike enough
+    static final int MAX_CHARS = 64 * 1024;
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private SimHash() {
+    }
+
+    public static long of(String text) {
+        int limit = Math.min(text.length(), MAX_CHARS);
+        int[] counts = new int[64];
+        FeatureSet seen = new FeatureSet(limit);
+        int features = 0;
+        int tokens = 0;
+        long previous = 0;
+        long token = OFFSET_BASIS;
+        boolean inWord = false;
+        for (int i = 0; i <= limit; i++) {
+            char c = i < limit ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token = (token ^ Character.toLowerCase(c)) * PRIME;
+                inWord = true;
+                continue;
+            }
+            long next;
+            if (inWord) {
+                next = token;
+                token = OFFSET_BASIS;
+                inWord = false;
+                // The character that ended the word is a token of its own, taken on the next pass
+                i--;
+            } else if (!Character.isWhitespace(c)) {
+                next = (OFFSET_BASIS ^ c) * PRIME;
+            } else {
+                continue;
+            }
+            if (tokens++ > 0) {
+                long feature = mix(previous * PRIME + next);
+                if (seen.add(feature)) {
+                    add(counts, feature);
+                    features++;
+                }
+            }
+            previous = next;
+        }
+        if (tokens == 1) {
+            add(counts, mix(previous));
+            features = 1;
+        }
+        if (features == 0) {
+            return NONE;
+        }
+        long hash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (2 * counts[bit] > features) {
+                hash |= 1L << bit;
+            }
+        }
+        // Rare, but NONE is taken; one bit off still groups it with its neighbours
+        return hash == NONE ? 1 : hash;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /** The value of a fingerprint in one band, as {@link #bandSql} computes it in SQLite. */
+    public static int band(long hash, int band) {
+        return (int) ((hash >>> bandShift(band)) & bandMask(band));
+    }
+
+    /** A SQL expression for the band of the fingerprint in {@code column}, matching the band indexes. */
+    static String bandSql(String column, int band) {
+        return "((" + column + " >> " + bandShift(band) + ") & " + bandMask(band) + ")";
+    }
+
+    // 64 bits in six bands: four of 11 bits and two of 10
+    private static int bandShift(int band) {
+        return band * 11 - Math.max(0, band - 4);
+    }
+
+    private static long bandMask(int band) {
+        return (1L << (band < 4 ? 11 : 10)) - 1;
+    }
+
+    private static void add(int[] counts, long feature) {
+        for (int bit = 0; bit < 64; bit++) {
+            counts[bit] += (int) (feature >>> bit) & 1;
+        }
+    }
+
+    // Open addressing over the mixed feature hashes, which are spread well enough to index by their low bits
+    private static final class FeatureSet {
+        private final long[] slots;
+        private boolean hasZero;
+
+        FeatureSet(int chars) {
+            // There is at most one feature per char, so a slot is always free
+            slots = new long[Integer.highestOneBit(Math.max(16, chars)) << 1];
+        }
+
+        boolean add(long feature) {
+            if (feature == 0) {
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            int mask = slots.length - 1;
+            for (int slot = (int) feature & mask; ; slot = (slot + 1) & mask) {
+                if (slots[slot] == feature) {
+                    return false;
+                }
+                if (slots[slot] == 0) {
+                    slots[slot] = feature;
+                    return true;
+                }
+            }
+        }
+    }
+
+    // Spreads the feature hash over all 64 bits, each of which votes on its own
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
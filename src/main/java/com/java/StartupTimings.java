@@ -0,0 +1,44 @@
+package com.java;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Milestones of the current launch, measured from JVM start. Each one is also emitted as a
+ * {@link DiagnosticEvents.StartupPhase JFR event}. Safe to call from any thread.
+ */
+public final class StartupTimings {
+
+    private static final long START_MILLIS = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli).orElse(System.currentTimeMillis());
+    private static final List<String> phases = new ArrayList<>();
+    private static final List<Long> elapsed = new ArrayList<>();
+
+    private StartupTimings() {
+    }
+
+    public static synchronized void mark(String phase) {
+        long now = System.currentTimeMillis() - START_MILLIS;
+        long previous = elapsed.isEmpty() ? 0 : elapsed.get(elapsed.size() - 1);
+        phases.add(phase);
+        elapsed.add(now);
+
+        DiagnosticEvents.StartupPhase event = new DiagnosticEvents.StartupPhase();
+        event.phase = phase;
+        event.sinceJvmStart = now;
+        event.sincePrevious = now - previous;
+        event.commit();
+    }
+
+    /** One line per phase: milliseconds since JVM start and since the previous phase. */
+    public static synchronized String report() {
+        StringBuilder report = new StringBuilder();
+        long previous = 0;
+        for (int i = 0; i < phases.size(); i++) {
+            report.append(String.format("  %-18s %6d ms  (+%d ms)%n", phases.get(i), elapsed.get(i), elapsed.get(i) - previous));
+            previous = elapsed.get(i);
+        }
+        return report.toString();
+    }
+}
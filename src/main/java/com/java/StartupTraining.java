@@ -0,0 +1,39 @@
+package com.java;
+
+import java.awt.GraphicsEnvironment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Training run for the AppCDS archive built by {@code mvn -P cds package}. It runs the startup path against
+ * a scratch database in the working directory so the classes it loads are recorded, then, when a display is
+ * available, launches the real UI with {@link Main#EXIT_AFTER_STARTUP} set.
+ */
+public class StartupTraining {
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createDirectories(Path.of("training"));
+        ClipboardManager manager = new ClipboardManager(PagedHistoryList.DEFAULT_BUDGET_BYTES, directory.resolve("clipboard.db").toString(), Runnable::run,
+                new SyntheticClipboardSource());
+        manager.reloadHistory().get();
+        manager.getMetrics().register();
+
+        CountDownLatch saved = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            String content = "training item " + i + " " + "lorem ipsum dolor sit amet ".repeat(i * 10);
+            manager.saveToDatabase(content, ContentHash.of(content), (item, replaced) -> saved.countDown());
+        }
+        saved.await(10, TimeUnit.SECONDS);
+        manager.search("lorem ipsum", 50, () -> false).get(10, TimeUnit.SECONDS);
+        manager.shutdown();
+
+        if (GraphicsEnvironment.isHeadless()) {
+            System.out.println("No display, archived the headless startup path only");
+            System.exit(0);
+        }
+        System.setProperty(Main.EXIT_AFTER_STARTUP, "true");
+        Main.main(args);
+    }
+}
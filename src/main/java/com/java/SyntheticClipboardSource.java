@@ -0,0 +1,50 @@
+package com.java;
+
+/**
+ * An in-memory clipboard for driving capture headlessly, from a script or a load generator. Safe to
+ * write from any thread. It counts values that were replaced before anyone read them, which are copies
+ * a poller cannot have seen.
+ */
+public class SyntheticClipboardSource implements ClipboardSource {
+
+    private RichContent content;
+    private boolean read = true;
+    private long writes;
+    private long overwrittenUnread;
+
+    @Override
+    public synchronized String readText() {
+        read = true;
+        return content != null ? content.getText() : null;
+    }
+
+    @Override
+    public void writeText(String text) {
+        writeContent(RichContent.text(text));
+    }
+
+    @Override
+    public synchronized RichContent readContent() {
+        read = true;
+        return content;
+    }
+
+    @Override
+    public synchronized void writeContent(RichContent content) {
+        if (!read) {
+            overwrittenUnread++;
+        }
+        this.content = content;
+        read = false;
+        writes++;
+    }
+
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    /** Writes replaced by the next one before the clipboard was read again. */
+    public synchronized long getOverwrittenUnread() {
+        return overwrittenUnread;
+    }
+}
@@ -0,0 +1,136 @@
+package com.java;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.DataFormat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The system clipboard through JavaFX. Must only be used on the JavaFX Application Thread.
+ *
+ * <p>Files win over everything else, and HTML over plain text. An image is only taken when there is no text,
+ * since applications that offer both usually mean the text. Fetching an image converts the whole bitmap, so
+ * while the clipboard keeps offering the same formats it is fetched again at most every
+ * {@link #IMAGE_RECHECK_MS}, and its pixels are only copied out when a sample of them has changed.
+ */
+public class SystemClipboardSource implements ClipboardSource {
+
+    static final long IMAGE_RECHECK_MS = 1000;
+
+    private Set<DataFormat> lastTypes;
+    private RichContent lastImage;
+    private long lastImageCheckNanos;
+
+    @Override
+    public String readText() {
+        Clipboard clipboard = Clipboard.getSystemClipboard();
+        return clipboard.hasString() ? clipboard.getString() : null;
+    }
+
+    @Override
+    public void writeText(String text) {
+        ClipboardContent content = new ClipboardContent();
+        content.putString(text);
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
+    @Override
+    public RichContent readContent() {
+        Clipboard clipboard = Clipboard.getSystemClipboard();
+        Set<DataFormat> types = clipboard.getContentTypes();
+        boolean typesChanged = !types.equals(lastTypes);
+        lastTypes = types;
+        if (clipboard.hasFiles()) {
+            List<String> paths = new ArrayList<>();
+            for (File file : clipboard.getFiles()) {
+                paths.add(file.getAbsolutePath());
+            }
+            if (!paths.isEmpty()) {
+                return RichContent.files(paths);
+            }
+        }
+        String text = clipboard.hasString() ? clipboard.getString() : null;
+        if (text == null && clipboard.hasImage()) {
+            return readImage(clipboard, typesChanged);
+        }
+        lastImage = null;
+        if (clipboard.hasHtml()) {
+            String html = clipboard.getHtml();
+            if (html != null && !html.isBlank()) {
+                return RichContent.html(text, html);
+            }
+        }
+        return text != null ? RichContent.text(text) : null;
+    }
+
+    private RichContent readImage(Clipboard clipboard, boolean typesChanged) {
+        long now = System.nanoTime();
+        if (!typesChanged && lastImage != null && (now - lastImageCheckNanos) / 1_000_000 < IMAGE_RECHECK_MS) {
+            return lastImage;
+        }
+        lastImageCheckNanos = now;
+        Image image = clipboard.getImage();
+        PixelReader reader = image != null ? image.getPixelReader() : null;
+        if (reader == null) {
+            return lastImage;
+        }
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        long sample = sample(reader, width, height);
+        if (lastImage == null || lastImage.getFingerprint() != sample) {
+            int[] argb = new int[width * height];
+            reader.getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, 0, width);
+            lastImage = RichContent.image(width, height, argb, sample);
+        }
+        return lastImage;
+    }
+
+    // Reads only the pixels RichContent.sample looks at
+    private static long sample(PixelReader reader, int width, int height) {
+        long sample = ((long) width << 32) | height;
+        int stepX = Math.max(1, width / 16);
+        int stepY = Math.max(1, height / 16);
+        for (int y = stepY / 2; y < height; y += stepY) {
+            for (int x = stepX / 2; x < width; x += stepX) {
+                sample = sample * 31 + reader.getArgb(x, y);
+            }
+        }
+        return sample;
+    }
+
+    @Override
+    public void writeContent(RichContent rich) {
+        ClipboardContent content = new ClipboardContent();
+        switch (rich.getKind()) {
+            case IMAGE:
+                WritableImage image = new WritableImage(rich.getWidth(), rich.getHeight());
+                image.getPixelWriter().setPixels(0, 0, rich.getWidth(), rich.getHeight(),
+                        PixelFormat.getIntArgbInstance(), rich.getPixels(), 0, rich.getWidth());
+                content.putImage(image);
+                break;
+            case FILES:
+                List<File> files = new ArrayList<>();
+                for (String path : rich.getFiles()) {
+                    files.add(new File(path));
+                }
+                content.putFiles(files);
+                content.putString(rich.getText());
+                break;
+            case HTML:
+                content.putHtml(rich.getHtml());
+                content.putString(rich.getText());
+                break;
+            default:
+                content.putString(rich.getText());
+        }
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+}
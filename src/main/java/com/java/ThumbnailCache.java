@@ -0,0 +1,119 @@
+package com.java;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Small previews of image items for the history cells. Decoding runs on a pool of {@link #WORKERS} daemon
+ * threads, so scrolling past screenshots never decodes on the JavaFX Application Thread, and the results are
+ * kept in a least-recently-used cache of at most {@link #BUDGET_BYTES}. Requests for an image already being
+ * decoded wait for that decode instead of starting another. Everything but the decoding happens on the UI
+ * executor, so the cache itself needs no locking.
+ */
+public class ThumbnailCache {
+
+    public static final int MAX_WIDTH = 240;
+    public static final int MAX_HEIGHT = 120;
+    static final int WORKERS = 2;
+    static final long BUDGET_BYTES = 16L << 20;
+
+    private final BlobStore blobStore;
+    private final Executor uiExecutor;
+    private final Metrics metrics;
+    private final ExecutorService workers;
+    private final LinkedHashMap<String, Image> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, List<Consumer<Image>>> decoding = new HashMap<>();
+    private long cachedBytes;
+
+    public ThumbnailCache(BlobStore blobStore, Executor uiExecutor, Metrics metrics) {
+        this.blobStore = blobStore;
+        this.uiExecutor = uiExecutor;
+        this.metrics = metrics;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    /**
+     * Passes the thumbnail of the stored image to the callback: right away if it is cached, otherwise on the
+     * UI executor once it is decoded. The callback is not called if the image cannot be read. Call on the UI thread.
+     */
+    public void request(String digest, Consumer<Image> callback) {
+        Image cached = cache.get(digest);
+        if (cached != null) {
+            callback.accept(cached);
+            return;
+        }
+        List<Consumer<Image>> waiting = decoding.get(digest);
+        if (waiting != null) {
+            waiting.add(callback);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(callback);
+        decoding.put(digest, waiting);
+        workers.execute(() -> decode(digest));
+    }
+
+    /** Returns the thumbnail if it is cached, without decoding it otherwise. Call on the UI thread. */
+    public Image getCached(String digest) {
+        return cache.get(digest);
+    }
+
+    public void stop() {
+        workers.shutdownNow();
+    }
+
+    private void decode(String digest) {
+        ImageCodec.Pixels pixels = null;
+        try {
+            pixels = ImageCodec.thumbnail(blobStore.map(digest), MAX_WIDTH, MAX_HEIGHT);
+        } catch (Exception e) {
+            System.err.println("Failed to read image " + digest + ": " + e);
+            metrics.recordError("thumbnail", e);
+        }
+        ImageCodec.Pixels decoded = pixels;
+        uiExecutor.execute(() -> {
+            List<Consumer<Image>> waiting = decoding.remove(digest);
+            if (decoded == null || waiting == null) {
+                return;
+            }
+            WritableImage image = new WritableImage(decoded.width, decoded.height);
+            image.getPixelWriter().setPixels(0, 0, decoded.width, decoded.height, PixelFormat.getIntArgbInstance(),
+                    decoded.argb, 0, decoded.width);
+            put(digest, image, 4L * decoded.width * decoded.height);
+            waiting.forEach(callback -> callback.accept(image));
+        });
+    }
+
+    private void put(String digest, Image image, long bytes) {
+        cache.put(digest, image);
+        cachedBytes += bytes;
+        Iterator<Image> eldest = cache.values().iterator();
+        while (cachedBytes > BUDGET_BYTES && eldest.hasNext()) {
+            Image evicted = eldest.next();
+            if (evicted == image) {
+                break;
+            }
+            cachedBytes -= 4L * (long) evicted.getWidth() * (long) evicted.getHeight();
+            eldest.remove();
+        }
+    }
+}
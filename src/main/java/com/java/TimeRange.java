@@ -0,0 +1,83 @@
+package com.java;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/** Half-open span {@code [from, to)} of capture times in epoch milliseconds; days use the system time zone. */
+public final class TimeRange {
+
+    /** Matches everything. */
+    public static final TimeRange ALL = new TimeRange(Long.MIN_VALUE, Long.MAX_VALUE, "All Time");
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMM dd, yyyy");
+
+    private final long from;
+    private final long to;
+    private final String label;
+
+    private TimeRange(long from, long to, String label) {
+        this.from = from;
+        this.to = to;
+        this.label = label;
+    }
+
+    public static TimeRange lastHour() {
+        return new TimeRange(toMillis(LocalDateTime.now().minusHours(1)), Long.MAX_VALUE, "Last Hour");
+    }
+
+    public static TimeRange today() {
+        return new TimeRange(toMillis(LocalDate.now().atStartOfDay()), Long.MAX_VALUE, "Today");
+    }
+
+    public static TimeRange yesterday() {
+        LocalDate today = LocalDate.now();
+        return new TimeRange(toMillis(today.minusDays(1).atStartOfDay()), toMillis(today.atStartOfDay()), "Yesterday");
+    }
+
+    /** Today and the {@code days - 1} days before it. */
+    public static TimeRange lastDays(int days) {
+        return new TimeRange(toMillis(LocalDate.now().minusDays(days - 1).atStartOfDay()), Long.MAX_VALUE, "Last " + days + " Days");
+    }
+
+    /** The days from {@code first} through {@code last}, both included. */
+    public static TimeRange between(LocalDate first, LocalDate last) {
+        String label = first.equals(last) ? first.format(DATE_FORMAT) : first.format(DATE_FORMAT) + " – " + last.format(DATE_FORMAT);
+        return new TimeRange(toMillis(first.atStartOfDay()), toMillis(last.plusDays(1).atStartOfDay()), label);
+    }
+
+    public static TimeRange between(LocalDateTime from, LocalDateTime to) {
+        return new TimeRange(toMillis(from), toMillis(to), from + " – " + to);
+    }
+
+    public boolean isAll() {
+        return from == Long.MIN_VALUE && to == Long.MAX_VALUE;
+    }
+
+    public boolean contains(long millis) {
+        return millis >= from && millis < to;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
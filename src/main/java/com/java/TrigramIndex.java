@@ -0,0 +1,397 @@
+package com.java;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * In-memory trigram index over the start of every history item, for typo-tolerant ranked search.
+ * Text is folded to lower-case letters and digits separated by single spaces, and every item is indexed
+ * by the set of three-character windows it contains. A query matches items that share at least half of
+ * its trigrams, so a typo or a swapped letter only costs a few of them. Results are ranked by how much
+ * of the query they cover, blended with how recent they are.
+ *
+ * <p>Posting lists are sorted {@code int} arrays keyed by an open-addressing table of packed trigrams,
+ * so the index holds no boxed values. Methods are synchronized, since the database thread updates it while
+ * searches run on reader threads; both are short compared to the queries around them.
+ */
+public class TrigramIndex {
+
+    /** Only this many leading characters of an item are indexed, the same text its preview shows. */
+    static final int INDEXED_CHARS = ClipboardItem.PREVIEW_CHARS;
+    private static final double MIN_COVERAGE = 0.5;
+    private static final double RECENCY_WEIGHT = 0.15;
+
+    // Open addressing: slot i holds trigram keys[i] (0 = empty) with postings[i][0..sizes[i])
+    private long[] keys = new long[1024];
+    private int[][] postings = new int[1024][];
+    private int[] sizes = new int[1024];
+    private int usedSlots;
+
+    // Number of distinct trigrams per item id, 0 when the id is not indexed
+    private int[] docTrigrams = new int[1024];
+    private int docCount;
+    private int maxId;
+    private long postingCount;
+
+    // Reused between queries: per-id match counts, and the ids they were set for
+    private int[] matchCounts = new int[0];
+    private int[] touched = new int[64];
+
+    /** Indexes a new item. An id that is already indexed is left as it is; use {@link #update} to re-index. */
+    public synchronized void add(int id, String text) {
+        if (id < docTrigrams.length && docTrigrams[id] != 0) {
+            return;
+        }
+        long[] trigrams = trigrams(text, INDEXED_CHARS);
+        if (trigrams.length == 0) {
+            return;
+        }
+        if (id >= docTrigrams.length) {
+            docTrigrams = Arrays.copyOf(docTrigrams, Math.max(id + 1, docTrigrams.length * 2));
+        }
+        docCount++;
+        docTrigrams[id] = trigrams.length;
+        maxId = Math.max(maxId, id);
+        for (long trigram : trigrams) {
+            append(slotFor(trigram), id);
+        }
+    }
+
+    /** Re-indexes an item whose text was edited. */
+    public synchronized void update(int id, String text) {
+        removeAll(java.util.List.of(id));
+        add(id, text);
+    }
+
+    /** Drops the given ids in one pass over all posting lists, so batches cost the same as single deletes. */
+    public synchronized void removeAll(Collection<Integer> ids) {
+        BitSet removed = new BitSet();
+        for (int id : ids) {
+            if (id < docTrigrams.length && docTrigrams[id] != 0) {
+                removed.set(id);
+                docTrigrams[id] = 0;
+                docCount--;
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            int[] list = postings[slot];
+            if (list == null) {
+                continue;
+            }
+            int kept = 0;
+            for (int i = 0; i < sizes[slot]; i++) {
+                if (!removed.get(list[i])) {
+                    list[kept++] = list[i];
+                }
+            }
+            postingCount -= sizes[slot] - kept;
+            sizes[slot] = kept;
+        }
+    }
+
+    public synchronized void clear() {
+        keys = new long[1024];
+        postings = new int[1024][];
+        sizes = new int[1024];
+        usedSlots = 0;
+        docTrigrams = new int[1024];
+        docCount = 0;
+        maxId = 0;
+        postingCount = 0;
+        matchCounts = new int[0];
+    }
+
+    public synchronized int size() {
+        return docCount;
+    }
+
+    /** Approximate heap held by the index, in bytes. */
+    public synchronized long estimateBytes() {
+        long bytes = keys.length * (8L + 8 + 4) + 4L * docTrigrams.length + 4L * matchCounts.length;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (postings[slot] != null) {
+                bytes += 16 + 4L * postings[slot].length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns up to {@code limit} item ids ranked best first, or an empty array if the query is too short
+     * to form a trigram or nothing matches.
+     */
+    public synchronized int[] search(String query, int limit) {
+        long[] trigrams = trigrams(query, Integer.MAX_VALUE);
+        if (trigrams.length == 0 || docCount == 0) {
+            return new int[0];
+        }
+        if (matchCounts.length <= maxId) {
+            matchCounts = new int[maxId + 1];
+        }
+
+        // Shortest posting lists first: once too few lists remain for an unseen item to reach the
+        // required count, the rest only add to items already seen
+        int[] slots = new int[trigrams.length];
+        int found = 0;
+        for (long trigram : trigrams) {
+            int slot = find(trigram);
+            if (slot >= 0 && sizes[slot] > 0) {
+                slots[found++] = slot;
+            }
+        }
+        int required = (int) Math.ceil(trigrams.length * MIN_COVERAGE);
+        if (found < required) {
+            return new int[0];
+        }
+        long[] bySize = new long[found];
+        for (int i = 0; i < found; i++) {
+            bySize[i] = ((long) sizes[slots[i]] << 32) | slots[i];
+        }
+        Arrays.sort(bySize);
+
+        int touchedCount = 0;
+        for (int n = 0; n < found; n++) {
+            int slot = (int) bySize[n];
+            int[] list = postings[slot];
+            int size = sizes[slot];
+            if (found - n >= required) {
+                for (int i = 0; i < size; i++) {
+                    int id = list[i];
+                    if (matchCounts[id]++ == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, touchedCount * 2);
+                        }
+                        touched[touchedCount++] = id;
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    int id = list[i];
+                    if (matchCounts[id] != 0) {
+                        matchCounts[id]++;
+                    }
+                }
+            }
+        }
+
+        TopK top = new TopK(limit);
+        for (int i = 0; i < touchedCount; i++) {
+            int id = touched[i];
+            int matches = matchCounts[id];
+            matchCounts[id] = 0;
+            if (matches < required) {
+                continue;
+            }
+            // Coverage of the query decides; Dice similarity prefers items that are mostly the query
+            double coverage = (double) matches / trigrams.length;
+            double dice = 2.0 * matches / (trigrams.length + docTrigrams[id]);
+            double quality = 0.8 * coverage + 0.2 * dice;
+            double recency = (double) id / maxId;
+            top.offer(id, (1 - RECENCY_WEIGHT) * quality + RECENCY_WEIGHT * recency);
+        }
+        return top.drain();
+    }
+
+    private void append(int slot, int id) {
+        int[] list = postings[slot];
+        int size = sizes[slot];
+        if (list == null) {
+            list = new int[4];
+            postings[slot] = list;
+        } else if (size == list.length) {
+            list = Arrays.copyOf(list, size + (size >> 1) + 1);
+            postings[slot] = list;
+        }
+        if (size == 0 || list[size - 1] < id) {
+            // New captures have the highest id, so this is the common case
+            list[size] = id;
+        } else {
+            int pos = Arrays.binarySearch(list, 0, size, id);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            System.arraycopy(list, pos, list, pos + 1, size - pos);
+            list[pos] = id;
+        }
+        sizes[slot] = size + 1;
+        postingCount++;
+    }
+
+    private int find(long trigram) {
+        int mask = keys.length - 1;
+        for (int slot = hash(trigram) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == trigram) {
+                return slot;
+            }
+            if (keys[slot] == 0) {
+                return -1;
+            }
+        }
+    }
+
+    private int slotFor(long trigram) {
+        int slot = find(trigram);
+        if (slot >= 0) {
+            return slot;
+        }
+        if ((usedSlots + 1) * 2 > keys.length) {
+            rehash();
+        }
+        int mask = keys.length - 1;
+        slot = hash(trigram) & mask;
+        while (keys[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = trigram;
+        usedSlots++;
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[][] oldPostings = postings;
+        int[] oldSizes = sizes;
+        keys = new long[oldKeys.length * 2];
+        postings = new int[keys.length][];
+        sizes = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) {
+                continue;
+            }
+            int slot = hash(oldKeys[i]) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            postings[slot] = oldPostings[i];
+            sizes[slot] = oldSizes[i];
+        }
+    }
+
+    private static int hash(long trigram) {
+        long h = trigram * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Returns the distinct trigrams of the folded text, sorted. Each trigram packs three 16-bit chars
+     * into a long; the folding never produces char 0, so 0 is free to mark empty slots.
+     */
+    static long[] trigrams(String text, int maxChars) {
+        int end = Math.min(text.length(), maxChars);
+        char[] folded = new char[end + 2];
+        int length = 0;
+        folded[length++] = ' ';
+        for (int i = 0; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                folded[length++] = Character.toLowerCase(c);
+            } else if (folded[length - 1] != ' ') {
+                folded[length++] = ' ';
+            }
+        }
+        if (folded[length - 1] != ' ') {
+            folded[length++] = ' ';
+        }
+        if (length < 3) {
+            return new long[0];
+        }
+
+        long[] trigrams = new long[length - 2];
+        for (int i = 0; i + 2 < length; i++) {
+            trigrams[i] = ((long) folded[i] << 32) | ((long) folded[i + 1] << 16) | folded[i + 2];
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    // Bounded min-heap on score, so picking the best few of many candidates never sorts them all
+    private static final class TopK {
+        private final int[] ids;
+        private final double[] scores;
+        private int size;
+
+        TopK(int capacity) {
+            ids = new int[capacity];
+            scores = new double[capacity];
+        }
+
+        void offer(int id, double score) {
+            if (ids.length == 0) {
+                return;
+            }
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (score > scores[0]) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        int[] drain() {
+            int[] ranked = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                ranked[i] = ids[0];
+                size--;
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+            return ranked;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (scores[parent] <= scores[i]) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && scores[left] < scores[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && scores[right] < scores[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
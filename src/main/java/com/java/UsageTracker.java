@@ -0,0 +1,165 @@
+package com.java;
+
+import org.sqlite.Function;
+import org.sqlite.core.Codes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts how often items are copied back out of the history. Uses are added up in memory and written to
+ * the {@code use_count}, {@code last_used_ms} and {@code frecency} columns of {@code clipboard} in one
+ * transaction every {@link #FLUSH_INTERVAL_SECONDS}, so a click costs a map update rather than a write.
+ * Each flush adds its counts to what is stored, so it is correct whatever ran in between.
+ *
+ * <p>Items read from the database while their uses wait here are brought up to date with {@link #apply}.
+ */
+public class UsageTracker {
+
+    static final long FLUSH_INTERVAL_SECONDS = 30;
+
+    private final ExecutorService dbExecutor;
+    private final Metrics metrics;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "usage-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Guarded by this; swapped out whole by each flush
+    private Map<Integer, Pending> pending = new HashMap<>();
+    private Connection connection;
+    private volatile long flushedUses;
+
+    public UsageTracker(ExecutorService dbExecutor, Metrics metrics) {
+        this.dbExecutor = dbExecutor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Binds to the database connection and registers {@code frecency_add}. Called on the database thread.
+     */
+    void open(Connection connection) throws SQLException {
+        this.connection = connection;
+        Function.create(connection, "frecency_add", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                double stored = value_type(0) == Codes.SQLITE_NULL ? Double.NaN : value_double(0);
+                result(Frecency.add(stored, value_double(1)));
+            }
+        }, 2, Function.FLAG_DETERMINISTIC);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Records one use of an item at the given time in epoch milliseconds. Safe to call from any thread.
+     */
+    public synchronized void record(int id, long millis) {
+        Pending uses = pending.computeIfAbsent(id, key -> new Pending());
+        uses.count++;
+        uses.lastUsed = Math.max(uses.lastUsed, millis);
+        uses.frecency = Frecency.add(uses.frecency, Frecency.ofTime(millis));
+    }
+
+    /**
+     * Moves uses not yet written from rows that a re-copy replaced to the row that replaced them.
+     */
+    public synchronized void transfer(List<Integer> fromIds, int toId) {
+        for (int id : fromIds) {
+            Pending uses = pending.remove(id);
+            if (uses != null) {
+                Pending into = pending.computeIfAbsent(toId, key -> new Pending());
+                into.count += uses.count;
+                into.lastUsed = Math.max(into.lastUsed, uses.lastUsed);
+                into.frecency = Frecency.add(into.frecency, uses.frecency);
+            }
+        }
+    }
+
+    /**
+     * Adds the uses still waiting to be written to an item just read from the database.
+     */
+    public synchronized void apply(ClipboardItem item) {
+        Pending uses = pending.get(item.getId());
+        if (uses != null) {
+            item.setUsage(item.getUseCount() + uses.count, Math.max(item.getLastUsedMillis(), uses.lastUsed),
+                    Frecency.add(item.getFrecency(), uses.frecency));
+        }
+    }
+
+    /**
+     * Writes every use recorded so far. Completes on the database thread once they are committed.
+     */
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(this::flushNow, dbExecutor);
+    }
+
+    /**
+     * Writes every use recorded so far; must run on the database thread.
+     */
+    void flushNow() {
+        Map<Integer, Pending> batch;
+        synchronized (this) {
+            if (pending.isEmpty() || connection == null) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+        }
+        DiagnosticEvents.Database event = metrics.beginDatabase("usage");
+        long uses = 0;
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement update = connection.prepareStatement("UPDATE clipboard SET use_count = use_count + ?, "
+                    + "last_used_ms = MAX(IFNULL(last_used_ms, 0), ?), frecency = frecency_add(frecency, ?) WHERE id = ?")) {
+                for (Map.Entry<Integer, Pending> entry : batch.entrySet()) {
+                    Pending item = entry.getValue();
+                    update.setInt(1, item.count);
+                    update.setLong(2, item.lastUsed);
+                    update.setDouble(3, item.frecency);
+                    update.setInt(4, entry.getKey());
+                    update.addBatch();
+                    uses += item.count;
+                }
+                update.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            flushedUses += uses;
+            metrics.endDatabase(event, batch.size());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            metrics.recordError("usage", e);
+        }
+    }
+
+    /** Uses written to the database since startup. */
+    public long getFlushedUses() {
+        return flushedUses;
+    }
+
+    private static final class Pending {
+        int count;
+        long lastUsed;
+        double frecency = Double.NaN;
+    }
+}
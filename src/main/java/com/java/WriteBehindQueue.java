@@ -0,0 +1,716 @@
+package com.java;
+
+import java.io.IOException;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Batches writes into one transaction per drain on the database thread, journaling them until committed.
+ * Failed batches are retried with a growing delay; callbacks run once per write, in queue order.
+ */
+public class WriteBehindQueue {
+
+    private static final int CAPACITY = 4096;
+    private static final int MAX_BATCH = 512;
+    // Doubled after every failed commit
+    private static final long RETRY_DELAY_MS = 50;
+    private static final long MAX_RETRY_DELAY_MS = 5000;
+
+    private final ExecutorService dbExecutor;
+    private final ContentCodec codec;
+    private final Executor callbackExecutor;
+    private final Metrics metrics;
+    private final CaptureJournal journal;
+    private final BlobStore blobStore;
+    private final NearDuplicates nearDuplicates;
+    private final BlockingQueue<Op> queue = new ArrayBlockingQueue<>(CAPACITY);
+    // Always newer than everything in queue; guarded by queue
+    private final Queue<Op> overflow = new ArrayDeque<>();
+    // Taken but not committed yet, oldest first; database thread only
+    private final Deque<Op> retained = new ArrayDeque<>();
+    private volatile int retainedWrites;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "write-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long retryDelay = RETRY_DELAY_MS;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private Connection connection;
+    private volatile int largePayloadThreshold = Integer.MAX_VALUE;
+
+    /**
+     * @param callbackExecutor runs the commit callbacks of each batch, normally {@code Platform::runLater}
+     * @param journal where writes are logged until committed, or {@code null} to keep them in memory only
+     * @param blobStore where rich content keeps its files, or {@code null} if only text is stored
+     * @param nearDuplicates groups new rows with their near duplicates; bound to the same connection
+     */
+    public WriteBehindQueue(ExecutorService dbExecutor, ContentCodec codec, Executor callbackExecutor, Metrics metrics,
+                            CaptureJournal journal, BlobStore blobStore, NearDuplicates nearDuplicates) {
+        this.dbExecutor = dbExecutor;
+        this.codec = codec;
+        this.callbackExecutor = callbackExecutor;
+        this.metrics = metrics;
+        this.journal = journal;
+        this.blobStore = blobStore;
+        this.nearDuplicates = nearDuplicates;
+    }
+
+    /**
+     * Binds the queue to the database connection. Called on the database thread before any drain runs.
+     */
+    void open(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Sets the size, in characters, from which new payloads are stored out of line.
+     */
+    public void setLargePayloadThreshold(int chars) {
+        this.largePayloadThreshold = chars;
+    }
+
+    public int getPendingWrites() {
+        synchronized (queue) {
+            return retainedWrites + queue.size() + overflow.size();
+        }
+    }
+
+    /** Replays journaled writes a previous run never committed. Database thread, before new ids are handed out. */
+    void recover() {
+        if (journal == null) {
+            return;
+        }
+        long applied = 0;
+        try (ResultSet rs = statement("SELECT applied_seq FROM journal_state WHERE id = 0").executeQuery()) {
+            if (rs.next()) {
+                applied = rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            metrics.recordError("recover", e);
+            return;
+        }
+        // Sequence numbers keep growing across truncations, so committed records can always be told apart
+        journal.advanceSeq(applied);
+
+        for (CaptureJournal.Record record : journal.getRecovered()) {
+            if (record.seq > applied) {
+                retained.add(new Op(kindOf(record.kind), record.id, record.content, record.hash, record.contentKind, record.attachment,
+                        record.timestamp, new Outcome(), null, record.seq, -1));
+            }
+        }
+        retainedWrites = retained.size();
+        if (!retained.isEmpty()) {
+            metrics.recordMaintenance("journal", retained.size(), "Replayed " + retained.size() + " uncommitted writes from the capture journal");
+        }
+        while (!retained.isEmpty()) {
+            if (!commitBatch()) {
+                // New writes queue up behind the rest
+                drainScheduled.set(true);
+                scheduleRetry();
+                return;
+            }
+        }
+        journal.truncateIfCommitted(applied);
+    }
+
+    /**
+     * @param onCommit receives the ids of older rows holding the same payload, which the insert replaced, and
+     *                 the group of near duplicates the new row heads
+     */
+    public void insert(int id, String content, long hash, LocalDateTime timestamp, Consumer<Outcome> onCommit) {
+        insert(id, content, hash, RichContent.Kind.TEXT, null, timestamp, onCommit);
+    }
+
+    /** Inserts rich content whose file, if any, is already in the {@link BlobStore} under {@code attachment}. */
+    public void insert(int id, String content, long hash, RichContent.Kind contentKind, String attachment, LocalDateTime timestamp,
+                       Consumer<Outcome> onCommit) {
+        Outcome outcome = new Outcome();
+        enqueue(Kind.INSERT, id, content, hash, contentKind.getCode(), attachment, timestamp, outcome, () -> onCommit.accept(outcome));
+    }
+
+    /**
+     * Replaces the content of a text row.
+     */
+    public void update(int id, String content, long hash) {
+        enqueue(Kind.UPDATE, id, content, hash, RichContent.Kind.TEXT.getCode(), null, null, new Outcome(), null);
+    }
+
+    /**
+     * @param onCommit receives the member that became the head of the row's group of near duplicates, if any
+     */
+    public void delete(int id, Consumer<Outcome> onCommit) {
+        Outcome outcome = new Outcome();
+        enqueue(Kind.DELETE, id, null, 0, RichContent.Kind.TEXT.getCode(), null, null, outcome, () -> onCommit.accept(outcome));
+    }
+
+    public void clear(Consumer<Outcome> onCommit) {
+        Outcome outcome = new Outcome();
+        enqueue(Kind.CLEAR, -1, null, 0, RichContent.Kind.TEXT.getCode(), null, null, outcome, () -> onCommit.accept(outcome));
+    }
+
+    private void enqueue(Kind kind, int id, String content, long hash, int contentKind, String attachment, LocalDateTime timestamp,
+                         Outcome outcome, Runnable onCommit) {
+        // Journal order must match queue order, or a commit could cover a sequence number still on its way in
+        synchronized (queue) {
+            long seq = 0;
+            int position = -1;
+            if (journal != null) {
+                try {
+                    seq = journal.append(journalKind(kind), id, hash, timestamp, content, contentKind, attachment);
+                    position = journal.lastPosition();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    metrics.recordError("journal", e);
+                }
+            }
+            Op op = new Op(kind, id, content, hash, contentKind, attachment, timestamp, outcome, onCommit, seq, -1);
+            if (!overflow.isEmpty() || !queue.offer(op)) {
+                // The database is CAPACITY writes behind; a journaled op only keeps where its content is
+                overflow.add(position >= 0 ? new Op(kind, id, null, hash, contentKind, null, timestamp, outcome, onCommit, seq, position) : op);
+            }
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            dbExecutor.submit(this::drain);
+        }
+    }
+
+    /** Commits everything queued and closes the cached statements. Database thread only. */
+    void flushAndClose() {
+        retryScheduler.shutdownNow();
+        // Whatever fails here stays in the journal for the next start
+        while (hasPending()) {
+            if (!commitBatch()) {
+                break;
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        statements.clear();
+    }
+
+    private void drain() {
+        if (!commitBatch()) {
+            // drainScheduled stays set, so new writes wait for the retry
+            scheduleRetry();
+            return;
+        }
+        retryDelay = RETRY_DELAY_MS;
+        drainScheduled.set(false);
+        // Anything beyond MAX_BATCH goes in a follow-up task so reads queued meanwhile get a turn
+        if (hasPending() && drainScheduled.compareAndSet(false, true)) {
+            dbExecutor.submit(this::drain);
+        }
+    }
+
+    private void scheduleRetry() {
+        long delay = retryDelay;
+        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+        retryScheduler.schedule(() -> dbExecutor.execute(this::drain), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean hasPending() {
+        synchronized (queue) {
+            return !retained.isEmpty() || !queue.isEmpty() || !overflow.isEmpty();
+        }
+    }
+
+    // Takes the oldest writes not yet committed, up to MAX_BATCH
+    private List<Op> take() {
+        List<Op> batch = new ArrayList<>();
+        while (batch.size() < MAX_BATCH && !retained.isEmpty()) {
+            batch.add(retained.poll());
+        }
+        retainedWrites = retained.size();
+        queue.drainTo(batch, MAX_BATCH - batch.size());
+        List<Op> spilled = new ArrayList<>();
+        synchronized (queue) {
+            while (batch.size() + spilled.size() < MAX_BATCH && queue.isEmpty() && !overflow.isEmpty()) {
+                spilled.add(overflow.poll());
+            }
+        }
+        for (Op op : spilled) {
+            if (op.position < 0) {
+                batch.add(op);
+                continue;
+            }
+            CaptureJournal.Record record = journal.read(op.position);
+            batch.add(new Op(op.kind, op.id, record.content, op.hash, op.contentKind, record.attachment, op.timestamp,
+                    op.outcome, op.onCommit, op.seq, -1));
+        }
+        return batch;
+    }
+
+    // Returns false if the batch was rolled back; it is then retained for the next attempt
+    private boolean commitBatch() {
+        List<Op> batch = take();
+        if (batch.isEmpty()) {
+            return true;
+        }
+
+        boolean clearFirst = false;
+        long lastSeq = 0;
+        Map<Integer, Op> pending = new LinkedHashMap<>();
+        for (Op op : batch) {
+            clearFirst |= coalesce(pending, op);
+            lastSeq = Math.max(lastSeq, op.seq);
+        }
+
+        if (!tryCommit(pending.values(), clearFirst, lastSeq)) {
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                retained.addFirst(batch.get(i));
+            }
+            retainedWrites = retained.size();
+            return false;
+        }
+
+        List<Runnable> callbacks = new ArrayList<>();
+        for (Op op : batch) {
+            if (op.onCommit != null) {
+                callbacks.add(op.onCommit);
+            }
+        }
+        if (!callbacks.isEmpty()) {
+            callbackExecutor.execute(() -> callbacks.forEach(Runnable::run));
+        }
+        return true;
+    }
+
+    // Applies the coalesced writes in one transaction; returns false if it was rolled back
+    private boolean tryCommit(Collection<Op> ops, boolean clearFirst, long lastSeq) {
+        DiagnosticEvents.Database event = metrics.beginDatabase("commit");
+        Set<String> orphans = new HashSet<>();
+        try {
+            connection.setAutoCommit(false);
+            if (clearFirst) {
+                try (ResultSet rs = statement("SELECT DISTINCT attachment FROM blobs WHERE attachment IS NOT NULL").executeQuery()) {
+                    while (rs.next()) {
+                        orphans.add(rs.getString(1));
+                    }
+                }
+                statement("DELETE FROM clipboard").executeUpdate();
+                statement("DELETE FROM blobs").executeUpdate();
+            }
+            for (Op op : ops) {
+                // Left over from an attempt that was rolled back
+                op.outcome.reset();
+                apply(op, orphans);
+            }
+            if (journal != null && lastSeq > 0) {
+                PreparedStatement applied = statement("INSERT OR REPLACE INTO journal_state (id, applied_seq) VALUES (0, ?)");
+                applied.setLong(1, lastSeq);
+                applied.executeUpdate();
+            }
+            connection.commit();
+            metrics.endDatabase(event, ops.size());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            metrics.recordError("commit", e);
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackError) {
+                rollbackError.printStackTrace();
+            }
+            return false;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (journal != null) {
+            journal.truncateIfCommitted(lastSeq);
+        }
+        if (blobStore != null && !orphans.isEmpty()) {
+            // Already committed; files missed here are swept at the next start
+            try {
+                blobStore.deleteUnreferenced(connection, orphans);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                metrics.recordError("delete attachments", e);
+            }
+        }
+        return true;
+    }
+
+    // Folds op into the pending set, marking the writes it makes unnecessary as superseded. Returns true if
+    // it was a clear, which supersedes everything before it.
+    private boolean coalesce(Map<Integer, Op> pending, Op op) {
+        if (op.kind == Kind.CLEAR) {
+            for (Op previous : pending.values()) {
+                previous.outcome.status = Status.SUPERSEDED;
+            }
+            pending.clear();
+            return true;
+        }
+
+        Op previous = pending.get(op.id);
+        if (previous == null) {
+            pending.put(op.id, op);
+        } else if (op.kind == Kind.UPDATE) {
+            // Later edits win; an edit to a row not yet inserted just changes what gets inserted
+            if (previous.kind == Kind.DELETE) {
+                op.outcome.status = Status.SUPERSEDED;
+                return false;
+            }
+            Kind kind = previous.kind == Kind.INSERT ? Kind.INSERT : Kind.UPDATE;
+            pending.put(op.id, new Op(kind, op.id, op.content, op.hash, op.contentKind, op.attachment, previous.timestamp,
+                    previous.outcome, null, op.seq, -1));
+        } else if (op.kind == Kind.DELETE) {
+            previous.outcome.status = Status.SUPERSEDED;
+            if (previous.kind == Kind.INSERT) {
+                // Inserted and deleted within one batch: neither needs to reach the database
+                pending.remove(op.id);
+            } else {
+                pending.put(op.id, op);
+            }
+        } else {
+            previous.outcome.status = Status.SUPERSEDED;
+            pending.put(op.id, op);
+        }
+        return false;
+    }
+
+    // Adds the attachments of blobs it deletes to orphans
+    private void apply(Op op, Set<String> orphans) throws SQLException {
+        switch (op.kind) {
+            case INSERT: {
+                long created = TimeRange.toMillis(op.timestamp);
+                int useCount = 0;
+                long lastUsed = 0;
+                double frecency = Frecency.ofTime(created);
+                long blobId = findBlob(op.content, op.hash, op.contentKind, op.attachment);
+                long simhash;
+                if (blobId >= 0) {
+                    // Known payload: reuse its blob and replace its old row, which hands its uses over
+                    PreparedStatement select = statement("SELECT id, use_count, last_used_ms, frecency FROM clipboard WHERE blob_id = ?");
+                    select.setLong(1, blobId);
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            op.outcome.replacedIds.add(rs.getInt(1));
+                            useCount += rs.getInt(2);
+                            lastUsed = Math.max(lastUsed, rs.getLong(3));
+                            double replaced = rs.getDouble(4);
+                            frecency = Frecency.add(frecency, rs.wasNull() ? Double.NaN : replaced);
+                        }
+                    }
+                    PreparedStatement delete = statement("DELETE FROM clipboard WHERE blob_id = ?");
+                    delete.setLong(1, blobId);
+                    delete.executeUpdate();
+                    simhash = fingerprintOf(blobId, op.content, op.contentKind);
+                } else {
+                    simhash = NearDuplicates.fingerprint(op.content, op.contentKind);
+                    blobId = insertBlob(op.content, op.hash, op.contentKind, op.attachment, simhash);
+                }
+                PreparedStatement insert = statement("INSERT INTO clipboard (id, blob_id, timestamp, created_ms, use_count, last_used_ms, frecency) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?)");
+                insert.setInt(1, op.id);
+                insert.setLong(2, blobId);
+                insert.setString(3, op.timestamp.toString());
+                insert.setLong(4, created);
+                insert.setInt(5, useCount);
+                if (lastUsed > 0) {
+                    insert.setLong(6, lastUsed);
+                } else {
+                    insert.setNull(6, Types.INTEGER);
+                }
+                insert.setDouble(7, frecency);
+                insert.executeUpdate();
+                group(op, simhash);
+                break;
+            }
+            case UPDATE: {
+                long oldBlobId = blobIdOf(op.id);
+                long blobId = findBlob(op.content, op.hash, op.contentKind, op.attachment);
+                // An edit keeps its place among its near duplicates even if it drifts away from them
+                if (blobId < 0) {
+                    blobId = insertBlob(op.content, op.hash, op.contentKind, op.attachment, NearDuplicates.fingerprint(op.content, op.contentKind));
+                }
+                PreparedStatement update = statement("UPDATE clipboard SET blob_id = ? WHERE id = ?");
+                update.setLong(1, blobId);
+                update.setInt(2, op.id);
+                update.executeUpdate();
+                if (oldBlobId != blobId) {
+                    deleteBlobIfUnused(oldBlobId, orphans);
+                }
+                break;
+            }
+            case DELETE: {
+                long blobId = blobIdOf(op.id);
+                PreparedStatement delete = statement("DELETE FROM clipboard WHERE id = ?");
+                delete.setInt(1, op.id);
+                delete.executeUpdate();
+                deleteBlobIfUnused(blobId, orphans);
+                op.outcome.promotedId = nearDuplicates.promote(op.id);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown write " + op.kind);
+        }
+    }
+
+    // A re-copy takes over the members of the rows it replaced, then the new row heads its nearest group
+    private void group(Op op, long simhash) throws SQLException {
+        for (int replacedId : op.outcome.replacedIds) {
+            nearDuplicates.moveMembers(replacedId, op.id);
+        }
+        int near = nearDuplicates.findGroup(simhash, op.id);
+        if (near != 0) {
+            op.outcome.foldedId = nearDuplicates.join(op.id, near);
+        }
+        if (near != 0 || !op.outcome.replacedIds.isEmpty()) {
+            op.outcome.similarCount = nearDuplicates.countSimilar(op.id);
+        }
+    }
+
+    // Blobs from before fingerprints, or from an import the background pass has not reached, get one now
+    private long fingerprintOf(long blobId, String content, int contentKind) throws SQLException {
+        PreparedStatement select = statement("SELECT simhash FROM blobs WHERE id = ?");
+        select.setLong(1, blobId);
+        try (ResultSet rs = select.executeQuery()) {
+            if (rs.next()) {
+                long simhash = rs.getLong(1);
+                if (!rs.wasNull()) {
+                    return simhash;
+                }
+            }
+        }
+        long simhash = NearDuplicates.fingerprint(content, contentKind);
+        PreparedStatement update = statement("UPDATE blobs SET simhash = ? WHERE id = ?");
+        update.setLong(1, simhash);
+        update.setLong(2, blobId);
+        update.executeUpdate();
+        return simhash;
+    }
+
+    long findBlob(String content, long hash) throws SQLException {
+        return findBlob(content, hash, RichContent.Kind.TEXT.getCode(), null);
+    }
+
+    // Returns the id of the blob holding exactly this content, or -1. The hash only narrows the lookup.
+    long findBlob(String content, long hash, int contentKind, String attachment) throws SQLException {
+        PreparedStatement pstmt = statement("SELECT b.id, b.format, b.kind, b.attachment, COALESCE(p.content, b.content) AS content FROM blobs b "
+                + "LEFT JOIN payloads p ON p.blob_id = b.id WHERE b.hash = ?");
+        pstmt.setLong(1, hash);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                if (rs.getInt("kind") == contentKind && Objects.equals(attachment, rs.getString("attachment"))
+                        && content.equals(codec.decode(rs.getInt("format"), rs.getObject("content")))) {
+                    return rs.getLong("id");
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Large payloads go to the payloads table so paging blob previews never reads their overflow pages
+    long insertBlob(String content, long hash) throws SQLException {
+        // Without a fingerprint, so the background pass of NearDuplicates groups the row it belongs to
+        return insertBlob(content, hash, RichContent.Kind.TEXT.getCode(), null, null);
+    }
+
+    long insertBlob(String content, long hash, int contentKind, String attachment, Long simhash) throws SQLException {
+        boolean external = content.length() >= largePayloadThreshold;
+        PreparedStatement payload = external ? statement("INSERT INTO payloads (blob_id, content) VALUES (?, ?)") : null;
+        PreparedStatement pstmt = statement("INSERT INTO blobs (hash, content, preview, line_count, length, external, format, kind, attachment, simhash) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        pstmt.setLong(1, hash);
+        int format = codec.bind(external ? payload : pstmt, 2, content);
+        if (external) {
+            pstmt.setString(2, "");
+        }
+        pstmt.setString(3, external || content.length() > ClipboardItem.PREVIEW_CHARS ? ClipboardItem.previewOf(content) : null);
+        pstmt.setInt(4, ClipboardItem.lineCountOf(content));
+        pstmt.setInt(5, content.length());
+        pstmt.setBoolean(6, external);
+        pstmt.setInt(7, format);
+        pstmt.setInt(8, contentKind);
+        pstmt.setString(9, attachment);
+        if (simhash != null) {
+            pstmt.setLong(10, simhash);
+        } else {
+            pstmt.setNull(10, Types.INTEGER);
+        }
+        pstmt.executeUpdate();
+        long blobId;
+        try (ResultSet rs = statement("SELECT last_insert_rowid()").executeQuery()) {
+            rs.next();
+            blobId = rs.getLong(1);
+        }
+        if (external) {
+            payload.setLong(1, blobId);
+            payload.executeUpdate();
+        }
+        return blobId;
+    }
+
+    private void deleteBlobIfUnused(long blobId, Set<String> orphans) throws SQLException {
+        String attachment = null;
+        PreparedStatement select = statement("SELECT attachment FROM blobs WHERE id = ?");
+        select.setLong(1, blobId);
+        try (ResultSet rs = select.executeQuery()) {
+            if (rs.next()) {
+                attachment = rs.getString(1);
+            }
+        }
+        PreparedStatement pstmt = statement("DELETE FROM blobs WHERE id = ? AND NOT EXISTS (SELECT 1 FROM clipboard WHERE blob_id = ?)");
+        pstmt.setLong(1, blobId);
+        pstmt.setLong(2, blobId);
+        if (pstmt.executeUpdate() > 0 && attachment != null) {
+            orphans.add(attachment);
+        }
+    }
+
+    private long blobIdOf(int itemId) throws SQLException {
+        PreparedStatement pstmt = statement("SELECT blob_id FROM clipboard WHERE id = ?");
+        pstmt.setInt(1, itemId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    private PreparedStatement statement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private enum Kind { INSERT, UPDATE, DELETE, CLEAR }
+
+    private static byte journalKind(Kind kind) {
+        switch (kind) {
+            case INSERT: return CaptureJournal.INSERT;
+            case UPDATE: return CaptureJournal.UPDATE;
+            case DELETE: return CaptureJournal.DELETE;
+            default: return CaptureJournal.CLEAR;
+        }
+    }
+
+    private static Kind kindOf(byte journalKind) {
+        switch (journalKind) {
+            case CaptureJournal.INSERT: return Kind.INSERT;
+            case CaptureJournal.UPDATE: return Kind.UPDATE;
+            case CaptureJournal.DELETE: return Kind.DELETE;
+            default: return Kind.CLEAR;
+        }
+    }
+
+    private static final class Op {
+        final Kind kind;
+        final int id;
+        final String content;
+        final long hash;
+        // A RichContent.Kind code
+        final int contentKind;
+        final String attachment;
+        final LocalDateTime timestamp;
+        // Filled in by apply; shared with the op an update was folded into
+        final Outcome outcome;
+        // Only on the op as it was queued, never on one made by coalescing, so it runs once
+        final Runnable onCommit;
+        final long seq;
+        // Where the journal holds the content of an overflowed op, else -1
+        final int position;
+
+        Op(Kind kind, int id, String content, long hash, int contentKind, String attachment, LocalDateTime timestamp,
+           Outcome outcome, Runnable onCommit, long seq, int position) {
+            this.kind = kind;
+            this.id = id;
+            this.content = content;
+            this.hash = hash;
+            this.contentKind = contentKind;
+            this.attachment = attachment;
+            this.timestamp = timestamp;
+            this.outcome = outcome;
+            this.onCommit = onCommit;
+            this.seq = seq;
+            this.position = position;
+        }
+    }
+
+    /** How a write ended. */
+    public enum Status {
+        COMMITTED,
+        /** A later write in the same batch, like a delete of the inserted row or a clear, made it unnecessary. */
+        SUPERSEDED
+    }
+
+    /** Whether a write reached the database, and what committing an insert or a delete did to rows other than its own. */
+    public static final class Outcome {
+        private Status status = Status.COMMITTED;
+        private final List<Integer> replacedIds = new ArrayList<>();
+        private int foldedId;
+        private int similarCount;
+        private int promotedId;
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isCommitted() {
+            return status == Status.COMMITTED;
+        }
+
+        /** Older rows of an insert's exact content, which it replaced. */
+        public List<Integer> getReplacedIds() {
+            return replacedIds;
+        }
+
+        /** The head of the group an insert joined, now folded under the new row; 0 if it joined none. */
+        public int getFoldedId() {
+            return foldedId;
+        }
+
+        /** How many older near duplicates an inserted row stands for. */
+        public int getSimilarCount() {
+            return similarCount;
+        }
+
+        /** The member that took a deleted head's place, or 0. */
+        public int getPromotedId() {
+            return promotedId;
+        }
+
+        private void reset() {
+            replacedIds.clear();
+            foldedId = 0;
+            similarCount = 0;
+            promotedId = 0;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+#!/bin/sh
+# Launches Ditto with the AppCDS archive from `mvn -P cds package`. The JVM falls back to a normal
+# start if the archive is missing or was built for a different classpath.
+exec java -XX:SharedArchiveFile="${project.build.directory}/ditto.jsa" -Xshare:auto \
+    -cp "${project.build.directory}/${project.build.finalName}.jar${path.separator}${ditto.classpath}" com.java.Main "$@"